@@ -0,0 +1,87 @@
+package com.example.produktapi.benchmark;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.DispatcherServlet;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET /products and /products/categories with and without CatalogResponseCache. Requests go
+ * through the DispatcherServlet on the benchmark thread, so the gc profiler sees everything the
+ * server side allocates, and the body is thrown away as it is written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CatalogResponseBenchmark {
+
+    @Param({"1000", "100000"})
+    int rows;
+
+    @Param({"true", "false"})
+    boolean responseCache;
+
+    private SeededCatalog catalog;
+    private DispatcherServlet servlet;
+
+    @Setup
+    public void setUp() throws Exception {
+        catalog = SeededCatalog.serving(rows, "produktapi.response-cache.enabled=" + responseCache);
+        servlet = catalog.dispatcherServlet();
+    }
+
+    @TearDown
+    public void tearDown() {
+        catalog.close();
+    }
+
+    @Benchmark
+    public int getAllProducts() throws Exception {
+        return get("/products");
+    }
+
+    @Benchmark
+    public int getAllCategories() throws Exception {
+        return get("/products/categories");
+    }
+
+    private int get(String uri) throws Exception {
+        DiscardingResponse response = new DiscardingResponse();
+        servlet.service(new MockHttpServletRequest("GET", uri), response);
+        return response.getStatus();
+    }
+
+    private static final class DiscardingResponse extends MockHttpServletResponse {
+
+        private final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        };
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return out;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.produktapi.benchmark;
+
+import com.example.produktapi.model.CategoryStats;
+import com.example.produktapi.model.Product;
+import com.example.produktapi.repository.CategoryTotals;
+import com.example.produktapi.repository.ProductRepository;
+import com.example.produktapi.service.CatalogSnapshot;
+import com.example.produktapi.service.CatalogSnapshots;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "Products in two categories up to a price, sorted on price" and per-category aggregates, from the
+ * CatalogSnapshot against a JPQL query and the GROUP BY in ProductRepository. The query cache is off,
+ * so each JPA call runs its SQL. Two of the ten categories and a tenth of the prices match,
+ * about 2% of the rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CatalogSnapshotBenchmark {
+
+    private static final List<String> CATEGORIES = List.of(SeededCatalog.category(1), SeededCatalog.category(2));
+    private static final double MAX_PRICE = 100.0;
+
+    @Param({"100000", "1000000"})
+    int rows;
+
+    private SeededCatalog catalog;
+    private CatalogSnapshots snapshots;
+    private EntityManagerFactory entityManagerFactory;
+    private ProductRepository repository;
+
+    @Setup
+    public void setUp() {
+        catalog = new SeededCatalog(rows, "spring.jpa.properties.hibernate.cache.use_query_cache=false");
+        snapshots = catalog.getBean(CatalogSnapshots.class);
+        // The snapshot was built from data.sql alone when the application started
+        snapshots.rebuild();
+        entityManagerFactory = catalog.getBean(EntityManagerFactory.class);
+        repository = catalog.getBean(ProductRepository.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        catalog.close();
+    }
+
+    private CatalogSnapshot.Query underPrice() {
+        return snapshots.current().query().categories(CATEGORIES).price(null, MAX_PRICE)
+                .sort(CatalogSnapshot.Sort.PRICE, false);
+    }
+
+    private List<Product> jpaUnderPrice(int limit) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.createQuery("SELECT p FROM Product p WHERE p.category IN :categories " +
+                            "AND p.price <= :maxPrice ORDER BY p.price, p.id", Product.class)
+                    .setParameter("categories", CATEGORIES)
+                    .setParameter("maxPrice", MAX_PRICE)
+                    .setMaxResults(limit)
+                    .getResultList();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Benchmark
+    public List<Product> snapshotUnderPrice() {
+        return underPrice().products();
+    }
+
+    @Benchmark
+    public List<Product> jpaUnderPrice() {
+        return jpaUnderPrice(Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<Product> snapshotCheapest20() {
+        return underPrice().limit(20).products();
+    }
+
+    @Benchmark
+    public List<Product> jpaCheapest20() {
+        return jpaUnderPrice(20);
+    }
+
+    @Benchmark
+    public List<CategoryStats> snapshotStats() {
+        return snapshots.current().query().stats();
+    }
+
+    @Benchmark
+    public List<CategoryTotals> jpaStats() {
+        return repository.findAllCategoryTotals();
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.produktapi.benchmark;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductSummary;
+import com.example.produktapi.repository.CategoryTotals;
+import com.example.produktapi.repository.ProductRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The category queries of ProductRepository straight against H2, with the query cache turned off
+ * so that every call runs its SQL. "jewelery" is one of the small categories from data.sql,
+ * the generated products are spread over ten large ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CategoryQueryBenchmark {
+
+    @Param("1000000")
+    int rows;
+
+    private SeededCatalog catalog;
+    private ProductRepository repository;
+
+    @Setup
+    public void setUp() {
+        catalog = new SeededCatalog(rows, "spring.jpa.properties.hibernate.cache.use_query_cache=false");
+        repository = catalog.getBean(ProductRepository.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        catalog.close();
+    }
+
+    @Benchmark
+    public List<String> findAllCategories() {
+        return repository.findAllCategories();
+    }
+
+    @Benchmark
+    public List<Product> findByCategory() {
+        return repository.findByCategory("jewelery");
+    }
+
+    @Benchmark
+    public List<ProductSummary> findSummariesByCategory() {
+        return repository.findSummariesByCategory("jewelery");
+    }
+
+    @Benchmark
+    public List<CategoryTotals> findAllCategoryTotals() {
+        return repository.findAllCategoryTotals();
+    }
+}
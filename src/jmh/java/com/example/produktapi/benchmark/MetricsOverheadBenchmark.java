@@ -0,0 +1,81 @@
+package com.example.produktapi.benchmark;
+
+import com.example.produktapi.controller.ControllerMetrics;
+import com.example.produktapi.repository.RepositoryMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What ControllerMetrics and RepositoryMetrics add to a call, with histograms published
+ * to Prometheus as in the application. The repository benchmarks call the same list through
+ * an AOP proxy with a pass-through advice and with the metrics advice, the difference is the cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+
+    public interface Finder {
+        List<String> findByCategory(String category);
+    }
+
+    private final List<String> rows = List.of("a", "b", "c");
+    private final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+    private Finder plain;
+    private Finder timed;
+
+    private ControllerMetrics controllerMetrics;
+    private HandlerMethod handler;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        Finder target = category -> rows;
+        plain = proxy(target, invocation -> invocation.proceed());
+        timed = proxy(target, new RepositoryMetrics.Interceptor(() -> registry, "Finder"));
+
+        controllerMetrics = new ControllerMetrics(registry);
+        handler = new HandlerMethod(target, Finder.class.getMethod("findByCategory", String.class));
+        request = new MockHttpServletRequest("GET", "/products/categories/jewelery");
+        response = new MockHttpServletResponse();
+    }
+
+    private static Finder proxy(Finder target, MethodInterceptor advice) {
+        ProxyFactory factory = new ProxyFactory(target);
+        factory.addInterface(Finder.class);
+        factory.addAdvice(advice);
+        return (Finder) factory.getProxy();
+    }
+
+    @Benchmark
+    public List<String> repositoryWithoutMetrics() {
+        return plain.findByCategory("jewelery");
+    }
+
+    @Benchmark
+    public List<String> repositoryWithMetrics() {
+        return timed.findByCategory("jewelery");
+    }
+
+    // One request as the DispatcherServlet sees it, without the handler itself
+    @Benchmark
+    public void controllerRequest() {
+        controllerMetrics.preHandle(request, response, handler);
+        controllerMetrics.afterCompletion(request, response, handler, null);
+        request.clearAttributes();
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.produktapi.benchmark;
+
+import com.example.produktapi.model.Product;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encoding and decoding 10 000 products as JSON, Smile and CBOR, each plain and gzipped,
+ * with mappers set up like the ones BinaryFormats gives the controller.
+ * The payload size of each combination is printed when the trial starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PayloadFormatBenchmark {
+
+    private static final TypeReference<List<Product>> PRODUCTS = new TypeReference<>() {
+    };
+
+    @Param({"json", "smile", "cbor"})
+    String format;
+
+    @Param({"false", "true"})
+    boolean gzip;
+
+    @Param("10000")
+    int rows;
+
+    private ObjectMapper objectMapper;
+    private List<Product> products;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws IOException {
+        JsonFactory factory = switch (format) {
+            case "json" -> new JsonFactory();
+            case "smile" -> new SmileFactory().enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+            case "cbor" -> new CBORFactory();
+            default -> throw new IllegalArgumentException(format);
+        };
+        objectMapper = Jackson2ObjectMapperBuilder.json().factory(factory).build();
+        products = new ArrayList<>(rows);
+        for (int x = 1; x <= rows; x++) {
+            Product product = new Product("Produkt " + x, x % 10000 / 10.0, SeededCatalog.category(x),
+                    "Beskrivning av produkt " + x, "https://fakestoreapi.com/img/" + x + ".jpg");
+            product.setId(20 + x);
+            product.setVersion(0L);
+            products.add(product);
+        }
+        payload = encode();
+        System.out.printf("%npayload format=%s gzip=%s rows=%d bytes=%d%n", format, gzip, rows, payload.length);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = gzip ? new GZIPOutputStream(bytes, 8192) : bytes) {
+            objectMapper.writeValue(out, products);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public List<Product> decode() throws IOException {
+        InputStream bytes = new ByteArrayInputStream(payload);
+        try (InputStream in = gzip ? new GZIPInputStream(bytes, 8192) : bytes) {
+            return objectMapper.readValue(in, PRODUCTS);
+        }
+    }
+}
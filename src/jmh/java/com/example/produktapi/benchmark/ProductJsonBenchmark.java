@@ -0,0 +1,78 @@
+package com.example.produktapi.benchmark;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductSummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing product lists as JSON, the way the controller does it once the products are loaded.
+ * The lists look like the products SeededCatalog generates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ProductJsonBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    int rows;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private List<Product> products;
+    private List<ProductSummary> summaries;
+
+    @Setup
+    public void setUp() {
+        products = new ArrayList<>(rows);
+        summaries = new ArrayList<>(rows);
+        for (int x = 1; x <= rows; x++) {
+            Product product = new Product("Produkt " + x, x % 10000 / 10.0, SeededCatalog.category(x),
+                    "Beskrivning av produkt " + x, "https://fakestoreapi.com/img/" + x + ".jpg");
+            product.setId(20 + x);
+            product.setVersion(0L);
+            products.add(product);
+            summaries.add(new ProductSummary(product.getId(), product.getTitle(), product.getPrice(), product.getCategory()));
+        }
+    }
+
+    @Benchmark
+    public long writeProducts() throws IOException {
+        return write(products);
+    }
+
+    @Benchmark
+    public long writeSummaries() throws IOException {
+        return write(summaries);
+    }
+
+    private long write(List<?> value) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        objectMapper.writeValue(out, value);
+        return out.count;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.produktapi.benchmark;
+
+import com.example.produktapi.service.ProductSearchIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProductSearchIndex.search for the top 20. Every generated product has "produkt" in its title and
+ * "beskrivning" in its description, so "produkt beskrivning" is the worst case for an AND query:
+ * both words are in the whole catalog. "produkt 4711" narrows a common word with a rare one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ProductSearchBenchmark {
+
+    @Param("500000")
+    int rows;
+
+    @Param({"produkt 4711", "produkt beskrivning"})
+    String query;
+
+    private SeededCatalog catalog;
+    private ProductSearchIndex index;
+
+    @Setup
+    public void setUp() {
+        catalog = new SeededCatalog(rows);
+        index = catalog.getBean(ProductSearchIndex.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        catalog.close();
+    }
+
+    @Benchmark
+    public int[] search() {
+        return index.search(query, 20);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.produktapi.benchmark;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.service.ProductService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProductService as the controller calls it, caches included, against H2.
+ * Ids and categories are picked at random, so with more products than the cache
+ * holds getProductById is mostly served by the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ProductServiceBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    int rows;
+
+    private SeededCatalog catalog;
+    private ProductService productService;
+    private int added;
+
+    @Setup
+    public void setUp() {
+        catalog = new SeededCatalog(rows);
+        productService = catalog.getBean(ProductService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        catalog.close();
+    }
+
+    @Benchmark
+    public Product getProductById() {
+        return productService.getProductById(21 + ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    @Benchmark
+    public List<Product> getProductsByCategory() {
+        return productService.getProductsByCategory(SeededCatalog.category(ThreadLocalRandom.current().nextInt(SeededCatalog.CATEGORIES)));
+    }
+
+    @Benchmark
+    public List<String> getAllCategories() {
+        return productService.getAllCategories();
+    }
+
+    // Every call adds a product, so the catalog grows a little during the run
+    @Benchmark
+    public Product addProduct() {
+        added++;
+        return productService.addProduct(new Product("Ny produkt " + added, 99.0, SeededCatalog.category(added),
+                "Beskrivning av ny produkt", "https://fakestoreapi.com/img/ny.jpg"));
+    }
+}
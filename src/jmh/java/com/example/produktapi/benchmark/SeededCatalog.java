@@ -0,0 +1,86 @@
+package com.example.produktapi.benchmark;
+
+import com.example.produktapi.ProduktapiApplication;
+import com.example.produktapi.controller.CatalogResponseCache;
+import com.example.produktapi.repository.CategoryDictionary;
+import com.example.produktapi.repository.Shards;
+import com.example.produktapi.service.CategoryStatsIndex;
+import com.example.produktapi.service.ProductPriceIndex;
+import com.example.produktapi.service.ProductSearchIndex;
+import jakarta.servlet.ServletException;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+
+import java.util.Arrays;
+
+/**
+ * The application without a web server, on an in-memory database of its own that holds
+ * the products from data.sql plus the given number of generated ones, spread over ten categories.
+ * Generated products have ids from 21 up, new products get ids after them.
+ */
+final class SeededCatalog implements AutoCloseable {
+
+    static final int CATEGORIES = 10;
+
+    private final ConfigurableApplicationContext context;
+
+    SeededCatalog(int rows, String... properties) {
+        this(rows, WebApplicationType.NONE, properties);
+    }
+
+    // As a web application, see dispatcherServlet()
+    static SeededCatalog serving(int rows, String... properties) {
+        return new SeededCatalog(rows, WebApplicationType.SERVLET, properties);
+    }
+
+    private SeededCatalog(int rows, WebApplicationType web, String... properties) {
+        context = new SpringApplicationBuilder(ProduktapiApplication.class)
+                .web(web)
+                .properties("spring.main.banner-mode=off", "logging.level.root=warn", "server.port=0")
+                // As arguments, so that they win over application.properties
+                .run(Arrays.stream(properties).map(property -> "--" + property).toArray(String[]::new));
+
+        JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+        jdbc.execute("INSERT INTO category(name) SELECT 'kategori-' || x FROM SYSTEM_RANGE(0, " + (CATEGORIES - 1) + ")");
+        jdbc.execute("INSERT INTO product(id, title, price, category_id, description, image) " +
+                "SELECT 20 + x, 'Produkt ' || x, MOD(x, 10000) / 10.0, " +
+                "(SELECT id FROM category WHERE name = 'kategori-' || MOD(x, " + CATEGORIES + ")), " +
+                "'Beskrivning av produkt ' || x, 'https://fakestoreapi.com/img/' || x || '.jpg' " +
+                "FROM SYSTEM_RANGE(1, " + rows + ")");
+        jdbc.execute("ALTER SEQUENCE product_seq RESTART WITH " + (21 + rows));
+        // Sharded, the rows above went to shard 0
+        context.getBeanProvider(Shards.class).ifAvailable(Shards::prepare);
+
+        // The dictionary and the indexes were built from data.sql alone when the application started
+        context.getBean(CategoryDictionary.class).reload();
+        context.getBean(ProductSearchIndex.class).rebuild();
+        context.getBean(ProductPriceIndex.class).rebuild();
+        context.getBean(CategoryStatsIndex.class).rebuild();
+        context.getBean(CatalogResponseCache.class).rebuild();
+    }
+
+    // The application's DispatcherServlet, for requests on the calling thread and without sockets
+    DispatcherServlet dispatcherServlet() throws ServletException {
+        DispatcherServlet servlet = context.getBean(DispatcherServlet.class);
+        servlet.init(new MockServletConfig(((WebApplicationContext) context).getServletContext()));
+        return servlet;
+    }
+
+    <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    static String category(int n) {
+        return "kategori-" + n % CATEGORIES;
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
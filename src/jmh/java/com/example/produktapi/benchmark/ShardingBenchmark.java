@@ -0,0 +1,66 @@
+package com.example.produktapi.benchmark;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.repository.CategoryTotals;
+import com.example.produktapi.repository.ProductRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProductRepository on 1, 2 and 4 shards, against the same catalog without sharding (shards = 0).
+ * The query cache is off in every case, so each call runs its SQL. findByCategory goes to one shard,
+ * the other queries to all of them at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ShardingBenchmark {
+
+    @Param({"0", "1", "2", "4"})
+    int shards;
+
+    @Param("1000000")
+    int rows;
+
+    private SeededCatalog catalog;
+    private ProductRepository repository;
+
+    @Setup
+    public void setUp() {
+        catalog = shards == 0
+                ? new SeededCatalog(rows, "spring.jpa.properties.hibernate.cache.use_query_cache=false")
+                : new SeededCatalog(rows, "produktapi.sharding.enabled=true", "produktapi.sharding.shards=" + shards);
+        repository = catalog.getBean(ProductRepository.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        catalog.close();
+    }
+
+    @Benchmark
+    public List<Product> findByCategory() {
+        return repository.findByCategory("jewelery");
+    }
+
+    @Benchmark
+    public Optional<Product> findByTitle() {
+        return repository.findByTitle("Produkt 500000");
+    }
+
+    @Benchmark
+    public List<String> findAllCategories() {
+        return repository.findAllCategories();
+    }
+
+    @Benchmark
+    public List<CategoryTotals> findAllCategoryTotals() {
+        return repository.findAllCategoryTotals();
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.produktapi.benchmark;
+
+import com.example.produktapi.ProduktapiApplication;
+import com.example.produktapi.VirtualThreadConfig;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Closed-loop load test of produktapi.threads=platform against virtual. For every mode the application
+ * is started on a random port and 1k, 5k and 10k clients each send one request after the other.
+ * Requests alternate between a product by id from data.sql, usually cached, and the summaries of
+ * a category, always a query. Prints throughput, p50 and p99 and writes them to target/loadtest-result.json.
+ *
+ * Needs Java 21 for the virtual threads of both the clients and the virtual mode. Run with:
+ * mvn -Pjmh -DskipTests test-compile exec:exec@load-test [-Dloadtest.args="1000 5000 10000"]
+ * The number of seconds per run is set with -Dloadtest.seconds, 20 by default, after 5 seconds of warm-up.
+ */
+public final class ThreadModeLoadTest {
+
+    private static final String[] MODES = {"platform", "virtual"};
+    private static final String[] CATEGORIES = {"electronics", "jewelery", "men's%20clothing", "women's%20clothing"};
+
+    private record Result(String mode, int clients, long requests, long errors, double seconds, double p50Millis, double p99Millis) {
+
+        double throughput() {
+            return requests / seconds;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] clients = args.length == 0 ? new int[]{1000, 5000, 10000} : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        Duration measure = Duration.ofSeconds(Integer.getInteger("loadtest.seconds", 20));
+
+        List<Result> results = new ArrayList<>();
+        for (String mode : MODES) {
+            try (ConfigurableApplicationContext app = start(mode)) {
+                int port = app.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+                for (int n : clients) {
+                    Result result = run(mode, port, n, measure);
+                    System.out.printf("%-8s %6d clients %10.0f req/s  p50 %8.2f ms  p99 %8.2f ms  %d errors%n",
+                            mode, n, result.throughput(), result.p50Millis(), result.p99Millis(), result.errors());
+                    results.add(result);
+                }
+            }
+        }
+        write(results, Path.of("target", "loadtest-result.json"));
+    }
+
+    private static ConfigurableApplicationContext start(String mode) {
+        return new SpringApplicationBuilder(ProduktapiApplication.class)
+                .properties("server.port=0", "produktapi.threads=" + mode,
+                        "server.tomcat.max-connections=20000", "server.tomcat.accept-count=10000",
+                        "spring.main.banner-mode=off", "logging.level.root=warn")
+                .run();
+    }
+
+    private static Result run(String mode, int port, int clients, Duration measure) throws InterruptedException {
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        long warmUpEnds = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        long ends = warmUpEnds + measure.toNanos();
+
+        LatencyLog[] logs = new LatencyLog[clients];
+        try (ExecutorService executor = VirtualThreadConfig.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                LatencyLog log = new LatencyLog();
+                logs[c] = log;
+                executor.submit(() -> client(http, port, warmUpEnds, ends, log));
+            }
+        }
+
+        long requests = 0, errors = 0;
+        for (LatencyLog log : logs) {
+            requests += log.size;
+            errors += log.errors;
+        }
+        long[] latencies = new long[(int) requests];
+        int at = 0;
+        for (LatencyLog log : logs) {
+            System.arraycopy(log.nanos, 0, latencies, at, log.size);
+            at += log.size;
+        }
+        Arrays.sort(latencies);
+        return new Result(mode, clients, requests, errors, measure.toNanos() / 1e9,
+                percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6);
+    }
+
+    private static void client(HttpClient http, int port, long warmUpEnds, long ends, LatencyLog log) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long now;
+        while ((now = System.nanoTime()) < ends) {
+            String path = random.nextBoolean()
+                    ? "/products/" + (1 + random.nextInt(20))
+                    : "/products/categories/" + CATEGORIES[random.nextInt(CATEGORIES.length)] + "?view=summary";
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                    .timeout(Duration.ofSeconds(60))
+                    .build();
+            boolean ok;
+            try {
+                ok = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+            } catch (IOException | InterruptedException e) {
+                ok = false;
+            }
+            if (now >= warmUpEnds) {
+                log.add(System.nanoTime() - now, ok);
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    private static void write(List<Result> results, Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                out.printf(java.util.Locale.ROOT,
+                        "  {\"mode\": \"%s\", \"clients\": %d, \"requests\": %d, \"errors\": %d, \"throughput\": %.1f, \"p50Millis\": %.3f, \"p99Millis\": %.3f}%s%n",
+                        r.mode(), r.clients(), r.requests(), r.errors(), r.throughput(), r.p50Millis(), r.p99Millis(),
+                        i < results.size() - 1 ? "," : "");
+            }
+            out.println("]");
+        }
+    }
+
+    // Written by one client thread, read after all clients are done
+    private static final class LatencyLog {
+
+        long[] nanos = new long[1024];
+        int size;
+        long errors;
+
+        void add(long latency, boolean ok) {
+            if (!ok) {
+                errors++;
+            }
+            if (size == nanos.length) {
+                nanos = Arrays.copyOf(nanos, size * 2);
+            }
+            nanos[size++] = latency;
+        }
+    }
+}
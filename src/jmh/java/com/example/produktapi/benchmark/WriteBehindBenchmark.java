@@ -0,0 +1,63 @@
+package com.example.produktapi.benchmark;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductPatch;
+import com.example.produktapi.service.ProductService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes through ProductService from 16 threads, each committed on its own (off) against
+ * group commits through the WriteBehindQueue (grouped). Every call waits until its write is in.
+ * CatalogResponseCache is off, it would rebuild the whole catalog response after every write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class WriteBehindBenchmark {
+
+    @Param({"off", "grouped"})
+    String mode;
+
+    @Param("100000")
+    int rows;
+
+    private SeededCatalog catalog;
+    private ProductService productService;
+    private final AtomicInteger added = new AtomicInteger();
+
+    @Setup
+    public void setUp() {
+        catalog = new SeededCatalog(rows, "produktapi.write-behind.mode=" + mode,
+                "produktapi.response-cache.enabled=false");
+        productService = catalog.getBean(ProductService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        catalog.close();
+    }
+
+    // Every call adds a product, so the catalog grows a little during the run
+    @Benchmark
+    public Product addProduct() {
+        int n = added.incrementAndGet();
+        return productService.addProduct(new Product("Skrivkö " + n, 10.0, SeededCatalog.category(n),
+                "Beskrivning", "https://fakestoreapi.com/img/" + n + ".jpg"));
+    }
+
+    @Benchmark
+    public Product patchPrice() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ProductPatch patch = new ProductPatch(Set.of("price"), null, random.nextInt(10000) / 10.0, null, null, null);
+        return productService.patchProduct(21 + random.nextInt(rows), patch, null);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.produktapi;
+
+import com.github.benmanes.caffeine.jcache.CacheManagerImpl;
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import java.net.URI;
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.Properties;
+
+/**
+ * Hibernate's second-level cache in Caffeine, through JCache. The regions are created here from
+ * application.properties. A region that is not gets created by the provider, unbounded and with a
+ * warning in the log (hibernate.javax.cache.missing_cache_strategy=create-warn), which is what test
+ * slices without this class rely on.
+ *
+ * product holds Product entities by id, product-queries the ids returned by the cacheable queries
+ * in ProductRepository. The update timestamps region tells Hibernate which cached query results
+ * are older than the last write to the table, it is never evicted.
+ */
+@Configuration(proxyBeanMethods = false)
+public class OrmCacheConfig {
+
+    public static final String PRODUCT_REGION = "product";
+    public static final String PRODUCT_QUERY_REGION = "product-queries";
+    static final String QUERY_RESULTS_REGION = "default-query-results-region";
+    static final String UPDATE_TIMESTAMPS_REGION = "default-update-timestamps-region";
+
+    // Not from the provider's registry, which would share it between application contexts in one JVM
+    @Bean(destroyMethod = "close")
+    CacheManager ormCacheManager(@Value("${produktapi.orm-cache.product.max-size:10000}") long productMaxSize,
+                                 @Value("${produktapi.orm-cache.product.ttl:10m}") Duration productTtl,
+                                 @Value("${produktapi.orm-cache.product-queries.max-size:1000}") long queryMaxSize,
+                                 @Value("${produktapi.orm-cache.product-queries.ttl:5m}") Duration queryTtl) {
+        CacheManager cacheManager = new CacheManagerImpl(new CaffeineCachingProvider(),
+                URI.create("produktapi-orm-cache"), getClass().getClassLoader(), new Properties());
+        cacheManager.createCache(PRODUCT_REGION, region(productMaxSize, productTtl));
+        cacheManager.createCache(PRODUCT_QUERY_REGION, region(queryMaxSize, queryTtl));
+        cacheManager.createCache(QUERY_RESULTS_REGION, region(queryMaxSize, queryTtl));
+        cacheManager.createCache(UPDATE_TIMESTAMPS_REGION, region(-1, null));
+        return cacheManager;
+    }
+
+    @Bean
+    HibernatePropertiesCustomizer ormCacheManagerCustomizer(CacheManager ormCacheManager) {
+        return properties -> properties.put(ConfigSettings.CACHE_MANAGER, ormCacheManager);
+    }
+
+    // Negative size and null ttl for no bound. Entries are kept by reference, Hibernate does not change them
+    private static CaffeineConfiguration<Object, Object> region(long maxSize, Duration ttl) {
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setStoreByValue(false);
+        configuration.setStatisticsEnabled(true);
+        if (maxSize >= 0) {
+            configuration.setMaximumSize(OptionalLong.of(maxSize));
+        }
+        if (ttl != null) {
+            configuration.setExpireAfterWrite(OptionalLong.of(ttl.toNanos()));
+        }
+        return configuration;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.produktapi;
+
+import com.example.produktapi.repository.ReadWriteRoutingDataSource;
+import com.example.produktapi.repository.ReadYourWrites;
+import com.example.produktapi.repository.ReplicaFeed;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * produktapi.replica.enabled=true gives reads a database and connection pool of their own, so that
+ * a burst of listings cannot take the connections that writes need. The primary is set up from
+ * spring.datasource.* as usual, the replica from produktapi.replica.datasource.*, by default a
+ * second in-memory H2 that ReplicaFeed keeps in step with the primary.
+ *
+ * The DataSource that JPA and everything else gets sends read-only transactions to the replica,
+ * see ReadWriteRoutingDataSource. For produktapi.replica.sticky-window after a client commits a write,
+ * its reads go to the primary. Clients are told apart by ReadYourWritesFilter.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "produktapi.replica.enabled", havingValue = "true")
+public class ReplicaDataSourceConfig {
+
+    public static final String PRIMARY = "primaryDataSource";
+    public static final String REPLICA = "replicaDataSource";
+
+    @Bean(PRIMARY)
+    @ConfigurationProperties("spring.datasource.hikari")
+    HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean(REPLICA)
+    @ConfigurationProperties("produktapi.replica.datasource")
+    HikariDataSource replicaDataSource() {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName("replica");
+        return dataSource;
+    }
+
+    @Bean
+    ReadYourWrites readYourWrites(@Value("${produktapi.replica.sticky-window:5s}") Duration window) {
+        return new ReadYourWrites(window);
+    }
+
+    @Bean
+    @Primary
+    DataSource dataSource(@Qualifier(PRIMARY) DataSource primary, @Qualifier(REPLICA) DataSource replica,
+                          ReplicaFeed feed, ReadYourWrites readYourWrites) {
+        ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primary, replica, feed, readYourWrites);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+}
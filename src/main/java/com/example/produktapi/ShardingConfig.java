@@ -0,0 +1,76 @@
+package com.example.produktapi;
+
+import com.example.produktapi.repository.ShardRoutingDataSource;
+import com.example.produktapi.repository.Shards;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.id.SequenceMismatchStrategy;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * produktapi.sharding.enabled=true spreads the products over produktapi.sharding.shards databases
+ * by a hash of their category, see Shards. Each shard has a connection pool of its own, at
+ * produktapi.sharding.jdbc-url with {shard} replaced by its number. By default these are in-memory H2s.
+ * spring.datasource.* is not used, and produktapi.replica.enabled cannot be combined with this.
+ *
+ * Queries are sent to the shards by ShardRouter. Hibernate's query cache is turned off, it would hand
+ * the result of one shard to a query on another.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "produktapi.sharding.enabled", havingValue = "true")
+public class ShardingConfig {
+
+    @Bean
+    Shards shards(@Value("${produktapi.sharding.shards:4}") int count,
+                  @Value("${produktapi.sharding.jdbc-url}") String jdbcUrl,
+                  @Value("${produktapi.sharding.username:sa}") String username,
+                  @Value("${produktapi.sharding.maximum-pool-size:10}") int maximumPoolSize) {
+        List<DataSource> dataSources = new ArrayList<>(count);
+        for (int shard = 0; shard < count; shard++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("shard-" + shard);
+            dataSource.setJdbcUrl(jdbcUrl.replace("{shard}", String.valueOf(shard)));
+            dataSource.setUsername(username);
+            dataSource.setMaximumPoolSize(maximumPoolSize);
+            dataSources.add(dataSource);
+        }
+        return new Shards(dataSources);
+    }
+
+    // Shard 0 unless a thread is working on another one
+    @Bean
+    @Primary
+    DataSource dataSource(Shards shards) {
+        ShardRoutingDataSource routing = new ShardRoutingDataSource(shards);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    // Created once data.sql has filled shard 0, before the indexes are built
+    @Bean
+    @DependsOnDatabaseInitialization
+    InitializingBean shardPreparation(Shards shards) {
+        return shards::prepare;
+    }
+
+    // Each shard's sequence steps over the blocks of the others, see Shards
+    @Bean
+    HibernatePropertiesCustomizer shardingHibernateProperties() {
+        return properties -> {
+            properties.put(AvailableSettings.USE_QUERY_CACHE, false);
+            properties.put(AvailableSettings.SEQUENCE_INCREMENT_SIZE_MISMATCH_STRATEGY, SequenceMismatchStrategy.NONE);
+        };
+    }
+}
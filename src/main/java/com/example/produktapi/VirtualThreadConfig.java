@@ -0,0 +1,46 @@
+package com.example.produktapi;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * produktapi.threads=virtual runs every request on a virtual thread of its own instead of on
+ * Tomcat's pool of platform threads, streamed responses such as /products/export included.
+ * Connections are then checked out through JdbcBulkhead.
+ *
+ * Virtual threads are a preview API in Java 19 and 20, so the executor is looked up reflectively.
+ * The code still compiles for 19, the mode needs Java 21, or --enable-preview on 19 and 20, to start.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "produktapi.threads", havingValue = "virtual")
+public class VirtualThreadConfig {
+
+    @Bean
+    TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadRequests() {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    // Spring MVC writes streamed responses on this executor
+    @Bean(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(newVirtualThreadPerTaskExecutor());
+    }
+
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            throw new IllegalStateException("produktapi.threads=virtual needs Java 21, or --enable-preview on Java 19 and 20", e);
+        }
+    }
+}
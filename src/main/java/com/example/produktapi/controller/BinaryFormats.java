@@ -0,0 +1,33 @@
+package com.example.produktapi.controller;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Smile (application/x-jackson-smile) and CBOR (application/cbor) next to JSON, chosen from the
+ * Accept header for responses and from Content-Type for request bodies. Meant for other services:
+ * numbers are written as binary, and Smile writes property names and short values such as
+ * categories once and refers back to them after that.
+ *
+ * The mappers are built from Spring Boot's Jackson2ObjectMapperBuilder, so spring.jackson.*
+ * settings apply to them as they do to the JSON ObjectMapper.
+ */
+@Configuration(proxyBeanMethods = false)
+public class BinaryFormats {
+
+    @Bean
+    MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory().enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)).build());
+    }
+
+    @Bean
+    MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+}
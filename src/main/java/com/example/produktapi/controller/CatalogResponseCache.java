@@ -0,0 +1,161 @@
+package com.example.produktapi.controller;
+
+import com.example.produktapi.service.CatalogVersion;
+import com.example.produktapi.service.ProductChangedEvent;
+import com.example.produktapi.service.ProductService;
+import com.example.produktapi.service.ProductsImportedEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The bodies of GET /products and GET /products/categories as ready-made JSON, and gzipped JSON,
+ * so that answering them is writing a byte[] instead of loading products and running Jackson.
+ *
+ * Rebuilt on a background thread after ProductChangedEvents, changes in a row give one rebuild.
+ * Meanwhile the previous bodies are served, but at most max-staleness after the first change
+ * they are missing. After that products() and categories() return null and callers take the normal path.
+ */
+@Component
+public class CatalogResponseCache implements SmartInitializingSingleton, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogResponseCache.class);
+
+    // etag is the catalog version taken before the body was loaded
+    public record Body(byte[] json, byte[] gzip, String etag) {
+    }
+
+    private final ProductService productService;
+    private final ObjectMapper objectMapper;
+    private final CatalogVersion catalogVersion;
+    private final boolean enabled;
+    private final boolean gzip;
+    private final long maxStalenessNanos;
+
+    private final ExecutorService rebuilds = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "catalog-response-cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+    private volatile Body products;
+    private volatile Body categories;
+    // Changes seen, changes the bodies include, and when the first change they miss came in
+    private volatile long changes;
+    private volatile long builtChanges;
+    private volatile long staleSince;
+
+    public CatalogResponseCache(ProductService productService, ObjectMapper objectMapper, CatalogVersion catalogVersion,
+                                @Value("${produktapi.response-cache.enabled:true}") boolean enabled,
+                                @Value("${produktapi.response-cache.gzip:true}") boolean gzip,
+                                @Value("${produktapi.response-cache.max-staleness:1s}") Duration maxStaleness) {
+        this.productService = productService;
+        this.objectMapper = objectMapper;
+        this.catalogVersion = catalogVersion;
+        this.enabled = enabled;
+        this.gzip = gzip;
+        this.maxStalenessNanos = maxStaleness.toNanos();
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+    }
+
+    @Override
+    public void destroy() {
+        rebuilds.shutdownNow();
+    }
+
+    public Body products() {
+        return fresh() ? products : null;
+    }
+
+    public Body categories() {
+        return fresh() ? categories : null;
+    }
+
+    private boolean fresh() {
+        return builtChanges == changes || System.nanoTime() - staleSince <= maxStalenessNanos;
+    }
+
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        changed();
+    }
+
+    @EventListener
+    public void onProductsImported(ProductsImportedEvent event) {
+        changed();
+    }
+
+    private void changed() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            if (builtChanges == changes) {
+                staleSince = System.nanoTime();
+            }
+            changes++;
+        }
+        if (rebuildScheduled.compareAndSet(false, true)) {
+            rebuilds.execute(() -> {
+                rebuildScheduled.set(false);
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    // The staleness bound sends callers to the database until a later change rebuilds
+                    log.warn("Could not rebuild the catalog responses", e);
+                }
+            });
+        }
+    }
+
+    // Loads and encodes both bodies on the calling thread
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        long includes = changes;
+        String etag = catalogVersion.etag();
+        Body newProducts = encode(productService.getAllProducts(), etag);
+        Body newCategories = encode(productService.getAllCategories(), etag);
+        synchronized (this) {
+            products = newProducts;
+            categories = newCategories;
+            builtChanges = includes;
+        }
+    }
+
+    private Body encode(Object value, String etag) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(value);
+            if (!gzip) {
+                return new Body(json, null, etag);
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 4);
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(json);
+            }
+            return new Body(json, compressed.toByteArray(), etag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.produktapi.controller;
+
+import com.example.produktapi.service.ProductChange;
+import com.example.produktapi.service.ProductChangeFeed;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The open GET /products/changes responses. Each one is written by a task of its own that copies
+ * what it has not sent yet from ProductChangeFeed, so a client that reads slowly only holds up its own task.
+ * A client that falls more than the replay buffer behind gets a reset event and continues from the latest change.
+ *
+ * A heartbeat goes out on idle streams every produktapi.change-feed.heartbeat, which is also
+ * how streams of clients that went away are found and closed.
+ */
+@Component
+public class ChangeFeedStreams implements DisposableBean {
+
+    public enum Format { SSE, NDJSON }
+
+    private static final int BATCH_SIZE = 256;
+
+    private final ProductChangeFeed feed;
+    private final ObjectMapper objectMapper;
+    private final Set<Stream> streams = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger writerCount = new AtomicInteger();
+    private final ExecutorService writers = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "change-feed-" + writerCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "change-feed-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ChangeFeedStreams(ProductChangeFeed feed, ObjectMapper objectMapper,
+                             @Value("${produktapi.change-feed.heartbeat:15s}") Duration heartbeat) {
+        this.feed = feed;
+        this.objectMapper = objectMapper;
+        feed.addListener(() -> streams.forEach(Stream::wake));
+        heartbeats.scheduleAtFixedRate(() -> streams.forEach(Stream::heartbeat),
+                heartbeat.toMillis(), heartbeat.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        heartbeats.shutdownNow();
+        writers.shutdownNow();
+        streams.forEach(stream -> stream.emitter.complete());
+    }
+
+    /**
+     * A stream that starts after lastEventId, or with the next change when there is none.
+     * An id that is no longer in the replay buffer starts the stream with a reset event.
+     */
+    public ResponseBodyEmitter open(Format format, String lastEventId) {
+        // No timeout, the heartbeat finds closed connections
+        Stream stream = new Stream(new ResponseBodyEmitter(0L), format, feed.resumeAfter(lastEventId));
+        stream.emitter.onCompletion(() -> streams.remove(stream));
+        stream.emitter.onError(e -> streams.remove(stream));
+        streams.add(stream);
+        stream.wake();
+        return stream.emitter;
+    }
+
+    public int openStreams() {
+        return streams.size();
+    }
+
+    private final class Stream implements Runnable {
+
+        final ResponseBodyEmitter emitter;
+        final Format format;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile boolean heartbeatDue;
+        // Last sequence sent, only touched by the running task
+        long sent;
+
+        Stream(ResponseBodyEmitter emitter, Format format, long sent) {
+            this.emitter = emitter;
+            this.format = format;
+            this.sent = sent;
+        }
+
+        void wake() {
+            if (scheduled.compareAndSet(false, true)) {
+                writers.execute(this);
+            }
+        }
+
+        void heartbeat() {
+            heartbeatDue = true;
+            wake();
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<ProductChange> changes;
+                while ((changes = feed.since(sent, BATCH_SIZE)) == null || !changes.isEmpty()) {
+                    StringBuilder text = new StringBuilder();
+                    if (changes == null) {
+                        sent = feed.head();
+                        append(text, "reset", feed.eventId(sent), reset(sent));
+                    } else {
+                        for (ProductChange change : changes) {
+                            append(text, change.type().name().toLowerCase(), change.eventId(), change);
+                        }
+                        sent = changes.get(changes.size() - 1).sequence();
+                    }
+                    emitter.send(text.toString().getBytes(StandardCharsets.UTF_8));
+                    heartbeatDue = false;
+                }
+                if (heartbeatDue) {
+                    heartbeatDue = false;
+                    emitter.send((format == Format.SSE ? ":\n\n" : "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The client is gone or the response was completed, the container reports it to onError/onCompletion
+                streams.remove(this);
+                return;
+            }
+            scheduled.set(false);
+            // A change that came in after the last look at the feed found scheduled still set
+            if (feed.head() > sent) {
+                wake();
+            }
+        }
+
+        private void append(StringBuilder text, String event, String eventId, Object data) throws JsonProcessingException {
+            String json = objectMapper.writeValueAsString(data);
+            if (format == Format.SSE) {
+                text.append("id: ").append(eventId).append("\nevent: ").append(event)
+                        .append("\ndata: ").append(json).append("\n\n");
+            } else {
+                text.append(json).append('\n');
+            }
+        }
+
+        private Map<String, Object> reset(long sequence) {
+            Map<String, Object> reset = new LinkedHashMap<>();
+            reset.put("eventId", feed.eventId(sequence));
+            reset.put("sequence", sequence);
+            reset.put("type", "RESET");
+            return reset;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.produktapi.controller;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every ProductController handler as product.http.requests, tagged with the handler
+ * method and the outcome (SUCCESS, REDIRECTION for 304, CLIENT_ERROR, SERVER_ERROR).
+ * The time includes writing the response body, for streamed responses until the last byte.
+ *
+ * Used instead of Spring Boot's http.server.requests observation, which builds its tags
+ * and looks up its timer on every request. Here the timers of a handler are looked up once.
+ */
+@Component
+public class ControllerMetrics implements HandlerInterceptor, WebMvcConfigurer {
+
+    private static final String START = ControllerMetrics.class.getName() + ".start";
+    private static final String[] OUTCOMES = {"INFORMATIONAL", "SUCCESS", "REDIRECTION", "CLIENT_ERROR", "SERVER_ERROR"};
+
+    private final MeterRegistry meterRegistry;
+    private final Map<Method, Timer[]> timers = new ConcurrentHashMap<>();
+
+    public ControllerMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this).addPathPatterns("/products", "/products/**");
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // A streamed response comes through here a second time when it is done, keep the first start
+        if (request.getAttribute(START) == null) {
+            request.setAttribute(START, System.nanoTime());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object start = request.getAttribute(START);
+        if (start == null || !(handler instanceof HandlerMethod handlerMethod)) {
+            return;
+        }
+        // An exception nobody handled becomes a 500 after we are done
+        int status = ex != null && response.getStatus() < 400 ? 500 : response.getStatus();
+        int outcome = Math.min(Math.max(status / 100 - 1, 0), OUTCOMES.length - 1);
+        Timer[] byOutcome = timers.computeIfAbsent(handlerMethod.getMethod(), method -> new Timer[OUTCOMES.length]);
+        Timer timer = byOutcome[outcome];
+        if (timer == null) {
+            // Racing threads register the same timer, the registry hands back the one it has
+            timer = register(handlerMethod.getMethod(), OUTCOMES[outcome]);
+            byOutcome[outcome] = timer;
+        }
+        timer.record(System.nanoTime() - (Long) start, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer register(Method method, String outcome) {
+        return Timer.builder("product.http.requests")
+                .tags("handler", method.getName(), "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
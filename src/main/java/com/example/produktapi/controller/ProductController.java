@@ -1,13 +1,46 @@
 package com.example.produktapi.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import com.example.produktapi.exception.BadRequestException;
+import com.example.produktapi.exception.PreconditionFailedException;
+import com.example.produktapi.service.CatalogSnapshot;
+import com.example.produktapi.service.CatalogSnapshots;
+import com.example.produktapi.service.CatalogVersion;
+import com.example.produktapi.service.ProductExporter;
+import com.example.produktapi.service.ProductImportJob;
 import com.example.produktapi.service.ProductService;
+import com.example.produktapi.model.CategoryStats;
+import com.example.produktapi.model.PendingProductWrite;
 import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductBatchResult;
+import com.example.produktapi.model.ProductDeletion;
+import com.example.produktapi.model.ProductImportStatus;
+import com.example.produktapi.model.ProductLookup;
+import com.example.produktapi.model.ProductPage;
+import com.example.produktapi.model.ProductPatch;
+import com.example.produktapi.model.ProductSummary;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 
 @CrossOrigin // @CrossOrigin page can be requested from another domain
@@ -15,50 +48,485 @@ import java.util.List;
 public class ProductController {
 
     private final ProductService productService;
+    private final ProductExporter productExporter;
+    private final ObjectMapper objectMapper;
+    // ETag of list responses. checkNotModified sets the header and answers 304
+    // when If-None-Match has the current tag, before anything is loaded
+    private final CatalogVersion catalogVersion;
+    private final CatalogResponseCache responseCache;
+    private final ChangeFeedStreams changeFeed;
+    private final ProductImportJob importJob;
+    private final CatalogSnapshots snapshots;
 
-    public ProductController(ProductService productService) {
+    public ProductController(ProductService productService, ProductExporter productExporter, ObjectMapper objectMapper,
+                             CatalogVersion catalogVersion, CatalogResponseCache responseCache,
+                             ChangeFeedStreams changeFeed, ProductImportJob importJob, CatalogSnapshots snapshots) {
         this.productService = productService;
+        this.productExporter = productExporter;
+        this.objectMapper = objectMapper;
+        this.catalogVersion = catalogVersion;
+        this.responseCache = responseCache;
+        this.changeFeed = changeFeed;
+        this.importJob = importJob;
+        this.snapshots = snapshots;
     }
 
+    // minPrice/maxPrice filter and order on price, sort=price orders without filtering
     @GetMapping("/products")
-    ResponseEntity<List<Product>>getAllProducts() {
-        List<Product> products = productService.getAllProducts();
+    ResponseEntity<?> getAllProducts(@RequestParam(required = false) Double minPrice,
+                                     @RequestParam(required = false) Double maxPrice,
+                                     @RequestParam(required = false) String category,
+                                     @RequestParam(required = false) String sort,
+                                     WebRequest request) {
+        boolean priceQuery = isPriceQuery(minPrice, maxPrice, sort);
+        // Writes of this client that are still queued are not in the catalog the cache and ETag stand for
+        boolean pending = productService.hasPendingWrites();
+        if (!priceQuery && category == null && !pending && prefersJson(request)) {
+            CatalogResponseCache.Body cached = responseCache.products();
+            if (cached != null) {
+                return cachedResponse(cached, request);
+            }
+        }
+        if (!pending && request.checkNotModified(catalogVersion.etag())) {
+            return null;
+        }
+        List<Product> products;
+        if (priceQuery) {
+            products = productService.getProductsByPrice(category, minPrice, maxPrice);
+        } else if (category != null) {
+            products = productService.getProductsByCategory(category);
+        } else {
+            products = productService.getAllProducts();
+        }
         return new ResponseEntity<List<Product>>(products, HttpStatus.OK);
     }
 
+    // ?view=summary leaves out description and image, not combined with paging or price queries
+    @GetMapping(value = "/products", params = {"view=summary", "!limit", "!ids"})
+    ResponseEntity<List<ProductSummary>> getProductSummaries(@RequestParam(required = false) String category,
+                                                             @RequestParam(required = false) Double minPrice,
+                                                             @RequestParam(required = false) Double maxPrice,
+                                                             @RequestParam(required = false) String sort,
+                                                             WebRequest request) {
+        if (minPrice != null || maxPrice != null || sort != null) {
+            throw new BadRequestException("view=summary går inte att kombinera med minPrice, maxPrice eller sort");
+        }
+        if (request.checkNotModified(catalogVersion.etag())) {
+            return null;
+        }
+        List<ProductSummary> summaries = productService.getProductSummaries(category);
+        return new ResponseEntity<List<ProductSummary>>(summaries, HttpStatus.OK);
+    }
+
+    // Paged variant, picked instead of the full list as soon as ?limit= is given
+    @GetMapping(value = "/products", params = {"limit", "!ids"})
+    ResponseEntity<ProductPage> getProductPage(@RequestParam int limit,
+                                               @RequestParam(required = false) String after,
+                                               @RequestParam(required = false) String sort,
+                                               @RequestParam(required = false) Double minPrice,
+                                               @RequestParam(required = false) Double maxPrice,
+                                               @RequestParam(required = false) String category,
+                                               @RequestParam(required = false) String view,
+                                               WebRequest request) {
+        rejectView(view, "limit");
+        if (request.checkNotModified(catalogVersion.etag())) {
+            return null;
+        }
+        ProductPage page;
+        if (isPriceQuery(minPrice, maxPrice, sort)) {
+            page = productService.getProductPageByPrice(category, minPrice, maxPrice, after, limit);
+        } else {
+            page = productService.getProductPage(category, sort == null ? "id" : sort, after, limit);
+        }
+        return new ResponseEntity<ProductPage>(page, HttpStatus.OK);
+    }
+
+    // Pages and multi-gets always return whole products, a view asked for there would be ignored
+    private static void rejectView(String view, String parameter) {
+        if (view != null) {
+            throw new BadRequestException("view=" + view + " går inte att kombinera med " + parameter);
+        }
+    }
+
+    private static boolean isPriceQuery(Double minPrice, Double maxPrice, String sort) {
+        if (minPrice == null && maxPrice == null) {
+            return "price".equals(sort);
+        }
+        if (sort != null && !sort.equals("price")) {
+            throw new BadRequestException("Prisfilter sorteras alltid på price, inte " + sort);
+        }
+        return true;
+    }
+
+    // Multi-get, ?ids=1,2,3. Longer lists can be posted to /products/lookup instead
+    @GetMapping(value = "/products", params = "ids")
+    ResponseEntity<ProductLookup> getProductsByIds(@RequestParam List<Integer> ids,
+                                                   @RequestParam(required = false) String view,
+                                                   WebRequest request) {
+        rejectView(view, "ids");
+        if (request.checkNotModified(catalogVersion.etag())) {
+            return null;
+        }
+        ProductLookup lookup = productService.getProductsByIds(ids);
+        return new ResponseEntity<ProductLookup>(lookup, HttpStatus.OK);
+    }
+
+    @PostMapping("/products/lookup")
+    ResponseEntity<ProductLookup> lookupProducts(@RequestBody List<Integer> ids) {
+        ProductLookup lookup = productService.getProductsByIds(ids);
+        return new ResponseEntity<ProductLookup>(lookup, HttpStatus.OK);
+    }
+
+    // Full catalog dump, one JSON object per line, written while the rows are read
+    @GetMapping(value = "/products/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    ResponseEntity<StreamingResponseBody> exportProducts() {
+        StreamingResponseBody body = out -> productExporter.exportAll(out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    // Adds, updates and deletes as they are committed, as server-sent events or NDJSON when that is asked for.
+    // Last-Event-ID resumes after that change, as long as it is still in the replay buffer
+    @GetMapping(value = "/products/changes", produces = {MediaType.TEXT_EVENT_STREAM_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    ResponseEntity<ResponseBodyEmitter> streamChanges(@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                      @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        boolean ndjson = accept != null && accept.contains(MediaType.APPLICATION_NDJSON_VALUE)
+                && !accept.contains(MediaType.TEXT_EVENT_STREAM_VALUE);
+        ResponseBodyEmitter stream = changeFeed.open(
+                ndjson ? ChangeFeedStreams.Format.NDJSON : ChangeFeedStreams.Format.SSE, lastEventId);
+        return ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.TEXT_EVENT_STREAM)
+                .cacheControl(CacheControl.noStore())
+                .body(stream);
+    }
+
     @GetMapping("/products/categories")
-    ResponseEntity<List<String>> getAllCategories() {
+    ResponseEntity<?> getAllCategories(WebRequest request) {
+        CatalogResponseCache.Body cached = prefersJson(request) ? responseCache.categories() : null;
+        if (cached != null) {
+            return cachedResponse(cached, request);
+        }
+        if (request.checkNotModified(catalogVersion.etag())) {
+            return null;
+        }
         List<String> allProducts = productService.getAllCategories();
         return new ResponseEntity<List<String>>(allProducts, HttpStatus.OK);
     }
 
+    @GetMapping("/products/categories/stats")
+    ResponseEntity<List<CategoryStats>> getCategoryStats(WebRequest request) {
+        if (request.checkNotModified(catalogVersion.etag())) {
+            return null;
+        }
+        List<CategoryStats> stats = productService.getCategoryStats();
+        return new ResponseEntity<List<CategoryStats>>(stats, HttpStatus.OK);
+    }
+
+    /**
+     * Reports from the catalog snapshot, see CatalogSnapshots: no database and no ETag, the answer may miss
+     * the latest writes. ?category= may be repeated, limit is at most ProductService.MAX_PAGE_SIZE and that
+     * by default. 404 with produktapi.snapshot.enabled=false
+     */
+    @GetMapping("/products/report")
+    ResponseEntity<List<Product>> getReport(@RequestParam(required = false) List<String> category,
+                                            @RequestParam(required = false) Double minPrice,
+                                            @RequestParam(required = false) Double maxPrice,
+                                            @RequestParam(defaultValue = "id") String sort,
+                                            @RequestParam(defaultValue = "false") boolean descending,
+                                            @RequestParam(defaultValue = "" + ProductService.MAX_PAGE_SIZE) int limit) {
+        CatalogSnapshot snapshot = snapshots.current();
+        if (snapshot == null) {
+            return new ResponseEntity<List<Product>>(HttpStatus.NOT_FOUND);
+        }
+        CatalogSnapshot.Sort order = switch (sort) {
+            case "id" -> CatalogSnapshot.Sort.ID;
+            case "price" -> CatalogSnapshot.Sort.PRICE;
+            default -> throw new BadRequestException("Rapporter sorteras på id eller price, inte " + sort);
+        };
+        if (limit < 1 || limit > ProductService.MAX_PAGE_SIZE) {
+            throw new BadRequestException("limit måste vara mellan 1 och " + ProductService.MAX_PAGE_SIZE);
+        }
+        CatalogSnapshot.Query query = reportQuery(snapshot, category, minPrice, maxPrice).sort(order, descending).limit(limit);
+        return new ResponseEntity<List<Product>>(query.products(), HttpStatus.OK);
+    }
+
+    @GetMapping("/products/report/stats")
+    ResponseEntity<List<CategoryStats>> getReportStats(@RequestParam(required = false) List<String> category,
+                                                       @RequestParam(required = false) Double minPrice,
+                                                       @RequestParam(required = false) Double maxPrice) {
+        CatalogSnapshot snapshot = snapshots.current();
+        if (snapshot == null) {
+            return new ResponseEntity<List<CategoryStats>>(HttpStatus.NOT_FOUND);
+        }
+        List<CategoryStats> stats = reportQuery(snapshot, category, minPrice, maxPrice).stats();
+        return new ResponseEntity<List<CategoryStats>>(stats, HttpStatus.OK);
+    }
+
+    private static CatalogSnapshot.Query reportQuery(CatalogSnapshot snapshot, List<String> category,
+                                                     Double minPrice, Double maxPrice) {
+        if (minPrice != null && maxPrice != null && minPrice > maxPrice) {
+            throw new BadRequestException("minPrice får inte vara större än maxPrice");
+        }
+        CatalogSnapshot.Query query = snapshot.query().price(minPrice, maxPrice);
+        if (category != null) {
+            query.categories(category);
+        }
+        return query;
+    }
+
     @GetMapping("/products/categories/{category}")
-    ResponseEntity<List<Product>> getProductsByCategory(@PathVariable String category) {
+    ResponseEntity<List<Product>> getProductsByCategory(@PathVariable String category, WebRequest request) {
+        if (request.checkNotModified(catalogVersion.etag())) {
+            return null;
+        }
         List productsByCategory =  productService.getProductsByCategory(category);
         return new ResponseEntity<List<Product>>(productsByCategory, HttpStatus.OK);
     }
 
+    @GetMapping(value = "/products/categories/{category}", params = {"view=summary", "!limit"})
+    ResponseEntity<List<ProductSummary>> getProductSummariesByCategory(@PathVariable String category, WebRequest request) {
+        if (request.checkNotModified(catalogVersion.etag())) {
+            return null;
+        }
+        List<ProductSummary> summaries = productService.getProductSummaries(category);
+        return new ResponseEntity<List<ProductSummary>>(summaries, HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/products/categories/{category}", params = "limit")
+    ResponseEntity<ProductPage> getProductPageByCategory(@PathVariable String category,
+                                                         @RequestParam int limit,
+                                                         @RequestParam(required = false) String after,
+                                                         @RequestParam(defaultValue = "id") String sort,
+                                                         @RequestParam(required = false) String view,
+                                                         WebRequest request) {
+        rejectView(view, "limit");
+        if (request.checkNotModified(catalogVersion.etag())) {
+            return null;
+        }
+        ProductPage page = productService.getProductPage(category, sort, after, limit);
+        return new ResponseEntity<ProductPage>(page, HttpStatus.OK);
+    }
+
+    @GetMapping("/products/search")
+    ResponseEntity<List<Product>> searchProducts(@RequestParam String q,
+                                                 @RequestParam(defaultValue = "20") int limit,
+                                                 WebRequest request) {
+        if (request.checkNotModified(catalogVersion.etag())) {
+            return null;
+        }
+        List<Product> products = productService.searchProducts(q, limit);
+        return new ResponseEntity<List<Product>>(products, HttpStatus.OK);
+    }
+
+    // A single product is tagged with its own version
     @GetMapping("/products/{id}")
-    ResponseEntity<Product> getProductById(@PathVariable Integer id) {
+    ResponseEntity<Product> getProductById(@PathVariable Integer id, WebRequest request) {
+        if (!productService.hasPendingWrites() && request.checkNotModified(etag(productService.getProductVersion(id)))) {
+            return null;
+        }
         Product product = productService.getProductById(id);
-        return new ResponseEntity<Product>(product, HttpStatus.OK);
+        return ResponseEntity.ok().eTag(etag(product.getVersion())).body(product);
     }
 
+    // With produktapi.write-behind.mode=queued POST, PUT and PATCH answer 202, GET /products/pending/{id} tells when it is written
     @PostMapping("/products")
-    ResponseEntity<Product> addProduct(@RequestBody Product newProduct) {
+    ResponseEntity<?> addProduct(@RequestBody Product newProduct) {
+        if (productService.writesLater()) {
+            return accepted(productService.addProductLater(newProduct));
+        }
         Product createdProduct = productService.addProduct(newProduct);
         return new ResponseEntity<Product>(createdProduct, HttpStatus.CREATED);
     }
 
+    @GetMapping("/products/pending/{pendingId}")
+    ResponseEntity<PendingProductWrite> getPendingWrite(@PathVariable long pendingId) {
+        PendingProductWrite pending = productService.getPendingWrite(pendingId);
+        if (pending == null) {
+            return new ResponseEntity<PendingProductWrite>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<PendingProductWrite>(pending, HttpStatus.OK);
+    }
+
+    @PostMapping(value = "/products/batch",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, "application/x-jackson-smile", MediaType.APPLICATION_CBOR_VALUE})
+    ResponseEntity<ProductBatchResult> addProducts(@RequestBody List<Product> newProducts) {
+        ProductBatchResult result = productService.addProducts(newProducts.iterator());
+        return new ResponseEntity<ProductBatchResult>(result, HttpStatus.OK);
+    }
+
+    // NDJSON feeds are parsed while they are inserted, the body is never held in memory as a whole
+    @PostMapping(value = "/products/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    ResponseEntity<ProductBatchResult> addProductsNdjson(InputStream body) throws IOException {
+        try (MappingIterator<Product> newProducts = objectMapper.readerFor(Product.class).readValues(body)) {
+            ProductBatchResult result = productService.addProducts(newProducts);
+            return new ResponseEntity<ProductBatchResult>(result, HttpStatus.OK);
+        } catch (RuntimeJsonMappingException e) {
+            // Chunks before the broken line are already stored
+            throw new BadRequestException("Ogiltig NDJSON: " + e.getMessage());
+        }
+    }
+
+    // Imports a CSV or NDJSON file from the import directory in the background, GET tells how far it has come
+    @PostMapping("/products/import")
+    ResponseEntity<ProductImportStatus> importProducts(@RequestParam String file) {
+        ProductImportStatus status = importJob.start(file);
+        return new ResponseEntity<ProductImportStatus>(status, HttpStatus.ACCEPTED);
+    }
+
+    @GetMapping("/products/import")
+    ResponseEntity<ProductImportStatus> getImportStatus() {
+        ProductImportStatus status = importJob.status();
+        if (status == null) {
+            return new ResponseEntity<ProductImportStatus>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<ProductImportStatus>(status, HttpStatus.OK);
+    }
+
+    // With If-Match the write only goes through if the product still has that ETag, otherwise 412
     @PutMapping("/products/{id}")
-    ResponseEntity<Product> updateProduct(@RequestBody Product newProduct, @PathVariable Integer id) {
-        Product updatedProduct = productService.updateProduct(newProduct, id);
-        return new ResponseEntity<Product>(updatedProduct, HttpStatus.OK);
+    ResponseEntity<?> updateProduct(@RequestBody Product newProduct, @PathVariable Integer id,
+                                    @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        if (productService.writesLater()) {
+            return accepted(productService.patchProductLater(id, ProductPatch.replacing(newProduct), expectedVersion(id, ifMatch)));
+        }
+        Product updatedProduct = productService.updateProduct(newProduct, id, expectedVersion(id, ifMatch));
+        return ResponseEntity.ok().eTag(etag(updatedProduct.getVersion())).body(updatedProduct);
+    }
+
+    // JSON merge patch: fields in the body are set, null clears them, the rest is left as it is
+    @PatchMapping(value = "/products/{id}", consumes = {"application/merge-patch+json", MediaType.APPLICATION_JSON_VALUE})
+    ResponseEntity<?> patchProduct(@RequestBody JsonNode patch, @PathVariable Integer id,
+                                   @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        if (productService.writesLater()) {
+            return accepted(productService.patchProductLater(id, productPatch(patch), expectedVersion(id, ifMatch)));
+        }
+        Product patchedProduct = productService.patchProduct(id, productPatch(patch), expectedVersion(id, ifMatch));
+        return ResponseEntity.ok().eTag(etag(patchedProduct.getVersion())).body(patchedProduct);
+    }
+
+    @DeleteMapping(value = "/products", params = "ids")
+    ResponseEntity<ProductDeletion> deleteProducts(@RequestParam List<Integer> ids) {
+        ProductDeletion deletion = productService.deleteProducts(ids);
+        return new ResponseEntity<ProductDeletion>(deletion, HttpStatus.OK);
+    }
+
+    @DeleteMapping("/products/categories/{category}")
+    ResponseEntity<ProductDeletion> deleteCategory(@PathVariable String category) {
+        ProductDeletion deletion = productService.deleteCategory(category);
+        return new ResponseEntity<ProductDeletion>(deletion, HttpStatus.OK);
     }
 
     @DeleteMapping("/products/{id}")
-    ResponseEntity<String> deleteProduct(@PathVariable Integer id) {
-        productService.deleteProduct(id);
+    ResponseEntity<String> deleteProduct(@PathVariable Integer id,
+                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        productService.deleteProduct(id, expectedVersion(id, ifMatch));
         return new ResponseEntity<String>(String.format("Produkt med id %d har raderats", id), HttpStatus.OK);
     }
+
+    private static ResponseEntity<PendingProductWrite> accepted(PendingProductWrite pending) {
+        return ResponseEntity.accepted().location(URI.create("/products/pending/" + pending.pendingId())).body(pending);
+    }
+
+    // The ready-made body, gzipped when the client takes it. Each encoding has an ETag of its own
+    private static ResponseEntity<byte[]> cachedResponse(CatalogResponseCache.Body cached, WebRequest request) {
+        boolean gzip = cached.gzip() != null && acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        String etag = gzip ? cached.etag().substring(0, cached.etag().length() - 1) + "-gzip\"" : cached.etag();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(cached.gzip());
+        }
+        return response.body(cached.json());
+    }
+
+    // Whether content negotiation would pick JSON over Smile and CBOR, which the cache does not hold
+    private static boolean prefersJson(WebRequest request) {
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        if (accept == null) {
+            return true;
+        }
+        double best = 0, json = 0;
+        try {
+            for (MediaType type : MediaType.parseMediaTypes(accept)) {
+                best = Math.max(best, type.getQualityValue());
+                if (type.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                    json = Math.max(json, type.getQualityValue());
+                }
+            }
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+        return json > 0 && json >= best;
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static ProductPatch productPatch(JsonNode patch) {
+        if (!patch.isObject()) {
+            throw new BadRequestException("En merge patch måste vara ett JSON-objekt");
+        }
+        Set<String> fields = new HashSet<>();
+        patch.fieldNames().forEachRemaining(fields::add);
+        for (String field : fields) {
+            if (!ProductPatch.FIELDS.contains(field)) {
+                throw new BadRequestException("Fältet " + field + " kan inte ändras");
+            }
+        }
+        JsonNode title = patch.path("title"), price = patch.path("price");
+        if (fields.contains("title") && (!title.isTextual() || title.asText().isBlank())) {
+            throw new BadRequestException("Titel saknas");
+        }
+        if (fields.contains("price") && !price.isNull() && !price.isNumber()) {
+            throw new BadRequestException("price måste vara ett tal");
+        }
+        return new ProductPatch(fields, title.textValue(), price.isNumber() ? price.doubleValue() : null,
+                text(patch, "category"), text(patch, "description"), text(patch, "image"));
+    }
+
+    private static String text(JsonNode patch, String field) {
+        JsonNode value = patch.path(field);
+        if (!value.isMissingNode() && !value.isNull() && !value.isTextual()) {
+            throw new BadRequestException(field + " måste vara en sträng");
+        }
+        return value.textValue();
+    }
+
+    // Weak, the same version is sent as JSON, Smile or CBOR and gzipped or not, so the bytes differ
+    private static String etag(Long version) {
+        return "W/\"" + version + "\"";
+    }
+
+    // The version in an If-Match header, null for "*" or no header. Unknown tags never match.
+    // The tag names a version and not the bytes of a response, so a weak one matches as well.
+    private static Long expectedVersion(Integer id, String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            try {
+                return Long.parseLong(tag.substring(1, tag.length() - 1));
+            } catch (NumberFormatException e) {
+                // falls through to the precondition failure
+            }
+        }
+        throw new PreconditionFailedException(id);
+    }
 }
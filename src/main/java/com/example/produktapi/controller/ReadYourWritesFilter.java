@@ -0,0 +1,55 @@
+package com.example.produktapi.controller;
+
+import com.example.produktapi.repository.ReadYourWrites;
+import com.example.produktapi.service.WriteBehindQueue;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Tells ReadYourWrites and the WriteBehindQueue which client the request comes from: the X-Client-Id
+ * header, or the remote address for clients that do not send one.
+ */
+@Component
+@ConditionalOnExpression("${produktapi.replica.enabled:false} or '${produktapi.write-behind.mode:off}' == 'queued'")
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    static final String CLIENT_ID = "X-Client-Id";
+
+    // Only there with produktapi.replica.enabled
+    private final ReadYourWrites readYourWrites;
+    private final WriteBehindQueue writeBehind;
+
+    public ReadYourWritesFilter(ObjectProvider<ReadYourWrites> readYourWrites, WriteBehindQueue writeBehind) {
+        this.readYourWrites = readYourWrites.getIfAvailable();
+        this.writeBehind = writeBehind;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String clientId = request.getHeader(CLIENT_ID);
+        if (clientId == null || clientId.isBlank()) {
+            clientId = request.getRemoteAddr();
+        }
+        if (readYourWrites != null) {
+            readYourWrites.enter(clientId);
+        }
+        writeBehind.enter(clientId);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            writeBehind.exit();
+            if (readYourWrites != null) {
+                readYourWrites.exit();
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.produktapi.controller;
+
+import com.example.produktapi.exception.BadRequestException;
+import com.example.produktapi.exception.PayloadTooLargeException;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates request bodies sent with Content-Encoding: gzip, so that bulk writes such as
+ * POST /products/batch can be uploaded compressed. Handlers see a plain body without the header.
+ *
+ * At most max-size bytes are inflated, a body that unpacks to more is answered with 413.
+ * Encodings other than gzip and identity are answered with 415.
+ *
+ * An inflated body can only be read blocking, setReadListener on it throws IllegalStateException.
+ * None of the handlers read bodies asynchronously.
+ */
+@Component
+public class RequestDecompressionFilter extends OncePerRequestFilter {
+
+    private final long maxSize;
+
+    public RequestDecompressionFilter(@Value("${produktapi.request-decompression.max-size:64MB}") DataSize maxSize) {
+        this.maxSize = maxSize.toBytes();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String encoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        return encoding == null || encoding.trim().equalsIgnoreCase("identity");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String encoding = request.getHeader(HttpHeaders.CONTENT_ENCODING).trim();
+        if (!encoding.equalsIgnoreCase("gzip") && !encoding.equalsIgnoreCase("x-gzip")) {
+            response.setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+                    String.format("Content-Encoding %s stöds inte, använd gzip", encoding));
+            return;
+        }
+        chain.doFilter(new InflatedRequest(request, maxSize), response);
+    }
+
+    private static final class InflatedRequest extends HttpServletRequestWrapper {
+
+        private final long maxSize;
+        private ServletInputStream body;
+
+        InflatedRequest(HttpServletRequest request, long maxSize) {
+            super(request);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (body == null) {
+                body = new InflatingInputStream(super.getInputStream(), maxSize);
+            }
+            return body;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            String encoding = getCharacterEncoding();
+            Charset charset = encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8;
+            return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+        }
+
+        // The inflated length is not known up front
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return isDropped(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return isDropped(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            return Collections.enumeration(Collections.list(super.getHeaderNames()).stream()
+                    .filter(name -> !isDropped(name))
+                    .toList());
+        }
+
+        private static boolean isDropped(String name) {
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+    }
+
+    private static final class InflatingInputStream extends ServletInputStream {
+
+        private final ServletInputStream compressed;
+        private final long maxSize;
+        private InputStream inflated;
+        private long read;
+        private boolean finished;
+
+        InflatingInputStream(ServletInputStream compressed, long maxSize) {
+            this.compressed = compressed;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                if (inflated == null) {
+                    inflated = new GZIPInputStream(compressed, 8192);
+                }
+                n = inflated.read(b, off, len);
+            } catch (ZipException | EOFException e) {
+                throw new BadRequestException("Förfrågan är inte giltig gzip");
+            }
+            if (n == -1) {
+                finished = true;
+                return -1;
+            }
+            read += n;
+            if (read > maxSize) {
+                throw new PayloadTooLargeException(maxSize);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new IllegalStateException("Non-blocking reads of a gzip request body are not supported");
+        }
+
+        @Override
+        public void close() throws IOException {
+            compressed.close();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.produktapi.exception;
+
+public class BulkheadFullException extends RuntimeException {
+    public BulkheadFullException() {
+        super("Databasen är upptagen, försök igen om en stund");
+    }
+}
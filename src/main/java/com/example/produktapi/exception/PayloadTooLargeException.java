@@ -0,0 +1,7 @@
+package com.example.produktapi.exception;
+
+public class PayloadTooLargeException extends RuntimeException {
+    public PayloadTooLargeException(long maxSize) {
+        super(String.format("Förfrågan är större än %d byte uppackad", maxSize));
+    }
+}
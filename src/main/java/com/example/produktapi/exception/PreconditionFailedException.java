@@ -0,0 +1,7 @@
+package com.example.produktapi.exception;
+
+public class PreconditionFailedException extends RuntimeException {
+    public PreconditionFailedException(Integer id) {
+        super(String.format("Produkt med id %d har ändrats sedan den hämtades", id));
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.produktapi.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import org.hibernate.annotations.Immutable;
+
+/**
+ * A category name with the id that products store instead of the name, see CategoryDictionary.
+ * Rows are only ever added, by CategoryDictionary.
+ */
+@Entity
+@Immutable
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_category_name", columnNames = "name"))
+public class Category {
+
+    private @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY) Integer id;
+    @Column(nullable = false)
+    private String name;
+
+    protected Category() {
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
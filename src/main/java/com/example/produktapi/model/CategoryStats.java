@@ -0,0 +1,8 @@
+package com.example.produktapi.model;
+
+/**
+ * Number of products in a category and its lowest, highest and average price.
+ * The prices are null when no product in the category has one.
+ */
+public record CategoryStats(String category, long count, Double minPrice, Double maxPrice, Double averagePrice) {
+}
@@ -0,0 +1,10 @@
+package com.example.produktapi.model;
+
+/**
+ * A write that was answered before it was committed, see WriteBehindQueue.
+ * product is the product as it was written once the state is WRITTEN, error why it was not when FAILED.
+ */
+public record PendingProductWrite(long pendingId, State state, Product product, String error) {
+
+    public enum State { PENDING, WRITTEN, FAILED }
+}
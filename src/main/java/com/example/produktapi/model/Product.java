@@ -1,20 +1,59 @@
 package com.example.produktapi.model;
 
+import com.example.produktapi.repository.CategoryConverter;
+import jakarta.persistence.Cacheable;
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.ForeignKey;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
 
 @Entity
+// Second-level cache region, see OrmCacheConfig
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "product")
+@Table(indexes = {
+        // Keyset pagination seeks on (sort column, id), see ProductRepository.findPageOrderBy*
+        @Index(name = "idx_product_price_id", columnList = "price, id"),
+        @Index(name = "idx_product_title_id", columnList = "title, id"),
+        // Price ranges within a category, also the index of the foreign key
+        @Index(name = "idx_product_category_price", columnList = "category_id, price, id")
+})
 public class Product {
     // Attributes
+    // Ids are handed out from the sequence in blocks of 50, unlike IDENTITY this lets Hibernate batch inserts
     private @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY) Integer id;
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "product_seq")
+    @SequenceGenerator(name = "product_seq", sequenceName = "product_seq", allocationSize = 50) Integer id;
     private String title;
     private Double price;
+    // Stored as the id of a row in the category table, see CategoryConverter
+    @Convert(converter = CategoryConverter.class)
+    @Column(name = "category_id")
     private String category;
+    // The same column as a reference, for the foreign key and for joins in queries. Never loaded
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "category_id", insertable = false, updatable = false,
+            foreignKey = @ForeignKey(name = "fk_product_category"))
+    private Category categoryRow;
     private String description;
     private String image;
+    // Bumped by Hibernate on every update, sent to clients as the ETag of the product
+    @Version
+    @ColumnDefault("0")
+    private Long version;
 
     public Product() {
     }
@@ -78,6 +117,14 @@ public class Product {
         this.image = image;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "Product{" +
@@ -87,6 +134,7 @@ public class Product {
                 ", category='" + category + '\'' +
                 ", description='" + description + '\'' +
                 ", image='" + image + '\'' +
+                ", version=" + version +
                 '}';
     }
 }
@@ -0,0 +1,15 @@
+package com.example.produktapi.model;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk insert, with one row per product in the order they were sent.
+ */
+public record ProductBatchResult(int created, int conflicts, int invalid, List<Row> rows) {
+
+    public enum Status { CREATED, CONFLICT, INVALID }
+
+    // id is only set for created rows, message only for rejected ones
+    public record Row(int index, Status status, Integer id, String message) {
+    }
+}
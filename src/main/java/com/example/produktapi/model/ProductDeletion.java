@@ -0,0 +1,9 @@
+package com.example.produktapi.model;
+
+import java.util.List;
+
+/**
+ * The ids a bulk delete removed and, for deletes by id, the ids that had no product.
+ */
+public record ProductDeletion(List<Integer> deleted, List<Integer> missing) {
+}
@@ -0,0 +1,12 @@
+package com.example.produktapi.model;
+
+/**
+ * How far an import of a product file has come. offset is the number of bytes of the file whose
+ * products are stored, resumedFrom the offset this run started at after an earlier one stopped.
+ * The counts and rowsPerSecond cover this run only.
+ */
+public record ProductImportStatus(String file, State state, long size, long offset, long resumedFrom,
+                                  long created, long conflicts, long invalid, long rowsPerSecond, String error) {
+
+    public enum State { RUNNING, DONE, FAILED }
+}
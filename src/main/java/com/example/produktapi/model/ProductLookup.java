@@ -0,0 +1,10 @@
+package com.example.produktapi.model;
+
+import java.util.List;
+
+/**
+ * Products found for a list of ids, in the order the ids were asked for,
+ * and the ids that did not match any product.
+ */
+public record ProductLookup(List<Product> items, List<Integer> missing) {
+}
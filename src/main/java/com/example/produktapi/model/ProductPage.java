@@ -0,0 +1,10 @@
+package com.example.produktapi.model;
+
+import java.util.List;
+
+/**
+ * One page of products. nextCursor is passed back as ?after= to fetch the
+ * following page and is null on the last page.
+ */
+public record ProductPage(List<Product> items, String nextCursor) {
+}
@@ -0,0 +1,36 @@
+package com.example.produktapi.model;
+
+import java.util.Set;
+
+/**
+ * The fields of a JSON merge patch (RFC 7396) on a product, each set to a value or to null.
+ * Fields that are not in the patch keep their value.
+ */
+public record ProductPatch(Set<String> fields, String title, Double price, String category, String description,
+                           String image) {
+
+    public static final Set<String> FIELDS = Set.of("title", "price", "category", "description", "image");
+
+    // Every field, the way PUT replaces a product
+    public static ProductPatch replacing(Product product) {
+        return new ProductPatch(FIELDS, product.getTitle(), product.getPrice(), product.getCategory(),
+                product.getDescription(), product.getImage());
+    }
+
+    public boolean has(String field) {
+        return fields.contains(field);
+    }
+
+    // The product as the database has it after the patch, with the version bumped
+    public Product applyTo(Product product) {
+        Product patched = new Product(
+                has("title") ? title : product.getTitle(),
+                has("price") ? price : product.getPrice(),
+                has("category") ? category : product.getCategory(),
+                has("description") ? description : product.getDescription(),
+                has("image") ? image : product.getImage());
+        patched.setId(product.getId());
+        patched.setVersion(product.getVersion() + 1);
+        return patched;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.produktapi.model;
+
+/**
+ * The columns a product listing shows, without description and image.
+ */
+public record ProductSummary(Integer id, String title, Double price, String category) {
+}
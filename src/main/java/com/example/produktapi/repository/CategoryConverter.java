@@ -0,0 +1,30 @@
+package com.example.produktapi.repository;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Product.category is stored as the id of its row in the category table. Queries on the category
+ * compare ids, and the names read back are the shared instances from CategoryDictionary.
+ *
+ * Created by Hibernate through Spring, which hands it the dictionary.
+ */
+@Converter
+public class CategoryConverter implements AttributeConverter<String, Integer> {
+
+    private final CategoryDictionary categories;
+
+    public CategoryConverter(CategoryDictionary categories) {
+        this.categories = categories;
+    }
+
+    @Override
+    public Integer convertToDatabaseColumn(String category) {
+        return category == null ? null : categories.idOf(category);
+    }
+
+    @Override
+    public String convertToEntityAttribute(Integer id) {
+        return id == null ? null : categories.nameOf(id);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.produktapi.repository;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The category table in memory, name to id and back, for CategoryConverter.
+ * Every name is held as one String that all products read from the database share.
+ *
+ * Loaded on first use. Names are added with canonical() before a product that uses them is written,
+ * any other writer of the category table has to call reload() afterwards.
+ */
+@Component
+public class CategoryDictionary {
+
+    // What CategoryConverter stores for a name that has no row, matches no product
+    static final int UNKNOWN = -1;
+
+    private final JdbcTemplate jdbc;
+    private final SimpleJdbcInsert insert;
+    // The transaction manager needs the EntityManagerFactory, which needs this, so it is looked up on first use
+    private final ObjectProvider<PlatformTransactionManager> transactionManager;
+
+    // Replaced as a whole when a category is added, which is rare
+    private volatile Names names;
+
+    private record Names(Map<String, Integer> ids, Map<Integer, String> names) {
+    }
+
+    public CategoryDictionary(DataSource dataSource, ObjectProvider<PlatformTransactionManager> transactionManager) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.insert = new SimpleJdbcInsert(dataSource).withTableName("category")
+                .usingColumns("name").usingGeneratedKeyColumns("id");
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * The shared instance of the name, after adding a row for it if there is none. null stays null.
+     */
+    public String canonical(String name) {
+        if (name == null) {
+            return null;
+        }
+        Integer id = loaded().ids.get(name);
+        if (id != null) {
+            return loaded().names.get(id);
+        }
+        synchronized (this) {
+            id = loaded().ids.get(name);
+            if (id == null) {
+                // Committed on its own, so a write that is rolled back cannot take the row along
+                TransactionTemplate newTransaction = new TransactionTemplate(transactionManager.getObject());
+                newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+                id = newTransaction.execute(status -> insertOrFind(name));
+                add(id, name);
+            }
+            return loaded().names.get(id);
+        }
+    }
+
+    // Adds the rows that are not in the dictionary yet, rows are never changed or removed.
+    // With Shards this may read the category table of a shard that is behind, and lose nothing
+    public synchronized void reload() {
+        Map<String, Integer> ids = names == null ? new HashMap<>() : new HashMap<>(names.ids);
+        Map<Integer, String> byId = names == null ? new HashMap<>() : new HashMap<>(names.names);
+        jdbc.query("SELECT id, name FROM category", row -> {
+            if (!byId.containsKey(row.getInt(1))) {
+                ids.put(row.getString(2), row.getInt(1));
+                byId.put(row.getInt(1), row.getString(2));
+            }
+        });
+        names = new Names(ids, byId);
+    }
+
+    int idOf(String name) {
+        Integer id = loaded().ids.get(name);
+        return id == null ? UNKNOWN : id;
+    }
+
+    String nameOf(int id) {
+        String name = loaded().names.get(id);
+        if (name == null) {
+            // Added past the dictionary
+            reload();
+            name = names.names.get(id);
+        }
+        if (name == null) {
+            throw new IllegalStateException("No category with id " + id);
+        }
+        return name;
+    }
+
+    private Integer insertOrFind(String name) {
+        try {
+            return insert.executeAndReturnKey(Map.of("name", name)).intValue();
+        } catch (DuplicateKeyException e) {
+            return jdbc.queryForObject("SELECT id FROM category WHERE name = ?", Integer.class, name);
+        }
+    }
+
+    private void add(int id, String name) {
+        Map<String, Integer> ids = new HashMap<>(names.ids);
+        Map<Integer, String> byId = new HashMap<>(names.names);
+        ids.put(name, id);
+        byId.put(id, name);
+        names = new Names(ids, byId);
+    }
+
+    private Names loaded() {
+        Names current = names;
+        if (current == null) {
+            synchronized (this) {
+                if (names == null) {
+                    reload();
+                }
+                current = names;
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.produktapi.repository;
+
+/**
+ * Aggregates of one category. Products without a price are counted but not in priced,
+ * sum, min and max, which are null when no product in the category has a price.
+ */
+public interface CategoryTotals {
+
+    String getCategory();
+
+    long getCount();
+
+    long getPriced();
+
+    Double getSum();
+
+    Double getMin();
+
+    Double getMax();
+}
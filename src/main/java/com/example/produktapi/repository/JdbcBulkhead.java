@@ -0,0 +1,112 @@
+package com.example.produktapi.repository;
+
+import com.example.produktapi.exception.BulkheadFullException;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets at most as many threads take a connection as the pool has connections. With virtual threads
+ * no thread pool limits how many requests run at once, and thousands of them would otherwise queue up
+ * inside Hikari. Here they wait in order on a semaphore, and get a BulkheadFullException (503) when no
+ * permit turns up within the connection timeout.
+ *
+ * Every Hikari pool that is a bean is wrapped. The permit is taken when a connection is checked out,
+ * by a transaction or a call outside one, and given back when the connection is closed, so a
+ * transaction holds one permit from begin to end however many queries it runs.
+ */
+@Component
+@ConditionalOnProperty(name = "produktapi.threads", havingValue = "virtual")
+public class JdbcBulkhead implements BeanPostProcessor {
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof HikariDataSource pool) {
+            return new BulkheadDataSource(pool, pool.getMaximumPoolSize(), pool.getConnectionTimeout());
+        }
+        return bean;
+    }
+
+    public static class BulkheadDataSource extends DelegatingDataSource {
+
+        private final Semaphore permits;
+        private final long timeoutMillis;
+
+        public BulkheadDataSource(DataSource target, int permits, long timeoutMillis) {
+            super(target);
+            this.permits = new Semaphore(permits, true);
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            acquire();
+            try {
+                return releasingOnClose(super.getConnection());
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            acquire();
+            try {
+                return releasingOnClose(super.getConnection(username, password));
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private void acquire() throws SQLException {
+            try {
+                if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new BulkheadFullException();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Avbruten i väntan på en anslutning", e);
+            }
+        }
+
+        // The permit goes back on the first close, later ones only reach the connection
+        private Connection releasingOnClose(Connection connection) {
+            AtomicBoolean closed = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        }
+                        if (method.getName().equals("close") && closed.compareAndSet(false, true)) {
+                            try {
+                                connection.close();
+                            } finally {
+                                permits.release();
+                            }
+                            return null;
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.produktapi.repository;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs the hits, misses and puts of every second-level cache region and of the query cache,
+ * with the number of SQL statements, every produktapi.orm-cache.statistics-interval.
+ * The counts are totals since startup.
+ */
+@Component
+public class OrmCacheStatistics implements SmartInitializingSingleton, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(OrmCacheStatistics.class);
+
+    private final Statistics statistics;
+    private final Duration interval;
+    private final ScheduledExecutorService logger = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "orm-cache-statistics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public OrmCacheStatistics(EntityManagerFactory entityManagerFactory,
+                              @Value("${produktapi.orm-cache.statistics-interval:5m}") Duration interval) {
+        this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        this.interval = interval;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (statistics.isStatisticsEnabled() && !interval.isZero()) {
+            logger.scheduleAtFixedRate(this::log, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        logger.shutdownNow();
+    }
+
+    public void log() {
+        for (String region : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics stats = statistics.getCacheRegionStatistics(region);
+            if (stats != null) {
+                log.info("Region {}: {} hits, {} misses, {} puts", region,
+                        stats.getHitCount(), stats.getMissCount(), stats.getPutCount());
+            }
+        }
+        log.info("Query cache: {} hits, {} misses, {} puts. {} SQL statements", statistics.getQueryCacheHitCount(),
+                statistics.getQueryCacheMissCount(), statistics.getQueryCachePutCount(), statistics.getPrepareStatementCount());
+    }
+}
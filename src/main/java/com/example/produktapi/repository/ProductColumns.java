@@ -0,0 +1,21 @@
+package com.example.produktapi.repository;
+
+/**
+ * Every column of a product, read without loading the entity.
+ */
+public interface ProductColumns {
+
+    Integer getId();
+
+    String getTitle();
+
+    Double getPrice();
+
+    String getCategory();
+
+    String getDescription();
+
+    String getImage();
+
+    Long getVersion();
+}
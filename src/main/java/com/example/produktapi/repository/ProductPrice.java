@@ -0,0 +1,13 @@
+package com.example.produktapi.repository;
+
+/**
+ * Id, category and price of a product, read without loading the entity.
+ */
+public interface ProductPrice {
+
+    Integer getId();
+
+    String getCategory();
+
+    Double getPrice();
+}
@@ -1,18 +1,159 @@
 package com.example.produktapi.repository;
 
 import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductPatch;
+import com.example.produktapi.model.ProductSummary;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface ProductRepository extends JpaRepository<Product, Integer> {
 
+    // Cached in the product-queries region until the product table is written to, see OrmCacheConfig
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = "product-queries")
+    })
     List<Product> findByCategory(String category);
 
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = "product-queries")
+    })
     Optional<Product> findByTitle(String title);
 
-    @Query("SELECT distinct category FROM Product")
+    // Whether a product other than id has the title, for telling why a patch wrote nothing
+    boolean existsByTitleAndIdNot(String title, Integer id);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = "product-queries")
+    })
+    // Categories that have products, a semi-join on the foreign key index instead of a pass over all products
+    @Query("SELECT c.name FROM Category c WHERE EXISTS (SELECT p.id FROM Product p WHERE p.categoryRow = c) ORDER BY c.name")
     List<String> findAllCategories();
+
+    // Seeds CategoryStatsIndex
+    @Query("SELECT p.category AS category, COUNT(p) AS count, COUNT(p.price) AS priced, SUM(p.price) AS sum, " +
+            "MIN(p.price) AS min, MAX(p.price) AS max FROM Product p GROUP BY p.category")
+    List<CategoryTotals> findAllCategoryTotals();
+
+    // The price range of one category, after its lowest or highest price was removed
+    @Query("SELECT p.category AS category, COUNT(p) AS count, COUNT(p.price) AS priced, SUM(p.price) AS sum, " +
+            "MIN(p.price) AS min, MAX(p.price) AS max FROM Product p WHERE p.category = :category GROUP BY p.category")
+    Optional<CategoryTotals> findCategoryTotals(@Param("category") String category);
+
+    // For conditional requests, answers If-None-Match without loading the product
+    @Query("SELECT p.version FROM Product p WHERE p.id = :id")
+    Optional<Long> findVersionById(@Param("id") Integer id);
+
+    // Listing columns only, read as records so nothing is hydrated into or tracked by the persistence context
+
+    @Transactional(readOnly = true)
+    @Query("SELECT new com.example.produktapi.model.ProductSummary(p.id, p.title, p.price, p.category) " +
+            "FROM Product p ORDER BY p.id")
+    List<ProductSummary> findAllSummaries();
+
+    @Transactional(readOnly = true)
+    @Query("SELECT new com.example.produktapi.model.ProductSummary(p.id, p.title, p.price, p.category) " +
+            "FROM Product p WHERE p.category = :category ORDER BY p.id")
+    List<ProductSummary> findSummariesByCategory(@Param("category") String category);
+
+    // Set based duplicate check for bulk inserts, one query per chunk instead of one per row
+    @Query("SELECT p.title FROM Product p WHERE p.title IN :titles")
+    List<String> findExistingTitles(@Param("titles") Collection<String> titles);
+
+    // Cursor over the whole table for exports, must be consumed inside a transaction and closed
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT p FROM Product p ORDER BY p.id")
+    Stream<Product> streamAll();
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+    @Query("SELECT p.id AS id, p.title AS title, p.description AS description FROM Product p")
+    Stream<ProductText> streamAllText();
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+    @Query("SELECT p.id AS id, p.category AS category, p.price AS price FROM Product p WHERE p.price IS NOT NULL " +
+            "ORDER BY p.price, p.id")
+    Stream<ProductPrice> streamAllPrices();
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+    @Query("SELECT p.id AS id, p.title AS title, p.price AS price, p.category AS category, " +
+            "p.description AS description, p.image AS image, p.version AS version FROM Product p ORDER BY p.id")
+    Stream<ProductColumns> streamAllColumns();
+
+    int STREAM_FETCH_SIZE = 500;
+
+    // Writes in a single statement each, without loading the product first. H2's OLD TABLE hands back
+    // the rows as they were before the write, which the indexes and caches need to drop the old values.
+    // Categories are looked up by name here, ProductService adds new ones to the category table first.
+    // No row means no product with that id, or with that id and version if a version is given.
+    // A patch also writes nothing when it gives the product a title another product already has.
+
+    @Transactional
+    @Query(nativeQuery = true, value = "SELECT * FROM OLD TABLE (UPDATE product SET " +
+            "title = CASE WHEN :#{#patch.has('title')} THEN :#{#patch.title()} ELSE title END, " +
+            "price = CASE WHEN :#{#patch.has('price')} THEN :#{#patch.price()} ELSE price END, " +
+            "category_id = CASE WHEN :#{#patch.has('category')} " +
+            "THEN (SELECT c.id FROM category c WHERE c.name = :#{#patch.category()}) ELSE category_id END, " +
+            "description = CASE WHEN :#{#patch.has('description')} THEN :#{#patch.description()} ELSE description END, " +
+            "image = CASE WHEN :#{#patch.has('image')} THEN :#{#patch.image()} ELSE image END, " +
+            "version = version + 1 " +
+            "WHERE id = :id AND (CAST(:version AS BIGINT) IS NULL OR version = :version) " +
+            "AND NOT (:#{#patch.has('title')} AND EXISTS " +
+            "(SELECT 1 FROM product o WHERE o.title = :#{#patch.title()} AND o.id <> :id)))")
+    Optional<Product> patchReturningBefore(@Param("id") Integer id, @Param("version") Long version,
+                                           @Param("patch") ProductPatch patch);
+
+    @Transactional
+    @Query(nativeQuery = true, value = "SELECT * FROM OLD TABLE (DELETE FROM product " +
+            "WHERE id = :id AND (CAST(:version AS BIGINT) IS NULL OR version = :version))")
+    Optional<Product> deleteReturningBefore(@Param("id") Integer id, @Param("version") Long version);
+
+    @Transactional
+    @Query(nativeQuery = true, value = "SELECT * FROM OLD TABLE (DELETE FROM product WHERE id IN (:ids))")
+    List<Product> deleteAllByIdReturningBefore(@Param("ids") Collection<Integer> ids);
+
+    @Transactional
+    @Query(nativeQuery = true, value = "SELECT * FROM OLD TABLE (DELETE FROM product " +
+            "WHERE category_id = (SELECT c.id FROM category c WHERE c.name = :category))")
+    List<Product> deleteByCategoryReturningBefore(@Param("category") String category);
+
+    // Keyset pagination: every page seeks past the last (sort value, id) of the previous page,
+    // so deep pages cost the same as the first. A null category means all categories.
+    // Pass Pageable.ofSize(n) to limit the page, no count query is run.
+
+    @Query("SELECT p FROM Product p WHERE (:category IS NULL OR p.category = :category) " +
+            "AND p.id > :afterId ORDER BY p.id")
+    List<Product> findPageOrderById(@Param("category") String category,
+                                    @Param("afterId") int afterId,
+                                    Pageable pageable);
+
+    @Query("SELECT p FROM Product p WHERE (:category IS NULL OR p.category = :category) " +
+            "AND p.price >= :afterPrice AND (p.price > :afterPrice OR p.id > :afterId) ORDER BY p.price, p.id")
+    List<Product> findPageOrderByPrice(@Param("category") String category,
+                                       @Param("afterPrice") double afterPrice,
+                                       @Param("afterId") int afterId,
+                                       Pageable pageable);
+
+    @Query("SELECT p FROM Product p WHERE (:category IS NULL OR p.category = :category) " +
+            "AND p.title >= :afterTitle AND (p.title > :afterTitle OR p.id > :afterId) ORDER BY p.title, p.id")
+    List<Product> findPageOrderByTitle(@Param("category") String category,
+                                       @Param("afterTitle") String afterTitle,
+                                       @Param("afterId") int afterId,
+                                       Pageable pageable);
 }
@@ -0,0 +1,13 @@
+package com.example.produktapi.repository;
+
+/**
+ * The searchable columns of a product, read without loading the entity.
+ */
+public interface ProductText {
+
+    Integer getId();
+
+    String getTitle();
+
+    String getDescription();
+}
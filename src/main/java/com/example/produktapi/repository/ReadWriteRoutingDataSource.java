@@ -0,0 +1,40 @@
+package com.example.produktapi.repository;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Read-only transactions to the replica, everything else to the primary. Reads stay on the primary
+ * while the replica is being copied, and for a client that has written within the sticky window.
+ *
+ * Spring marks a transaction read-only after it has begun, so this has to sit behind a
+ * LazyConnectionDataSourceProxy that asks for the connection on the first statement.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+
+    private final ReplicaFeed feed;
+    private final ReadYourWrites readYourWrites;
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica, ReplicaFeed feed,
+                                      ReadYourWrites readYourWrites) {
+        this.feed = feed;
+        this.readYourWrites = readYourWrites;
+        setTargetDataSources(Map.of(PRIMARY, primary, REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return feed.isReady() && !readYourWrites.isSticky() ? REPLICA : PRIMARY;
+        }
+        readYourWrites.writing();
+        return PRIMARY;
+    }
+}
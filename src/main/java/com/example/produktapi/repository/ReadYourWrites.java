@@ -0,0 +1,69 @@
+package com.example.produktapi.repository;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers when each client last committed a write, so that its reads go to the primary
+ * for the sticky window after it, long enough for the replica to catch up.
+ *
+ * The client of the current thread is set by ReadYourWritesFilter. Threads without one,
+ * such as startup and streamed responses, are never sticky.
+ */
+public class ReadYourWrites {
+
+    // Expired entries are dropped when the map grows past this
+    private static final int PRUNE_AT = 10_000;
+
+    private final long windowNanos;
+    private final ThreadLocal<String> client = new ThreadLocal<>();
+    private final ConcurrentMap<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+    public ReadYourWrites(Duration window) {
+        this.windowNanos = window.toNanos();
+    }
+
+    public void enter(String clientId) {
+        client.set(clientId);
+    }
+
+    public void exit() {
+        client.remove();
+    }
+
+    // Whether the client of this thread wrote within the window
+    boolean isSticky() {
+        String clientId = client.get();
+        if (clientId == null) {
+            return false;
+        }
+        Long writtenAt = lastWrites.get(clientId);
+        return writtenAt != null && System.nanoTime() - writtenAt < windowNanos;
+    }
+
+    // Counted from the commit, a transaction that rolls back is not a write
+    void writing() {
+        String clientId = client.get();
+        if (clientId == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                written(clientId);
+            }
+        });
+    }
+
+    private void written(String clientId) {
+        long now = System.nanoTime();
+        lastWrites.put(clientId, now);
+        if (lastWrites.size() > PRUNE_AT) {
+            lastWrites.values().removeIf(writtenAt -> now - writtenAt >= windowNanos);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.produktapi.repository;
+
+import com.example.produktapi.ReplicaDataSourceConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the replica database a copy of the primary, see ReplicaDataSourceConfig. Does nothing
+ * when produktapi.replica.enabled is off.
+ *
+ * The replica is filled with a full copy when the application starts, reads only go to it after that.
+ * ProductService then hands over the ids of every product it writes, after the commit and before the
+ * caches hear of it, and the current rows are copied over before the call returns. Since the rows are
+ * read again from the primary, it does not matter which of two writes to one product arrives first.
+ *
+ * When copying fails the replica is taken out of use and filled again from scratch on a background
+ * thread, retried with a growing delay while that fails too. Writes in the meantime only note their ids,
+ * those rows are copied once more at the end of the fill in case the full copy was read before them.
+ */
+@Component
+public class ReplicaFeed implements SmartInitializingSingleton, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaFeed.class);
+
+    private static final long MIN_RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 60_000;
+
+    private final JdbcTemplate primary;
+    private final JdbcTemplate replica;
+
+    private final ScheduledExecutorService resyncs = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "replica-resync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Set from when a fill is scheduled until one has succeeded
+    private final AtomicBoolean resyncScheduled = new AtomicBoolean();
+
+    private volatile boolean ready;
+    // The rest guarded by this. Category rows are never changed or deleted, so the ones past this id are the new ones
+    private int lastCategoryId;
+    // Products written while the replica is out of use
+    private final Set<Integer> missed = new HashSet<>();
+
+    public ReplicaFeed(@Qualifier(ReplicaDataSourceConfig.PRIMARY) ObjectProvider<DataSource> primary,
+                       @Qualifier(ReplicaDataSourceConfig.REPLICA) ObjectProvider<DataSource> replica) {
+        DataSource primaryDataSource = primary.getIfAvailable();
+        DataSource replicaDataSource = replica.getIfAvailable();
+        this.primary = primaryDataSource == null ? null : new JdbcTemplate(primaryDataSource);
+        this.replica = replicaDataSource == null ? null : new JdbcTemplate(replicaDataSource);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (replica != null && resyncScheduled.compareAndSet(false, true) && !resync()) {
+            resyncLater(MIN_RETRY_MILLIS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        resyncs.shutdownNow();
+    }
+
+    // Whether reads may go to the replica
+    public boolean isReady() {
+        return ready;
+    }
+
+    // Copies the products with these ids as they are on the primary, and deletes the ones that are gone
+    public synchronized void productsWritten(Collection<Integer> ids) {
+        if (replica == null || ids.isEmpty()) {
+            return;
+        }
+        if (!ready) {
+            missed.addAll(ids);
+            scheduleResync();
+            return;
+        }
+        try {
+            copyCategories();
+            copyProducts(ids);
+        } catch (DataAccessException e) {
+            log.warn("Replica could not be updated, reads go to the primary until it is copied again", e);
+            ready = false;
+            scheduleResync();
+        }
+    }
+
+    private void scheduleResync() {
+        if (resyncScheduled.compareAndSet(false, true)) {
+            resyncLater(0);
+        }
+    }
+
+    private void resyncLater(long delayMillis) {
+        resyncs.schedule(() -> {
+            if (!resync()) {
+                resyncLater(Math.min(Math.max(delayMillis * 2, MIN_RETRY_MILLIS), MAX_RETRY_MILLIS));
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // All of the primary in one go, the replica is emptied first. Writers do not wait for the copy
+    private boolean resync() {
+        synchronized (this) {
+            ready = false;
+            missed.clear();
+        }
+        try {
+            replica.execute("DROP ALL OBJECTS");
+            List<String> script = primary.queryForList("SCRIPT NOPASSWORDS NOSETTINGS TABLE category, product", String.class);
+            replica.batchUpdate(script.toArray(new String[0]));
+            synchronized (this) {
+                lastCategoryId = maxCategoryId();
+                copyCategories();
+                if (!missed.isEmpty()) {
+                    copyProducts(missed);
+                    missed.clear();
+                }
+                ready = true;
+                resyncScheduled.set(false);
+            }
+            log.info("Replica copied from the primary, {} statements", script.size());
+            return true;
+        } catch (DataAccessException e) {
+            log.warn("Replica could not be copied, reads go to the primary until it is", e);
+            return false;
+        }
+    }
+
+    private void copyCategories() {
+        List<Map<String, Object>> rows = primary.queryForList("SELECT * FROM category WHERE id > ?", lastCategoryId);
+        RowCopy.merge(replica, "category", rows);
+        for (Map<String, Object> row : rows) {
+            lastCategoryId = Math.max(lastCategoryId, RowCopy.id(row));
+        }
+    }
+
+    private void copyProducts(Collection<Integer> ids) {
+        Map<String, Object> idParameter = Map.of("ids", ids);
+        List<Map<String, Object>> rows = new NamedParameterJdbcTemplate(primary)
+                .queryForList("SELECT * FROM product WHERE id IN (:ids)", idParameter);
+        RowCopy.merge(replica, "product", rows);
+
+        Set<Integer> gone = new HashSet<>(ids);
+        for (Map<String, Object> row : rows) {
+            gone.remove(RowCopy.id(row));
+        }
+        if (!gone.isEmpty()) {
+            new NamedParameterJdbcTemplate(replica)
+                    .update("DELETE FROM product WHERE id IN (:ids)", Map.of("ids", gone));
+        }
+    }
+
+    private int maxCategoryId() {
+        Integer max = replica.queryForObject("SELECT MAX(id) FROM category", Integer.class);
+        return max == null ? 0 : max;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.produktapi.repository;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Times every repository method and records how many rows it returned, as
+ * product.repository.invocations and product.repository.rows tagged with repository and method.
+ * The meters of a method are looked up once, after that a call costs two clock reads and two records.
+ *
+ * Streams are timed until they are handed back, not until they are consumed, and have no row count.
+ */
+@Component
+public class RepositoryMetrics implements BeanPostProcessor {
+
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    public RepositoryMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean) {
+            factoryBean.addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+                    (proxy, information) -> proxy.addAdvice(
+                            new Interceptor(meterRegistry::getObject, information.getRepositoryInterface().getSimpleName()))));
+        }
+        return bean;
+    }
+
+    public static class Interceptor implements MethodInterceptor {
+
+        private final Supplier<MeterRegistry> meterRegistry;
+        private final String repository;
+        private final Map<Method, Meters> meters = new ConcurrentHashMap<>();
+
+        private record Meters(Timer timer, DistributionSummary rows) {
+        }
+
+        // The registry is asked for when the first call comes in, repositories are created before it exists
+        public Interceptor(Supplier<MeterRegistry> meterRegistry, String repository) {
+            this.meterRegistry = meterRegistry;
+            this.repository = repository;
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            Meters meters = this.meters.computeIfAbsent(invocation.getMethod(), this::register);
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = invocation.proceed();
+            } catch (Throwable e) {
+                timer(invocation.getMethod(), e.getClass().getSimpleName()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                throw e;
+            }
+            meters.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            int rows = rows(result);
+            if (rows >= 0) {
+                meters.rows.record(rows);
+            }
+            return result;
+        }
+
+        private Meters register(Method method) {
+            DistributionSummary rows = DistributionSummary.builder("product.repository.rows")
+                    .tags("repository", repository, "method", method.getName())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry.get());
+            return new Meters(timer(method, "none"), rows);
+        }
+
+        private Timer timer(Method method, String exception) {
+            return Timer.builder("product.repository.invocations")
+                    .tags("repository", repository, "method", method.getName(), "exception", exception)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry.get());
+        }
+
+        private static int rows(Object result) {
+            if (result instanceof Collection<?> collection) {
+                return collection.size();
+            }
+            if (result instanceof Optional<?> optional) {
+                return optional.isPresent() ? 1 : 0;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.produktapi.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies rows between H2 databases with the same schema, for ReplicaFeed and Shards.
+ */
+final class RowCopy {
+
+    private RowCopy() {
+    }
+
+    // Rows as returned by queryForList, all with the same columns. Inserted, or replaced when the id is taken
+    static void merge(JdbcTemplate target, String table, List<Map<String, Object>> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<String> columns = new ArrayList<>(rows.get(0).keySet());
+        String sql = "MERGE INTO " + table + " (" + String.join(", ", columns) + ") KEY (ID) VALUES ("
+                + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+        List<Object[]> values = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            values.add(row.values().toArray());
+        }
+        target.batchUpdate(sql, values);
+    }
+
+    static int id(Map<String, Object> row) {
+        return ((Number) row.get("ID")).intValue();
+    }
+}
@@ -0,0 +1,388 @@
+package com.example.produktapi.repository;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductPatch;
+import com.example.produktapi.model.ProductSummary;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import jakarta.persistence.EntityNotFoundException;
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs ProductRepository calls on the shards that hold the rows, see Shards. ProductService and
+ * everything else keep using the repository as before.
+ *
+ * A call with a category, and a save, goes to the shard of that category. Any other call goes to
+ * every shard at once and the results are merged: lists are joined, and sorted again where the
+ * query sorts, an Optional is the one shard that found something, counts are added up.
+ * A Page is put together from the first offset + size rows of every shard, with id as the last
+ * sort order. getReferenceById loads the product, since a reference can only be loaded on
+ * the shard it was made on. Other return types are not supported.
+ * Streams are read one shard after the other, each in a read-only transaction of its own,
+ * so they are not in id order across shards.
+ *
+ * An update that gives a product a category on another shard moves the row there afterwards.
+ * It is written to the new shard before it is deleted from the old, a query running in between
+ * may see it twice.
+ */
+@Component
+@ConditionalOnProperty(name = "produktapi.sharding.enabled", havingValue = "true")
+public class ShardRouter implements BeanPostProcessor {
+
+    private final Interceptor interceptor;
+
+    public ShardRouter(ObjectProvider<Shards> shards, ObjectProvider<CategoryDictionary> categories,
+                       ObjectProvider<PlatformTransactionManager> transactionManager) {
+        this.interceptor = new Interceptor(shards, categories, transactionManager);
+    }
+
+    // First in the chain, so the repository's own transaction starts on the shard
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean) {
+            factoryBean.addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+                    (proxy, information) -> {
+                        if (information.getRepositoryInterface() == ProductRepository.class) {
+                            proxy.addAdvice(0, interceptor);
+                        }
+                    }));
+        }
+        return bean;
+    }
+
+    static final class Interceptor implements MethodInterceptor {
+
+        // Queries whose order has to be restored after the shards' results are joined
+        private static final Map<String, Comparator<?>> ORDERS = Map.of(
+                "findAllCategories", Comparator.<String>naturalOrder(),
+                "findAllSummaries", Comparator.comparing(ProductSummary::id),
+                "findPageOrderById", Comparator.comparing(Product::getId),
+                "findPageOrderByPrice", Comparator.comparing(Product::getPrice).thenComparing(Product::getId),
+                "findPageOrderByTitle", Comparator.comparing(Product::getTitle).thenComparing(Product::getId));
+
+        private final ObjectProvider<Shards> shards;
+        private final ObjectProvider<CategoryDictionary> categories;
+        private final ObjectProvider<PlatformTransactionManager> transactionManager;
+        // Position of the category parameter, -1 for methods without one
+        private final Map<Method, Integer> categoryParameters = new ConcurrentHashMap<>();
+
+        Interceptor(ObjectProvider<Shards> shards, ObjectProvider<CategoryDictionary> categories,
+                    ObjectProvider<PlatformTransactionManager> transactionManager) {
+            this.shards = shards;
+            this.categories = categories;
+            this.transactionManager = transactionManager;
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            Shards shards = this.shards.getObject();
+            if (shards.current() != null) {
+                return invocation.proceed();
+            }
+            Method method = invocation.getMethod();
+            Object[] arguments = invocation.getArguments();
+            switch (method.getName()) {
+                case "save", "saveAndFlush", "delete" -> {
+                    String category = ((Product) arguments[0]).getCategory();
+                    copyCategories(category);
+                    return one(shards.shardOf(category), invocation);
+                }
+                case "saveAll", "saveAllAndFlush" -> {
+                    return saveAll(invocation);
+                }
+                case "patchReturningBefore" -> {
+                    return patch(invocation);
+                }
+                case "getReferenceById", "getById", "getOne" -> {
+                    Integer id = (Integer) arguments[0];
+                    return ((ProductRepository) ((ProxyMethodInvocation) invocation).getProxy()).findById(id)
+                            .orElseThrow(() -> new EntityNotFoundException("Unable to find Product with id " + id));
+                }
+                default -> {
+                }
+            }
+            int category = categoryParameter(method);
+            if (category >= 0 && arguments[category] != null) {
+                return one(shards.shardOf((String) arguments[category]), invocation);
+            }
+            if (Stream.class.isAssignableFrom(method.getReturnType())) {
+                return streamEach(invocation);
+            }
+            if (Page.class.isAssignableFrom(method.getReturnType())) {
+                return page(invocation);
+            }
+            return merge(method, arguments, shards.onEach(shard -> clone(invocation)::proceed));
+        }
+
+        // On this thread, outside the caller's transaction so the repository starts one on the shard
+        private Object one(int shard, MethodInvocation invocation) throws Throwable {
+            return shards.getObject().on(shard, () -> {
+                if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+                    return invocation.proceed();
+                }
+                TransactionStatus suspended = transactionManager.getObject().getTransaction(
+                        new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NOT_SUPPORTED));
+                try {
+                    return invocation.proceed();
+                } finally {
+                    transactionManager.getObject().commit(suspended);
+                }
+            });
+        }
+
+        // Grouped by shard, and handed back in the order they came in
+        @SuppressWarnings("unchecked")
+        private Object saveAll(MethodInvocation invocation) throws Throwable {
+            Shards shards = this.shards.getObject();
+            Map<Integer, List<Product>> byShard = new HashMap<>();
+            List<Integer> shardOfEach = new ArrayList<>();
+            for (Product product : (Iterable<Product>) invocation.getArguments()[0]) {
+                copyCategories(product.getCategory());
+                int shard = shards.shardOf(product.getCategory());
+                byShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(product);
+                shardOfEach.add(shard);
+            }
+            List<List<Product>> saved = shards.onEach(shard -> byShard.containsKey(shard)
+                    ? () -> (List<Product>) clone(invocation, byShard.get(shard)).proceed()
+                    : List::of);
+
+            List<Iterator<Product>> iterators = new ArrayList<>();
+            for (List<Product> products : saved) {
+                iterators.add(products.iterator());
+            }
+            List<Product> result = new ArrayList<>(shardOfEach.size());
+            for (int shard : shardOfEach) {
+                result.add(iterators.get(shard).next());
+            }
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object patch(MethodInvocation invocation) throws Throwable {
+            Shards shards = this.shards.getObject();
+            ProductPatch patch = (ProductPatch) invocation.getArguments()[2];
+            if (patch.has("category")) {
+                copyCategories(patch.category());
+            }
+            // The title check in the UPDATE only sees its own shard, this asks all of them
+            ProductRepository repository = (ProductRepository) ((ProxyMethodInvocation) invocation).getProxy();
+            if (patch.has("title") && repository.existsByTitleAndIdNot(patch.title(), (Integer) invocation.getArguments()[0])) {
+                return Optional.empty();
+            }
+            List<Object> results = shards.onEach(shard -> clone(invocation)::proceed);
+            for (int shard = 0; shard < results.size(); shard++) {
+                Optional<Product> before = (Optional<Product>) results.get(shard);
+                if (before.isPresent()) {
+                    int target = patch.has("category") ? shards.shardOf(patch.category()) : shard;
+                    if (target != shard) {
+                        shards.move(before.get().getId(), shard, target);
+                    }
+                    return before;
+                }
+            }
+            return Optional.empty();
+        }
+
+        // Each shard is asked for everything up to the end of the page, the page is cut from the joined rows
+        private Page<Object> page(MethodInvocation invocation) throws Throwable {
+            Object[] arguments = invocation.getArguments().clone();
+            int at = 0;
+            while (!(arguments[at] instanceof Pageable)) {
+                at++;
+            }
+            Pageable pageable = (Pageable) arguments[at];
+            // Ties broken on id, so that every shard and the merge agree on which rows come first
+            Sort sort = pageable.getSort().getOrderFor("id") != null
+                    ? pageable.getSort()
+                    : pageable.getSort().and(Sort.by("id"));
+            if (pageable.isPaged()) {
+                arguments[at] = PageRequest.of(0, Math.toIntExact(pageable.getOffset() + pageable.getPageSize()), sort);
+            }
+            List<Object> pages = shards.getObject().onEach(shard -> clone(invocation, arguments)::proceed);
+
+            List<Object> joined = new ArrayList<>();
+            long total = 0;
+            for (Object page : pages) {
+                joined.addAll(((Page<?>) page).getContent());
+                total += ((Page<?>) page).getTotalElements();
+            }
+            joined.sort(comparator(sort));
+            if (pageable.isUnpaged()) {
+                return new PageImpl<>(joined);
+            }
+            int from = (int) Math.min(pageable.getOffset(), joined.size());
+            int to = Math.min(from + pageable.getPageSize(), joined.size());
+            return new PageImpl<>(new ArrayList<>(joined.subList(from, to)), pageable, total);
+        }
+
+        private Stream<?> streamEach(MethodInvocation invocation) {
+            Shards shards = this.shards.getObject();
+            DefaultTransactionDefinition definition =
+                    new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            definition.setReadOnly(true);
+            return IntStream.range(0, shards.count()).boxed().flatMap(shard -> {
+                try {
+                    return shards.on(shard, () -> {
+                        PlatformTransactionManager transactions = transactionManager.getObject();
+                        TransactionStatus transaction = transactions.getTransaction(definition);
+                        try {
+                            Stream<?> stream = (Stream<?>) clone(invocation).proceed();
+                            // The query runs on the first read, which has to be while the thread is on the shard
+                            Iterator<?> rows = stream.iterator();
+                            rows.hasNext();
+                            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED), false)
+                                    .onClose(() -> {
+                                        try {
+                                            stream.close();
+                                        } finally {
+                                            transactions.commit(transaction);
+                                        }
+                                    });
+                        } catch (Throwable e) {
+                            transactions.rollback(transaction);
+                            throw e;
+                        }
+                    });
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new UndeclaredThrowableException(e);
+                }
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Object merge(Method method, Object[] arguments, List<Object> results) {
+            Class<?> type = method.getReturnType();
+            if (type == Optional.class) {
+                for (Object result : results) {
+                    if (((Optional<?>) result).isPresent()) {
+                        return result;
+                    }
+                }
+                return Optional.empty();
+            }
+            if (Iterable.class.isAssignableFrom(type)) {
+                List<Object> joined = new ArrayList<>();
+                for (Object result : results) {
+                    ((Iterable<?>) result).forEach(joined::add);
+                }
+                Comparator<Object> order = (Comparator<Object>) ORDERS.get(method.getName());
+                for (Object argument : arguments) {
+                    if (order == null && argument instanceof Sort sort && sort.isSorted()) {
+                        order = comparator(sort);
+                    }
+                }
+                if (order != null) {
+                    joined.sort(order);
+                    if (method.getName().equals("findAllCategories")) {
+                        joined = joined.stream().distinct().toList();
+                    }
+                    for (Object argument : arguments) {
+                        if (argument instanceof Pageable pageable && pageable.isPaged()
+                                && joined.size() > pageable.getPageSize()) {
+                            joined = joined.subList(0, pageable.getPageSize());
+                        }
+                    }
+                }
+                return joined;
+            }
+            if (type == long.class || type == Long.class) {
+                long sum = 0;
+                for (Object result : results) {
+                    sum += (Long) result;
+                }
+                return sum;
+            }
+            if (type == boolean.class || type == Boolean.class) {
+                return results.contains(Boolean.TRUE);
+            }
+            if (type == void.class) {
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName() + " is not supported on a sharded catalog");
+        }
+
+        // The order a Sort gives in SQL, nulls first on ascending and last on descending as in H2
+        @SuppressWarnings("unchecked")
+        private static Comparator<Object> comparator(Sort sort) {
+            Comparator<Object> comparator = (a, b) -> 0;
+            for (Sort.Order order : sort) {
+                Comparator<Object> values = order.isIgnoreCase()
+                        ? Comparator.comparing(value -> value.toString(), String.CASE_INSENSITIVE_ORDER)
+                        : (a, b) -> ((Comparable<Object>) a).compareTo(b);
+                if (order.isDescending()) {
+                    values = values.reversed();
+                }
+                boolean nullsLast = order.getNullHandling() == Sort.NullHandling.NULLS_LAST
+                        || (order.getNullHandling() == Sort.NullHandling.NATIVE && order.isDescending());
+                Comparator<Object> byProperty = Comparator.comparing(
+                        row -> new BeanWrapperImpl(row).getPropertyValue(order.getProperty()),
+                        nullsLast ? Comparator.nullsLast(values) : Comparator.nullsFirst(values));
+                comparator = comparator.thenComparing(byProperty);
+            }
+            return comparator;
+        }
+
+        // New categories are added on shard 0, the other shards need them before a product can refer to one
+        private void copyCategories(String category) {
+            Shards shards = this.shards.getObject();
+            if (category != null && categories.getObject().idOf(category) > shards.copiedCategoryId()) {
+                shards.copyCategories();
+            }
+        }
+
+        private int categoryParameter(Method method) {
+            return categoryParameters.computeIfAbsent(method, m -> {
+                Parameter[] parameters = m.getParameters();
+                for (int i = 0; i < parameters.length; i++) {
+                    Param param = parameters[i].getAnnotation(Param.class);
+                    String name = param != null ? param.value() : parameters[i].getName();
+                    if (name.equals("category") && parameters[i].getType() == String.class) {
+                        return i;
+                    }
+                }
+                return -1;
+            });
+        }
+
+        private static MethodInvocation clone(MethodInvocation invocation, Object... arguments) {
+            ProxyMethodInvocation proxied = (ProxyMethodInvocation) invocation;
+            return arguments.length == 0 ? proxied.invocableClone() : proxied.invocableClone(arguments);
+        }
+    }
+}
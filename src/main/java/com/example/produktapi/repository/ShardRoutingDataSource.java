@@ -0,0 +1,30 @@
+package com.example.produktapi.repository;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Connections from the shard the current thread works on, see Shards.on(), otherwise from shard 0.
+ * So schema generation, data.sql and the category table all end up on shard 0.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    private final Shards shards;
+
+    public ShardRoutingDataSource(Shards shards) {
+        this.shards = shards;
+        Map<Object, Object> targets = new HashMap<>();
+        for (int shard = 0; shard < shards.count(); shard++) {
+            targets.put(shard, shards.dataSource(shard));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(shards.dataSource(0));
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return shards.current();
+    }
+}
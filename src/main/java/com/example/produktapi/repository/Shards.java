@@ -0,0 +1,238 @@
+package com.example.produktapi.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * The databases of a sharded catalog, see ShardingConfig. A product is stored on the shard
+ * its category hashes to, products without a category on shard 0.
+ *
+ * Shard 0 is also the home of the category table, new categories are copied from there to the
+ * other shards before a product is written with them. Each shard hands out product ids from a
+ * sequence of its own, in blocks of ID_BLOCK that no other shard gets, so ids are unique across shards
+ * without asking shard 0.
+ *
+ * Which shard a connection comes from is decided per thread, see on() and ShardRoutingDataSource.
+ */
+public class Shards implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(Shards.class);
+
+    // The allocationSize of Product's sequence
+    static final int ID_BLOCK = 50;
+    // Rows moved at a time when a shard is rebalanced
+    private static final int MOVE_CHUNK = 10_000;
+
+    private final List<DataSource> dataSources;
+    private final List<JdbcTemplate> jdbc = new ArrayList<>();
+    private final ThreadLocal<Integer> current = new ThreadLocal<>();
+    // Fan-out calls, each holds a connection of its shard while it runs
+    private final ExecutorService executor = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "shard-query");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Category rows are never changed or deleted, the ones up to this id are on every shard
+    private volatile int copiedCategoryId;
+
+    public Shards(List<DataSource> dataSources) {
+        this.dataSources = List.copyOf(dataSources);
+        for (DataSource dataSource : dataSources) {
+            jdbc.add(new JdbcTemplate(dataSource));
+        }
+    }
+
+    public int count() {
+        return dataSources.size();
+    }
+
+    public DataSource dataSource(int shard) {
+        return dataSources.get(shard);
+    }
+
+    public int shardOf(String category) {
+        return category == null ? 0 : Math.floorMod(category.hashCode(), dataSources.size());
+    }
+
+    // The shard this thread is working on, null outside on()
+    Integer current() {
+        return current.get();
+    }
+
+    interface ShardCall<T> {
+        T call() throws Throwable;
+    }
+
+    // Runs the call on this thread with every new connection taken from the given shard
+    <T> T on(int shard, ShardCall<T> call) throws Throwable {
+        Integer previous = current.get();
+        current.set(shard);
+        try {
+            return call.call();
+        } finally {
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+        }
+    }
+
+    // Runs the call for every shard at once, each on a thread of its own, and returns the results in shard order
+    <T> List<T> onEach(IntFunction<ShardCall<T>> calls) throws Throwable {
+        List<Future<T>> futures = new ArrayList<>(count());
+        for (int shard = 0; shard < count(); shard++) {
+            int s = shard;
+            ShardCall<T> call = calls.apply(s);
+            futures.add(executor.submit(() -> {
+                try {
+                    return on(s, call);
+                } catch (Throwable e) {
+                    throw new ExecutionException(e);
+                }
+            }));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        Throwable failure = null;
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                // Around the ExecutionException of the task, around what the call threw
+                failure = failure == null ? e.getCause().getCause() : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Gets every shard ready after the home shard has been filled, when the application starts:
+     * creates the tables on shards that have none, copies the categories, moves products that are
+     * on another shard than their category hashes to, and sets up the id sequences.
+     * Also meant for after rows have been written to shard 0 directly, and after the number of shards changed.
+     */
+    public synchronized void prepare() {
+        List<String> schema = null;
+        for (int shard = 1; shard < count(); shard++) {
+            if (!hasTables(shard)) {
+                if (schema == null) {
+                    schema = home().queryForList("SCRIPT NODATA NOPASSWORDS NOSETTINGS TABLE category, product", String.class);
+                }
+                jdbc.get(shard).batchUpdate(schema.toArray(new String[0]));
+            }
+        }
+        copiedCategoryId = 0;
+        copyCategories();
+        for (int shard = 0; shard < count(); shard++) {
+            rebalance(shard);
+        }
+        restartSequences();
+    }
+
+    int copiedCategoryId() {
+        return copiedCategoryId;
+    }
+
+    // The categories added to shard 0 since the last copy, to every other shard
+    synchronized void copyCategories() {
+        List<Map<String, Object>> rows = home().queryForList("SELECT id, name FROM category WHERE id > ?", copiedCategoryId);
+        for (int shard = 1; shard < count(); shard++) {
+            RowCopy.merge(jdbc.get(shard), "category", rows);
+        }
+        int copied = copiedCategoryId;
+        for (Map<String, Object> row : rows) {
+            copied = Math.max(copied, RowCopy.id(row));
+        }
+        copiedCategoryId = copied;
+    }
+
+    // One product to the shard of its new category. Written there first, so it is never missing from both
+    void move(int id, int from, int to) {
+        moveRows(from, to, "id = ?", id);
+    }
+
+    private void rebalance(int shard) {
+        List<Map<String, Object>> categories = jdbc.get(shard).queryForList(
+                "SELECT DISTINCT p.category_id AS id, c.name AS name FROM product p LEFT JOIN category c ON c.id = p.category_id");
+        for (Map<String, Object> category : categories) {
+            int target = shardOf((String) category.get("NAME"));
+            if (target == shard) {
+                continue;
+            }
+            int moved = category.get("ID") == null
+                    ? moveRows(shard, target, "category_id IS NULL")
+                    : moveRows(shard, target, "category_id = ?", category.get("ID"));
+            log.info("Moved {} products in category {} from shard {} to shard {}", moved, category.get("NAME"), shard, target);
+        }
+    }
+
+    private int moveRows(int from, int to, String where, Object... args) {
+        int moved = 0;
+        while (true) {
+            List<Map<String, Object>> rows = jdbc.get(from).queryForList(
+                    "SELECT * FROM product WHERE " + where + " ORDER BY id LIMIT " + MOVE_CHUNK, args);
+            if (rows.isEmpty()) {
+                return moved;
+            }
+            RowCopy.merge(jdbc.get(to), "product", rows);
+            List<Object[]> ids = new ArrayList<>(rows.size());
+            for (Map<String, Object> row : rows) {
+                ids.add(new Object[]{RowCopy.id(row)});
+            }
+            jdbc.get(from).batchUpdate("DELETE FROM product WHERE id = ?", ids);
+            moved += rows.size();
+        }
+    }
+
+    // Shard k gets the blocks that start at base + k * ID_BLOCK, base + (count + k) * ID_BLOCK, ...
+    private void restartSequences() {
+        long maxId = 0;
+        for (JdbcTemplate shard : jdbc) {
+            Long max = shard.queryForObject("SELECT MAX(id) FROM product", Long.class);
+            maxId = Math.max(maxId, max == null ? 0 : max);
+        }
+        long base = maxId + 1;
+        for (int shard = 0; shard < count(); shard++) {
+            jdbc.get(shard).execute("CREATE SEQUENCE IF NOT EXISTS product_seq");
+            jdbc.get(shard).execute("ALTER SEQUENCE product_seq RESTART WITH " + (base + (long) shard * ID_BLOCK)
+                    + " INCREMENT BY " + (long) count() * ID_BLOCK);
+        }
+    }
+
+    private boolean hasTables(int shard) {
+        Integer tables = jdbc.get(shard).queryForObject(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'PRODUCT'", Integer.class);
+        return tables != null && tables > 0;
+    }
+
+    private JdbcTemplate home() {
+        return jdbc.get(0);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+        for (DataSource dataSource : dataSources) {
+            if (dataSource instanceof HikariDataSource hikari) {
+                hikari.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.CategoryStats;
+import com.example.produktapi.model.Product;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * The whole catalog as columns, for reports that filter, sort and aggregate over many products
+ * without the database and without an entity per row. Row i is the product with the i-th lowest id.
+ * Ids, prices and versions are primitive arrays, with NaN for a missing price. Categories are codes
+ * into a sorted dictionary, -1 for none. Title, description and image are string tables.
+ *
+ * Never changed once built, so readers need no locks. CatalogSnapshots builds a new one after writes.
+ * Scans over parallel-threshold rows or more run on parallel streams.
+ */
+public final class CatalogSnapshot {
+
+    public enum Sort { ID, PRICE }
+
+    private final long changes;
+    private final int parallelThreshold;
+    private final int size;
+    private final int[] ids;
+    private final double[] prices;
+    private final long[] versions;
+    private final int[] categoryCodes;
+    private final String[] categoryNames;
+    private final String[] titles;
+    private final String[] descriptions;
+    private final String[] images;
+    // The rows with a price from lowest to highest, ties in id order, then the rows without a price
+    private final int[] byPrice;
+    private final int priced;
+
+    private CatalogSnapshot(Builder builder, long changes, int parallelThreshold) {
+        this.changes = changes;
+        this.parallelThreshold = parallelThreshold;
+        this.size = builder.size;
+
+        // Rows in id order, which the builder usually got them in already
+        int[] order = IntStream.range(0, size).toArray();
+        if (!builder.inIdOrder) {
+            int[] builderIds = builder.ids;
+            order = IntStream.range(0, size).boxed().sorted(Comparator.comparingInt(row -> builderIds[row]))
+                    .mapToInt(Integer::intValue).toArray();
+        }
+        // Category codes in name order
+        String[] names = builder.categoryNames.toArray(new String[0]);
+        Arrays.sort(names);
+        int[] recode = new int[names.length];
+        for (int code = 0; code < names.length; code++) {
+            recode[code] = Arrays.binarySearch(names, builder.categoryNames.get(code));
+        }
+        this.categoryNames = names;
+
+        ids = new int[size];
+        prices = new double[size];
+        versions = new long[size];
+        categoryCodes = new int[size];
+        titles = new String[size];
+        descriptions = new String[size];
+        images = new String[size];
+        int withPrice = 0;
+        for (int row = 0; row < size; row++) {
+            int from = order[row];
+            ids[row] = builder.ids[from];
+            prices[row] = builder.prices[from];
+            versions[row] = builder.versions[from];
+            int code = builder.codes[from];
+            categoryCodes[row] = code < 0 ? -1 : recode[code];
+            titles[row] = builder.titles[from];
+            descriptions[row] = builder.descriptions[from];
+            images[row] = builder.images[from];
+            if (!Double.isNaN(prices[row])) {
+                withPrice++;
+            }
+        }
+        this.priced = withPrice;
+
+        // A stable sort on price keeps equal prices in row order, which is id order
+        Integer[] sorted = IntStream.range(0, size).filter(row -> !Double.isNaN(prices[row])).boxed().toArray(Integer[]::new);
+        Arrays.parallelSort(sorted, Comparator.comparingDouble(row -> prices[row]));
+        byPrice = new int[size];
+        for (int i = 0; i < sorted.length; i++) {
+            byPrice[i] = sorted[i];
+        }
+        int next = sorted.length;
+        for (int row = 0; row < size; row++) {
+            if (Double.isNaN(prices[row])) {
+                byPrice[next++] = row;
+            }
+        }
+    }
+
+    // How many changes to the catalog had been seen when the snapshot was read, see CatalogSnapshots
+    public long changes() {
+        return changes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Every category with at least one product, sorted
+    public List<String> categories() {
+        return List.of(categoryNames);
+    }
+
+    public Query query() {
+        return new Query();
+    }
+
+    private Product product(int row) {
+        Product product = new Product(titles[row], Double.isNaN(prices[row]) ? null : prices[row],
+                categoryCodes[row] < 0 ? null : categoryNames[categoryCodes[row]], descriptions[row], images[row]);
+        product.setId(ids[row]);
+        product.setVersion(versions[row]);
+        return product;
+    }
+
+    // First position in the priced part of byPrice with a price at or above the given one, or above it
+    private int seek(double price, boolean above) {
+        int low = 0;
+        int high = priced;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            double p = prices[byPrice[middle]];
+            if (p < price || above && p == price) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Filter on categories and a price range, then either list the matching products in id or price
+     * order, or aggregate them. Not thread safe, but a query only reads the snapshot it came from.
+     */
+    public final class Query {
+
+        // Indexed by category code, null for every category
+        private boolean[] categories;
+        private boolean priceFilter;
+        private double minPrice = Double.NEGATIVE_INFINITY;
+        private double maxPrice = Double.POSITIVE_INFINITY;
+        private Sort sort = Sort.ID;
+        private boolean descending;
+        private int limit = Integer.MAX_VALUE;
+
+        private Query() {
+        }
+
+        // Products in any of the categories, names that are not in the catalog match nothing
+        public Query categories(Collection<String> names) {
+            categories = new boolean[categoryNames.length];
+            for (String name : names) {
+                int code = name == null ? -1 : Arrays.binarySearch(categoryNames, name);
+                if (code >= 0) {
+                    categories[code] = true;
+                }
+            }
+            return this;
+        }
+
+        // Both bounds are inclusive, null for none. With a bound, products without a price never match
+        public Query price(Double minPrice, Double maxPrice) {
+            priceFilter = minPrice != null || maxPrice != null;
+            this.minPrice = minPrice == null ? Double.NEGATIVE_INFINITY : minPrice;
+            this.maxPrice = maxPrice == null ? Double.POSITIVE_INFINITY : maxPrice;
+            return this;
+        }
+
+        // In price order, products without a price come last either way
+        public Query sort(Sort sort, boolean descending) {
+            this.sort = sort;
+            this.descending = descending;
+            return this;
+        }
+
+        // The first products in the sort order, products() and ids() stop scanning once they have them
+        public Query limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public List<Product> products() {
+            return rows().mapToObj(CatalogSnapshot.this::product).toList();
+        }
+
+        public int[] ids() {
+            return rows().map(row -> ids[row]).toArray();
+        }
+
+        // Every match, sort and limit do not apply
+        public long count() {
+            IntStream rows = IntStream.range(0, size).filter(this::matches);
+            return (size >= parallelThreshold ? rows.parallel() : rows).count();
+        }
+
+        /**
+         * Count and lowest, highest and average price per category over every match, sorted on category.
+         * Sort and limit do not apply, products without a category are left out.
+         */
+        public List<CategoryStats> stats() {
+            IntStream rows = IntStream.range(0, size).filter(this::matches);
+            Totals totals = (size >= parallelThreshold ? rows.parallel() : rows)
+                    .collect(Totals::new, Totals::add, Totals::merge);
+            List<CategoryStats> stats = new ArrayList<>();
+            for (int code = 0; code < categoryNames.length; code++) {
+                if (totals.count[code] == 0) {
+                    continue;
+                }
+                if (totals.priced[code] == 0) {
+                    stats.add(new CategoryStats(categoryNames[code], totals.count[code], null, null, null));
+                } else {
+                    stats.add(new CategoryStats(categoryNames[code], totals.count[code], totals.min[code],
+                            totals.max[code], totals.sum[code] / totals.priced[code]));
+                }
+            }
+            return stats;
+        }
+
+        // The matching rows in sort order. In price order only the part of byPrice within the range is scanned
+        private IntStream rows() {
+            IntStream rows;
+            if (sort == Sort.PRICE) {
+                int from = priceFilter ? seek(minPrice, false) : 0;
+                int to = priceFilter ? Math.max(from, seek(maxPrice, true)) : priced;
+                int inRange = to - from;
+                int unpriced = priceFilter ? 0 : size - priced;
+                rows = IntStream.range(0, inRange + unpriced).map(i -> i >= inRange ? byPrice[priced + i - inRange]
+                        : byPrice[descending ? to - 1 - i : from + i]);
+            } else {
+                rows = IntStream.range(0, size);
+                if (descending) {
+                    rows = rows.map(i -> size - 1 - i);
+                }
+            }
+            rows = rows.filter(this::matches);
+            if (limit < size) {
+                // In order and short, a sequential scan that stops at the limit beats splitting it up
+                return rows.limit(limit);
+            }
+            return size >= parallelThreshold ? rows.parallel() : rows;
+        }
+
+        private boolean matches(int row) {
+            if (categories != null) {
+                int code = categoryCodes[row];
+                if (code < 0 || !categories[code]) {
+                    return false;
+                }
+            }
+            // NaN fails both comparisons
+            return !priceFilter || prices[row] >= minPrice && prices[row] <= maxPrice;
+        }
+
+        private final class Totals {
+
+            final long[] count = new long[categoryNames.length];
+            final long[] priced = new long[categoryNames.length];
+            final double[] sum = new double[categoryNames.length];
+            final double[] min = new double[categoryNames.length];
+            final double[] max = new double[categoryNames.length];
+
+            Totals() {
+                Arrays.fill(min, Double.POSITIVE_INFINITY);
+                Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            }
+
+            void add(int row) {
+                int code = categoryCodes[row];
+                if (code < 0) {
+                    return;
+                }
+                count[code]++;
+                double price = prices[row];
+                if (!Double.isNaN(price)) {
+                    priced[code]++;
+                    sum[code] += price;
+                    min[code] = Math.min(min[code], price);
+                    max[code] = Math.max(max[code], price);
+                }
+            }
+
+            void merge(Totals other) {
+                for (int code = 0; code < count.length; code++) {
+                    count[code] += other.count[code];
+                    priced[code] += other.priced[code];
+                    sum[code] += other.sum[code];
+                    min[code] = Math.min(min[code], other.min[code]);
+                    max[code] = Math.max(max[code], other.max[code]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the rows of a snapshot. Products may come in any order, in id order saves a sort.
+     */
+    public static final class Builder {
+
+        private int size;
+        private boolean inIdOrder = true;
+        private int[] ids = new int[1024];
+        private double[] prices = new double[1024];
+        private long[] versions = new long[1024];
+        private int[] codes = new int[1024];
+        private String[] titles = new String[1024];
+        private String[] descriptions = new String[1024];
+        private String[] images = new String[1024];
+        // Codes in the order the categories were first seen, sorted when the snapshot is built
+        private final Map<String, Integer> categoryCodes = new HashMap<>();
+        private final List<String> categoryNames = new ArrayList<>();
+
+        public Builder add(Product product) {
+            return add(product.getId(), product.getTitle(), product.getPrice(), product.getCategory(),
+                    product.getDescription(), product.getImage(), product.getVersion());
+        }
+
+        public Builder add(Integer id, String title, Double price, String category, String description, String image,
+                           Long version) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+                versions = Arrays.copyOf(versions, capacity);
+                codes = Arrays.copyOf(codes, capacity);
+                titles = Arrays.copyOf(titles, capacity);
+                descriptions = Arrays.copyOf(descriptions, capacity);
+                images = Arrays.copyOf(images, capacity);
+            }
+            if (size > 0 && id <= ids[size - 1]) {
+                inIdOrder = false;
+            }
+            ids[size] = id;
+            prices[size] = price == null ? Double.NaN : price;
+            versions[size] = version == null ? 0 : version;
+            codes[size] = category == null ? -1 : categoryCodes.computeIfAbsent(category, name -> {
+                categoryNames.add(name);
+                return categoryNames.size() - 1;
+            });
+            titles[size] = title;
+            descriptions[size] = description;
+            images[size] = image;
+            size++;
+            return this;
+        }
+
+        public CatalogSnapshot build(long changes, int parallelThreshold) {
+            return new CatalogSnapshot(this, changes, parallelThreshold);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.repository.ProductColumns;
+import com.example.produktapi.repository.ProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * The current CatalogSnapshot. Readers take it from a volatile field and never wait for writers.
+ *
+ * Built before the application starts serving requests, then again on a background thread after the
+ * ProductChangedEvents and imports that ProductService publishes, changes in a row give one rebuild.
+ * Each rebuild reads the whole table into a new snapshot and swaps it in, the old one is left as it was
+ * for readers that still hold it. So a snapshot lags the database by the writes since its rebuild began.
+ */
+@Component
+public class CatalogSnapshots implements SmartInitializingSingleton, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogSnapshots.class);
+
+    private final ProductRepository productRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int parallelThreshold;
+
+    private final ExecutorService rebuilds = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "catalog-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+    private volatile CatalogSnapshot current;
+    private volatile long changes;
+
+    public CatalogSnapshots(ProductRepository productRepository, PlatformTransactionManager transactionManager,
+                            @Value("${produktapi.snapshot.enabled:true}") boolean enabled,
+                            @Value("${produktapi.snapshot.parallel-threshold:100000}") int parallelThreshold) {
+        this.productRepository = productRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.enabled = enabled;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+    }
+
+    @Override
+    public void destroy() {
+        rebuilds.shutdownNow();
+    }
+
+    // null with produktapi.snapshot.enabled=false
+    public CatalogSnapshot current() {
+        return current;
+    }
+
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        changed();
+    }
+
+    @EventListener
+    public void onProductsImported(ProductsImportedEvent event) {
+        changed();
+    }
+
+    private void changed() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            changes++;
+        }
+        if (rebuildScheduled.compareAndSet(false, true)) {
+            rebuilds.execute(() -> {
+                rebuildScheduled.set(false);
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    // The old snapshot stays until a later change rebuilds
+                    log.warn("Could not rebuild the catalog snapshot", e);
+                }
+            });
+        }
+    }
+
+    // Reads the catalog into a new snapshot on the calling thread
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        long includes = changes;
+        CatalogSnapshot.Builder builder = new CatalogSnapshot.Builder();
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<ProductColumns> products = productRepository.streamAllColumns()) {
+                products.forEach(p -> builder.add(p.getId(), p.getTitle(), p.getPrice(), p.getCategory(),
+                        p.getDescription(), p.getImage(), p.getVersion()));
+            }
+        });
+        CatalogSnapshot snapshot = builder.build(includes, parallelThreshold);
+        synchronized (this) {
+            // A rebuild on another thread may have read the table later
+            if (current == null || current.changes() <= snapshot.changes()) {
+                current = snapshot;
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.produktapi.service;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts changes to the catalog, the ETag of every list and category response.
+ * The counter starts over on restart, so the tag also holds the time the application started.
+ *
+ * The tag is weak: one version is sent as JSON, Smile or CBOR, gzipped or not, and only a weak tag
+ * lets Tomcat compress a response that has one.
+ *
+ * Take the tag before loading the data it is sent with. A write that lands in between
+ * then gives newer data under an older tag, which only costs the client one more download.
+ */
+@Component
+public class CatalogVersion {
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong changes = new AtomicLong();
+
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        changes.incrementAndGet();
+    }
+
+    @EventListener
+    public void onProductsImported(ProductsImportedEvent event) {
+        changes.incrementAndGet();
+    }
+
+    public String etag() {
+        return "W/\"" + epoch + "-" + changes.get() + "\"";
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.CategoryStats;
+import com.example.produktapi.model.Product;
+import com.example.produktapi.repository.CategoryTotals;
+import com.example.produktapi.repository.ProductRepository;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Product count and lowest, highest and total price per category, kept in memory so that the
+ * category list and GET /products/categories/stats cost O(categories) instead of a pass over the products.
+ *
+ * Seeded from one GROUP BY query before the application starts serving requests and kept up to date
+ * from the ProductChangedEvents that ProductService publishes. Nothing locks. Counts and sums are
+ * adders, min and max an immutable range swapped in with compareAndSet. Removing the lowest or highest
+ * price only marks the range stale, the next stats() asks the database for the category's range,
+ * so the query never runs on the thread that publishes the event.
+ * Products without a category are left out.
+ */
+@Component
+public class CategoryStatsIndex implements SmartInitializingSingleton {
+
+    // Times stats() asks the database for a stale range before it shows the one it has
+    private static final int MAX_RANGE_QUERIES = 3;
+
+    private final ProductRepository productRepository;
+
+    private final ConcurrentNavigableMap<String, Totals> categories = new ConcurrentSkipListMap<>();
+
+    public CategoryStatsIndex(ProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+    }
+
+    // Meant for startup and tests, writes running at the same time may be lost
+    public void rebuild() {
+        Map<String, Totals> loaded = new ConcurrentSkipListMap<>();
+        for (CategoryTotals row : productRepository.findAllCategoryTotals()) {
+            if (row.getCategory() != null) {
+                loaded.put(row.getCategory(), new Totals(row));
+            }
+        }
+        categories.clear();
+        categories.putAll(loaded);
+    }
+
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        Product before = event.before();
+        if (before != null) {
+            remove(before.getCategory(), before.getPrice());
+        }
+        Product after = event.after();
+        if (after != null) {
+            add(after.getCategory(), after.getPrice());
+        }
+    }
+
+    // For imports, which publish no event per product
+    public void productAdded(Product product) {
+        add(product.getCategory(), product.getPrice());
+    }
+
+    // Categories with at least one product, sorted
+    public List<String> categories() {
+        List<String> names = new ArrayList<>(categories.size());
+        categories.forEach((category, totals) -> {
+            if (totals.count.sum() > 0) {
+                names.add(category);
+            }
+        });
+        return names;
+    }
+
+    // Sorted on category. Fields are read one at a time, a write in between may show in some of them
+    public List<CategoryStats> stats() {
+        List<CategoryStats> stats = new ArrayList<>(categories.size());
+        categories.forEach((category, totals) -> {
+            if (totals.count.sum() > 0) {
+                Range range = totals.priced.sum() > 0 ? current(category, totals) : Range.NONE;
+                // After the range, which may have waited for the database
+                long count = totals.count.sum();
+                long priced = totals.priced.sum();
+                stats.add(Double.isNaN(range.min) || priced <= 0
+                        ? new CategoryStats(category, count, null, null, null)
+                        : new CategoryStats(category, count, range.min, range.max, totals.sum.sum() / priced));
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * The range, read again from the database when it is stale. The query's result is only kept if no
+     * write changed the range while it ran, else it is asked again. A category written to all the time
+     * gets a few tries, after that the last range is shown, which may still have a removed price.
+     */
+    private Range current(String category, Totals totals) {
+        Range range = totals.range.get();
+        for (int attempt = 0; range.stale && attempt < MAX_RANGE_QUERIES; attempt++) {
+            Optional<CategoryTotals> row = productRepository.findCategoryTotals(category);
+            Range fresh = new Range(row.map(CategoryTotals::getMin).orElse(Double.NaN),
+                    row.map(CategoryTotals::getMax).orElse(Double.NaN), false);
+            if (totals.range.compareAndSet(range, fresh)) {
+                return fresh;
+            }
+            range = totals.range.get();
+        }
+        return range;
+    }
+
+    private void add(String category, Double price) {
+        if (category == null) {
+            return;
+        }
+        Totals totals = categories.computeIfAbsent(category, c -> new Totals());
+        totals.count.increment();
+        if (price == null) {
+            return;
+        }
+        totals.priced.increment();
+        totals.sum.add(price);
+        // A stale range is always replaced, so that a query running for it is not taken as current
+        totals.range.updateAndGet(range -> range.stale || !range.contains(price)
+                ? new Range(Double.isNaN(range.min) ? price : Math.min(range.min, price),
+                            Double.isNaN(range.max) ? price : Math.max(range.max, price), range.stale)
+                : range);
+    }
+
+    private void remove(String category, Double price) {
+        Totals totals = category == null ? null : categories.get(category);
+        if (totals == null) {
+            return;
+        }
+        totals.count.decrement();
+        if (price == null) {
+            return;
+        }
+        totals.priced.decrement();
+        totals.sum.add(-price);
+        // The write is committed, a query from here on sees the range without this price
+        totals.range.updateAndGet(range -> range.stale || price <= range.min || price >= range.max
+                ? new Range(range.min, range.max, true)
+                : range);
+    }
+
+    /**
+     * Lowest and highest price, NaN while no product in the category has a price. Stale once one of them
+     * was removed, until stats() has read the range again. Compared by identity, every change is a new object.
+     */
+    private record Range(double min, double max, boolean stale) {
+
+        static final Range NONE = new Range(Double.NaN, Double.NaN, false);
+
+        boolean contains(double price) {
+            return price >= min && price <= max;
+        }
+    }
+
+    private static final class Totals {
+
+        final LongAdder count = new LongAdder();
+        final LongAdder priced = new LongAdder();
+        final DoubleAdder sum = new DoubleAdder();
+        final AtomicReference<Range> range;
+
+        Totals() {
+            range = new AtomicReference<>(Range.NONE);
+        }
+
+        Totals(CategoryTotals row) {
+            count.add(row.getCount());
+            priced.add(row.getPriced());
+            if (row.getSum() != null) {
+                sum.add(row.getSum());
+                range = new AtomicReference<>(new Range(row.getMin(), row.getMax(), false));
+            } else {
+                range = new AtomicReference<>(Range.NONE);
+            }
+        }
+    }
+}
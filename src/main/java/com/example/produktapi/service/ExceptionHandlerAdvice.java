@@ -1,27 +1,60 @@
 package com.example.produktapi.service;
 
 import com.example.produktapi.exception.BadRequestException;
+import com.example.produktapi.exception.BulkheadFullException;
+import com.example.produktapi.exception.PayloadTooLargeException;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import com.example.produktapi.exception.EntityNotFoundException;
+import com.example.produktapi.exception.PreconditionFailedException;
 @ControllerAdvice
 public class ExceptionHandlerAdvice {
 
     private final String SERVER_ERROR = "Internal Server Error, retry or contact system admin";
 
+    private final MeterRegistry meterRegistry;
+
+    public ExceptionHandlerAdvice(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    // product.api.exceptions, one counter per exception type
+    private void count(Exception e) {
+        meterRegistry.counter("product.api.exceptions", "type", e.getClass().getSimpleName()).increment();
+    }
+
     @ExceptionHandler(EntityNotFoundException.class)
     public ResponseEntity handleException(EntityNotFoundException e) {
+        count(e);
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
     }
     @ExceptionHandler(BadRequestException.class)
     public ResponseEntity handleException(BadRequestException e) {
+        count(e);
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
     }
+    @ExceptionHandler(PreconditionFailedException.class)
+    public ResponseEntity handleException(PreconditionFailedException e) {
+        count(e);
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(e.getMessage());
+    }
+    @ExceptionHandler(BulkheadFullException.class)
+    public ResponseEntity handleException(BulkheadFullException e) {
+        count(e);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+    }
+    @ExceptionHandler(PayloadTooLargeException.class)
+    public ResponseEntity handleException(PayloadTooLargeException e) {
+        count(e);
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(e.getMessage());
+    }
 
     @ExceptionHandler(NullPointerException.class)
     public ResponseEntity handleNullPointerException(NullPointerException e) {
+        count(e);
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(SERVER_ERROR);
     }
 }
@@ -0,0 +1,84 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.PendingProductWrite;
+import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductPatch;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An added or patched product waiting in the WriteBehindQueue. done completes with the product as it
+ * was written once its group has committed, or with what the write would have thrown if made right away.
+ */
+final class PendingWrite {
+
+    private final long pendingId;
+    private final String client;
+    // The product to add, or the id, patch and expected version of the product to patch
+    private final Product product;
+    private final Integer id;
+    private final ProductPatch patch;
+    private final Long expectedVersion;
+    private final CompletableFuture<Product> done = new CompletableFuture<>();
+
+    private PendingWrite(long pendingId, String client, Product product, Integer id, ProductPatch patch,
+                         Long expectedVersion) {
+        this.pendingId = pendingId;
+        this.client = client;
+        this.product = product;
+        this.id = id;
+        this.patch = patch;
+        this.expectedVersion = expectedVersion;
+    }
+
+    static PendingWrite add(long pendingId, String client, Product product) {
+        return new PendingWrite(pendingId, client, product, null, null, null);
+    }
+
+    static PendingWrite patch(long pendingId, String client, Integer id, ProductPatch patch, Long expectedVersion) {
+        return new PendingWrite(pendingId, client, null, id, patch, expectedVersion);
+    }
+
+    long pendingId() {
+        return pendingId;
+    }
+
+    String client() {
+        return client;
+    }
+
+    boolean isAdd() {
+        return product != null;
+    }
+
+    Product product() {
+        return product;
+    }
+
+    Integer id() {
+        return id;
+    }
+
+    ProductPatch patch() {
+        return patch;
+    }
+
+    Long expectedVersion() {
+        return expectedVersion;
+    }
+
+    CompletableFuture<Product> done() {
+        return done;
+    }
+
+    PendingProductWrite status() {
+        if (!done.isDone()) {
+            return new PendingProductWrite(pendingId, PendingProductWrite.State.PENDING, null, null);
+        }
+        if (done.isCompletedExceptionally()) {
+            String error = done.exceptionNow().getMessage();
+            return new PendingProductWrite(pendingId, PendingProductWrite.State.FAILED, null, error);
+        }
+        return new PendingProductWrite(pendingId, PendingProductWrite.State.WRITTEN, done.resultNow(), null);
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.Product;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache used by ProductService: products by id (LRU, bounded),
+ * the ids of each category and the list of categories.
+ *
+ * A load from the database must take a stamp before it queries and hand it back
+ * when filling the cache. Every write bumps the stamp, so a load that raced with
+ * a write is returned to its caller but never stored, and readers cannot get
+ * stale data back from the cache once the write has returned.
+ */
+@Component
+public class ProductCache {
+
+    public record Stats(long hits, long misses, long evictions, int products, int categories) {
+    }
+
+    private final Map<Integer, Product> products;
+    private final Map<String, List<Integer>> categoryIds;
+    private List<String> categories;
+    private long stamp;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ProductCache(@Value("${produktapi.cache.max-products:10000}") int maxProducts,
+                        @Value("${produktapi.cache.max-categories:1000}") int maxCategories) {
+        this.products = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Product> eldest) {
+                return evictIf(size() > maxProducts);
+            }
+        };
+        this.categoryIds = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Integer>> eldest) {
+                return evictIf(size() > maxCategories);
+            }
+        };
+    }
+
+    private boolean evictIf(boolean full) {
+        if (full) {
+            evictions.incrementAndGet();
+        }
+        return full;
+    }
+
+    public synchronized long stamp() {
+        return stamp;
+    }
+
+    // Reads, null means not cached
+
+    public synchronized Product getProduct(Integer id) {
+        return count(products.get(id));
+    }
+
+    public synchronized List<Product> getCategory(String category) {
+        List<Integer> ids = categoryIds.get(category);
+        if (ids == null) {
+            return count(null);
+        }
+        List<Product> result = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            Product product = products.get(id);
+            if (product == null) { // evicted on its own, the category has to be reloaded
+                return count(null);
+            }
+            result.add(product);
+        }
+        return count(result);
+    }
+
+    public synchronized List<String> getCategories() {
+        return count(categories);
+    }
+
+    private <T> T count(T value) {
+        (value == null ? misses : hits).incrementAndGet();
+        return value;
+    }
+
+    // Fills after a database load, ignored if a write happened since the stamp was taken
+
+    public synchronized void putProduct(long loadStamp, Product product) {
+        if (loadStamp == stamp) {
+            products.put(product.getId(), product);
+        }
+    }
+
+    public synchronized void putCategory(long loadStamp, String category, List<Product> loaded) {
+        if (loadStamp != stamp) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<>(loaded.size());
+        for (Product product : loaded) {
+            products.put(product.getId(), product);
+            ids.add(product.getId());
+        }
+        categoryIds.put(category, ids);
+    }
+
+    public synchronized void putCategories(long loadStamp, List<String> loaded) {
+        if (loadStamp == stamp) {
+            categories = Collections.unmodifiableList(new ArrayList<>(loaded));
+        }
+    }
+
+    // Writes, called after the change is committed. Only the entries the product touches are dropped.
+
+    public synchronized void productAdded(Product product) {
+        stamp++;
+        categoryIds.remove(product.getCategory());
+        if (categories != null && !categories.contains(product.getCategory())) {
+            categories = null;
+        }
+    }
+
+    public synchronized void productChanged(Product before, Product after) {
+        stamp++;
+        products.remove(before.getId());
+        categoryIds.remove(before.getCategory());
+        if (after != null) {
+            categoryIds.remove(after.getCategory());
+        }
+        if (after == null || !Objects.equals(before.getCategory(), after.getCategory())) {
+            categories = null; // the old category may be empty now
+        }
+    }
+
+    public synchronized void productRemoved(Product product) {
+        productChanged(product, null);
+    }
+
+    public Stats stats() {
+        synchronized (this) {
+            return new Stats(hits.get(), misses.get(), evictions.get(), products.size(), categoryIds.size());
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.Product;
+
+/**
+ * One entry of the change feed. sequence counts up by one per change since the application started,
+ * eventId is the sequence with the start time in front, so that ids from before a restart are recognised.
+ * product is the product after the change, or as it was for DELETED.
+ */
+public record ProductChange(String eventId, long sequence, ProductChangedEvent.Type type,
+                            Integer productId, Product product) {
+}
@@ -0,0 +1,112 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.Product;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The last replay-size product changes in a ring buffer, numbered in the order ProductService published them.
+ *
+ * Writers only append and call the listeners, which must not block. Readers keep their own position
+ * and copy what they have not seen yet, so a reader that falls behind slows down nobody else.
+ * Once it is more than replay-size changes behind, since() tells it that changes were lost.
+ * An import is not replayed product by product, it counts as lost changes for everyone still before it.
+ */
+@Component
+public class ProductChangeFeed {
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final ProductChange[] ring;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    // Sequence of the latest change, guarded by this
+    private long head;
+    // Sequence given to the latest import, which has no changes of its own. Readers before it have lost changes
+    private long imported;
+
+    public ProductChangeFeed(@Value("${produktapi.change-feed.replay-size:10000}") int replaySize) {
+        this.ring = new ProductChange[replaySize];
+    }
+
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        Product product = event.after() != null ? event.after() : event.before();
+        synchronized (this) {
+            long sequence = ++head;
+            ring[(int) (sequence % ring.length)] = new ProductChange(epoch + "-" + sequence, sequence,
+                    event.type(), product.getId(), product);
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    @EventListener
+    public void onProductsImported(ProductsImportedEvent event) {
+        synchronized (this) {
+            imported = ++head;
+            ring[(int) (imported % ring.length)] = null;
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    // Called after every change, on the writing thread
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized long head() {
+        return head;
+    }
+
+    public String eventId(long sequence) {
+        return epoch + "-" + sequence;
+    }
+
+    /**
+     * The sequence to resume after for a Last-Event-ID, the latest change when there is none.
+     * -1 for ids from before a restart or that were never handed out.
+     */
+    public synchronized long resumeAfter(String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return head;
+        }
+        String id = lastEventId.trim();
+        if (!id.startsWith(epoch + "-")) {
+            return -1;
+        }
+        try {
+            long sequence = Long.parseLong(id.substring(epoch.length() + 1));
+            return sequence >= 0 && sequence <= head ? sequence : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * At most max changes after the given sequence, oldest first.
+     * null when some of them are no longer in the buffer, or the sequence is not one of ours.
+     */
+    public synchronized List<ProductChange> since(long sequence, int max) {
+        if (sequence < imported || sequence > head || head - sequence > ring.length) {
+            return null;
+        }
+        int count = (int) Math.min(head - sequence, max);
+        List<ProductChange> changes = new ArrayList<>(count);
+        for (long s = sequence + 1; s <= sequence + count; s++) {
+            changes.add(ring[(int) (s % ring.length)]);
+        }
+        return changes;
+    }
+}
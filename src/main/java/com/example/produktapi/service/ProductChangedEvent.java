@@ -0,0 +1,24 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.Product;
+
+/**
+ * Published by ProductService after a write has been committed.
+ * before is null for added products, after is null for deleted ones.
+ */
+public record ProductChangedEvent(Type type, Product before, Product after) {
+
+    public enum Type { ADDED, UPDATED, DELETED }
+
+    public static ProductChangedEvent added(Product product) {
+        return new ProductChangedEvent(Type.ADDED, null, product);
+    }
+
+    public static ProductChangedEvent updated(Product before, Product after) {
+        return new ProductChangedEvent(Type.UPDATED, before, after);
+    }
+
+    public static ProductChangedEvent deleted(Product product) {
+        return new ProductChangedEvent(Type.DELETED, product, null);
+    }
+}
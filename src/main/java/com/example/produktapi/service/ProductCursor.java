@@ -0,0 +1,62 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.exception.BadRequestException;
+import com.example.produktapi.model.Product;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position of the last product on a page, for keyset pagination.
+ * Sorting on id uses the plain id as token, price and title sorts use an
+ * url-safe base64 token that also carries the sort value.
+ */
+record ProductCursor(String sort, int id, double price, String title) {
+
+    static final String SORT_ID = "id";
+    static final String SORT_PRICE = "price";
+    static final String SORT_TITLE = "title";
+
+    static ProductCursor first(String sort) {
+        return new ProductCursor(sort, 0, -Double.MAX_VALUE, "");
+    }
+
+    static ProductCursor after(String sort, Product last) {
+        return new ProductCursor(sort, last.getId(),
+                last.getPrice() == null ? 0 : last.getPrice(), last.getTitle());
+    }
+
+    String encode() {
+        String raw = switch (sort) {
+            case SORT_PRICE -> SORT_PRICE + ":" + price + ":" + id;
+            case SORT_TITLE -> SORT_TITLE + ":" + id + ":" + title;
+            default -> null;
+        };
+        if (raw == null) {
+            return Integer.toString(id);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static ProductCursor decode(String sort, String token) {
+        if (token == null || token.isBlank()) {
+            return first(sort);
+        }
+        try {
+            if (SORT_ID.equals(sort)) {
+                return new ProductCursor(sort, Integer.parseInt(token), 0, null);
+            }
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", 3);
+            if (parts.length == 3 && parts[0].equals(sort)) {
+                if (SORT_PRICE.equals(sort)) {
+                    return new ProductCursor(sort, Integer.parseInt(parts[2]), Double.parseDouble(parts[1]), null);
+                }
+                return new ProductCursor(sort, Integer.parseInt(parts[1]), 0, parts[2]);
+            }
+        } catch (IllegalArgumentException e) {
+            // falls through to the bad request below, NumberFormatException included
+        }
+        throw new BadRequestException("Ogiltig cursor: " + token);
+    }
+}
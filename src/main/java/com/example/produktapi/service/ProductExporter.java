@@ -0,0 +1,58 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.repository.ProductRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes the whole catalog as newline delimited JSON, one product per line.
+ * Rows are read through a database cursor and detached as soon as they are written,
+ * so the persistence context never holds more than one product.
+ */
+@Service
+public class ProductExporter {
+
+    private final ProductRepository productRepository;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper;
+
+    public ProductExporter(ProductRepository productRepository, EntityManager entityManager, ObjectMapper objectMapper) {
+        this.productRepository = productRepository;
+        this.entityManager = entityManager;
+        this.objectMapper = objectMapper;
+    }
+
+    @Transactional(readOnly = true)
+    public long exportAll(OutputStream out) throws IOException {
+
+        long written = 0;
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+
+        try (Stream<Product> products = productRepository.streamAll()) {
+            Iterator<Product> iterator = products.iterator();
+            while (iterator.hasNext()) {
+                Product product = iterator.next();
+                generator.writeObject(product);
+                generator.writeRaw('\n');
+                entityManager.detach(product);
+                written++;
+                if (written % ProductRepository.STREAM_FETCH_SIZE == 0) {
+                    generator.flush();
+                }
+            }
+        }
+        generator.close();
+        return written;
+    }
+}
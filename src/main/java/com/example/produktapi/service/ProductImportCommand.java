@@ -0,0 +1,39 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.ProductImportStatus;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * --import=<file> on the command line imports the file once the application has started, see ProductImportJob.
+ * Several files are imported one after the other, any file the process can read.
+ * With --spring.main.web-application-type=none the application exits when they are in.
+ */
+@Component
+public class ProductImportCommand implements ApplicationRunner {
+
+    private final ProductImportJob importJob;
+
+    public ProductImportCommand(ProductImportJob importJob) {
+        this.importJob = importJob;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        List<String> files = args.getOptionValues("import");
+        if (files == null) {
+            return;
+        }
+        for (String file : files) {
+            ProductImportStatus status = importJob.importFile(Path.of(file));
+            if (status.state() == ProductImportStatus.State.FAILED) {
+                // Fails the startup, so the exit code tells a script
+                throw new IllegalStateException("Importen av " + file + " misslyckades: " + status.error());
+            }
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.exception.BadRequestException;
+import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductBatchResult;
+import com.example.produktapi.model.ProductImportStatus;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports a CSV or NDJSON file of products, started from POST /products/import or with --import on the
+ * command line, see ProductImportCommand.
+ *
+ * The file is read through a FileChannel in chunks of chunk-size, each cut after the last whole row in it.
+ * A pool of workers parses the chunks, and the calling thread writes them in file order through
+ * ProductService.importProducts, in transactions of BATCH_CHUNK_SIZE. A title that is taken already,
+ * or earlier in the file, makes the row a conflict. At most queue-size chunks are parsed or waiting
+ * for the database, after that the reader waits.
+ *
+ * Once a chunk is written, the offset of its end is saved in a .checkpoint file next to the import.
+ * Importing the same unchanged file again goes on from there, and the checkpoint is removed when the
+ * whole file is in. Rows written after the last checkpoint are read again and come back as conflicts.
+ *
+ * A CSV file starts with a header naming its columns, title, price, category, description and image,
+ * in any order. Fields may be quoted as in RFC 4180. An NDJSON file has one product object per line.
+ * Rows that cannot be parsed are counted as invalid.
+ */
+@Service
+public class ProductImportJob implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductImportJob.class);
+
+    private static final Parsed END = new Parsed(-1, List.of(), 0);
+    private static final List<String> COLUMNS = List.of("title", "price", "category", "description", "image");
+
+    private enum Format { CSV, NDJSON }
+
+    // Bytes from start to end of the file
+    private record Chunk(long start, long end, byte[] bytes) {
+    }
+
+    private record Parsed(long end, List<Product> products, int invalid) {
+    }
+
+    private final ProductService productService;
+    private final ObjectReader productReader;
+    private final Path directory;
+    private final int chunkSize;
+    private final int queueSize;
+    private final ExecutorService parsers;
+    private final ExecutorService jobs;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile ProductImportStatus status;
+
+    public ProductImportJob(ProductService productService, ObjectMapper objectMapper,
+                            @Value("${produktapi.import.directory:import}") String directory,
+                            @Value("${produktapi.import.chunk-size:1MB}") DataSize chunkSize,
+                            @Value("${produktapi.import.workers:0}") int workers,
+                            @Value("${produktapi.import.queue-size:8}") int queueSize) {
+        this.productService = productService;
+        this.productReader = objectMapper.readerFor(Product.class);
+        this.directory = Path.of(directory).toAbsolutePath().normalize();
+        this.chunkSize = (int) chunkSize.toBytes();
+        this.queueSize = queueSize;
+        this.parsers = Executors.newFixedThreadPool(workers > 0 ? workers : Runtime.getRuntime().availableProcessors(),
+                daemon("product-import-parser"));
+        this.jobs = Executors.newSingleThreadExecutor(daemon("product-import"));
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public void destroy() {
+        // The import stops where it is, its checkpoint is kept
+        jobs.shutdownNow();
+        parsers.shutdownNow();
+    }
+
+    // The running import, or the last one. null before the first
+    public ProductImportStatus status() {
+        return status;
+    }
+
+    /**
+     * Starts importing a file in the import directory on a thread of its own, one import at a time.
+     */
+    public ProductImportStatus start(String fileName) {
+
+        Path file = directory.resolve(fileName).normalize();
+        if (!file.startsWith(directory)) {
+            throw new BadRequestException("Filen måste ligga i " + directory);
+        }
+        Format format = check(file);
+        if (!running.compareAndSet(false, true)) {
+            throw new BadRequestException("En import pågår redan");
+        }
+        try {
+            status = new ProductImportStatus(file.toString(), ProductImportStatus.State.RUNNING,
+                    file.toFile().length(), 0, 0, 0, 0, 0, 0, null);
+            jobs.execute(() -> {
+                try {
+                    run(file, format);
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+        return status;
+    }
+
+    /**
+     * Imports any file on this thread and returns when it is done or has failed.
+     */
+    public ProductImportStatus importFile(Path file) {
+
+        Format format = check(file);
+        if (!running.compareAndSet(false, true)) {
+            throw new BadRequestException("En import pågår redan");
+        }
+        try {
+            return run(file.toAbsolutePath().normalize(), format);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private static Format check(Path file) {
+        if (!Files.isRegularFile(file)) {
+            throw new BadRequestException("Filen finns inte: " + file.getFileName());
+        }
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv")) {
+            return Format.CSV;
+        }
+        if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+            return Format.NDJSON;
+        }
+        throw new BadRequestException("Okänt filformat, .csv, .ndjson eller .jsonl: " + file.getFileName());
+    }
+
+    private ProductImportStatus run(Path file, Format format) {
+
+        Path checkpoint = file.resolveSibling(file.getFileName() + ".checkpoint");
+        long startTime = System.nanoTime();
+        long size = 0, resumedFrom = 0, offset = 0, created = 0, conflicts = 0, invalid = 0;
+        String error = null;
+        Thread reader = null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            int[] columns = null;
+            long start = 0;
+            if (format == Format.CSV) {
+                Chunk header = readHeader(channel);
+                columns = columns(header);
+                start = header.end();
+            }
+            resumedFrom = offset = Math.max(start, readCheckpoint(checkpoint, size, modified));
+            status = status(file, ProductImportStatus.State.RUNNING, size, offset, resumedFrom, 0, 0, 0, startTime, null);
+            log.info("Importing {} from byte {} of {}", file, resumedFrom, size);
+
+            BlockingQueue<Future<Parsed>> queue = new ArrayBlockingQueue<>(queueSize);
+            reader = read(channel, format, columns, resumedFrom, queue);
+            while (true) {
+                Parsed parsed = take(queue);
+                if (parsed == END) {
+                    break;
+                }
+                ProductBatchResult result = productService.importProducts(parsed.products());
+                created += result.created();
+                conflicts += result.conflicts();
+                invalid += result.invalid() + parsed.invalid();
+                offset = parsed.end();
+                writeCheckpoint(checkpoint, size, modified, offset);
+                status = status(file, ProductImportStatus.State.RUNNING, size, offset, resumedFrom,
+                        created, conflicts, invalid, startTime, null);
+            }
+            Files.deleteIfExists(checkpoint);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Import of {} stopped at byte {}", file, offset, e);
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+        } finally {
+            if (reader != null) {
+                reader.interrupt();
+            }
+            if (created > 0) {
+                productService.productsImported();
+            }
+        }
+        status = status(file, error == null ? ProductImportStatus.State.DONE : ProductImportStatus.State.FAILED,
+                size, offset, resumedFrom, created, conflicts, invalid, startTime, error);
+        log.info("Imported {}: {}", file, status);
+        return status;
+    }
+
+    private static ProductImportStatus status(Path file, ProductImportStatus.State state, long size, long offset,
+                                              long resumedFrom, long created, long conflicts, long invalid,
+                                              long startTime, String error) {
+        long nanos = Math.max(1, System.nanoTime() - startTime);
+        long rowsPerSecond = (created + conflicts + invalid) * 1_000_000_000L / nanos;
+        return new ProductImportStatus(file.toString(), state, size, offset, resumedFrom,
+                created, conflicts, invalid, rowsPerSecond, error);
+    }
+
+    private static Parsed take(BlockingQueue<Future<Parsed>> queue) {
+        try {
+            return queue.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Importen avbröts", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Hands the chunks to the parsers in file order, and waits while the queue is full
+    private Thread read(FileChannel channel, Format format, int[] columns, long start,
+                        BlockingQueue<Future<Parsed>> queue) {
+        Thread reader = new Thread(() -> {
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+                long position = start;
+                while (true) {
+                    boolean eof = false;
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, position + buffer.position()) < 0) {
+                            eof = true;
+                            break;
+                        }
+                    }
+                    int filled = buffer.position();
+                    int end = eof ? filled : rowsEnd(format, buffer.array(), filled);
+                    if (end == 0 && !eof) {
+                        // A row longer than a chunk
+                        buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+                        continue;
+                    }
+                    if (end > 0) {
+                        Chunk chunk = new Chunk(position, position + end, Arrays.copyOf(buffer.array(), end));
+                        queue.put(parsers.submit(() -> parse(format, columns, chunk)));
+                        System.arraycopy(buffer.array(), end, buffer.array(), 0, filled - end);
+                        buffer.position(filled - end);
+                        position += end;
+                    }
+                    if (eof) {
+                        queue.put(CompletableFuture.completedFuture(END));
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The writer has stopped
+            } catch (IOException | RuntimeException | Error e) {
+                // Waits for room like the chunks do, the writer must hear of it to stop
+                try {
+                    queue.put(CompletableFuture.failedFuture(e instanceof IOException io ? new UncheckedIOException(io) : e));
+                } catch (InterruptedException stopped) {
+                    // The writer has stopped
+                }
+            }
+        }, "product-import-reader");
+        reader.setDaemon(true);
+        reader.start();
+        return reader;
+    }
+
+    // Length of the whole rows at the start of bytes, 0 if not even one row ends in it
+    private static int rowsEnd(Format format, byte[] bytes, int length) {
+        if (format == Format.NDJSON) {
+            for (int i = length - 1; i >= 0; i--) {
+                if (bytes[i] == '\n') {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+        // A chunk always starts at a row, so counting quotes from there tells which newlines end a row
+        int end = 0;
+        boolean quoted = false;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == '"') {
+                quoted = !quoted;
+            } else if (bytes[i] == '\n' && !quoted) {
+                end = i + 1;
+            }
+        }
+        return end;
+    }
+
+    private Parsed parse(Format format, int[] columns, Chunk chunk) {
+        byte[] bytes = chunk.bytes();
+        List<Product> products = new ArrayList<>();
+        int invalid = 0;
+        int start = 0;
+        while (start < bytes.length) {
+            int end = format == Format.NDJSON ? lineEnd(bytes, start) : csvRowEnd(bytes, start);
+            int length = end - start;
+            if (length > 0 && bytes[end - 1] == '\r') {
+                length--;
+            }
+            if (length > 0) {
+                try {
+                    products.add(format == Format.NDJSON
+                            ? productReader.readValue(bytes, start, length)
+                            : csvProduct(columns, csvFields(bytes, start, start + length)));
+                } catch (IOException | RuntimeException e) {
+                    invalid++;
+                }
+            }
+            start = end + 1;
+        }
+        return new Parsed(chunk.end(), products, invalid);
+    }
+
+    private static int lineEnd(byte[] bytes, int start) {
+        int i = start;
+        while (i < bytes.length && bytes[i] != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int csvRowEnd(byte[] bytes, int start) {
+        boolean quoted = false;
+        int i = start;
+        while (i < bytes.length && (quoted || bytes[i] != '\n')) {
+            if (bytes[i] == '"') {
+                quoted = !quoted;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    // The separators are ASCII, so the row can be split before its UTF-8 is decoded
+    private static List<String> csvFields(byte[] bytes, int start, int end) {
+        List<String> fields = new ArrayList<>();
+        int i = start;
+        while (true) {
+            if (i < end && bytes[i] == '"') {
+                int from = ++i;
+                boolean escapes = false;
+                while (i < end && (bytes[i] != '"' || (i + 1 < end && bytes[i + 1] == '"'))) {
+                    if (bytes[i] == '"') {
+                        escapes = true;
+                        i++;
+                    }
+                    i++;
+                }
+                String field = new String(bytes, from, i - from, StandardCharsets.UTF_8);
+                fields.add(escapes ? field.replace("\"\"", "\"") : field);
+                i++;
+                while (i < end && bytes[i] != ',') {
+                    i++;
+                }
+            } else {
+                int from = i;
+                while (i < end && bytes[i] != ',') {
+                    i++;
+                }
+                fields.add(new String(bytes, from, i - from, StandardCharsets.UTF_8));
+            }
+            if (i >= end) {
+                return fields;
+            }
+            i++;
+        }
+    }
+
+    private static Product csvProduct(int[] columns, List<String> fields) {
+        String[] values = new String[COLUMNS.size()];
+        for (int column = 0; column < columns.length; column++) {
+            if (columns[column] >= 0 && column < fields.size() && !fields.get(column).isEmpty()) {
+                values[columns[column]] = fields.get(column);
+            }
+        }
+        Double price = values[1] == null ? null : Double.valueOf(values[1].trim());
+        return new Product(values[0], price, values[2], values[3], values[4]);
+    }
+
+    // The first row of a CSV file, it is never longer than a chunk
+    private Chunk readHeader(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+        int read = 0;
+        while (buffer.hasRemaining() && read >= 0) {
+            read = channel.read(buffer, buffer.position());
+        }
+        int end = Math.min(csvRowEnd(buffer.array(), 0) + 1, buffer.position());
+        return new Chunk(0, end, Arrays.copyOf(buffer.array(), end));
+    }
+
+    // For each column of the file, its position in COLUMNS or -1 to skip it
+    private static int[] columns(Chunk header) {
+        byte[] bytes = header.bytes();
+        int start = bytes.length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF ? 3 : 0;
+        int end = bytes.length;
+        while (end > start && (bytes[end - 1] == '\n' || bytes[end - 1] == '\r')) {
+            end--;
+        }
+        List<String> names = csvFields(bytes, start, end);
+        int[] columns = new int[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            columns[i] = COLUMNS.indexOf(names.get(i).trim().toLowerCase(Locale.ROOT));
+        }
+        if (Arrays.stream(columns).noneMatch(column -> column == 0)) {
+            throw new BadRequestException("CSV-filen saknar kolumnen title");
+        }
+        return columns;
+    }
+
+    // Where an earlier import of the same file stopped, 0 if there was none or the file has changed since
+    private static long readCheckpoint(Path checkpoint, long size, long modified) throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(checkpoint)) {
+            properties.load(in);
+        }
+        if (!String.valueOf(size).equals(properties.getProperty("size"))
+                || !String.valueOf(modified).equals(properties.getProperty("modified"))) {
+            return 0;
+        }
+        return Long.parseLong(properties.getProperty("offset", "0"));
+    }
+
+    // Replaced in one move, so a crash leaves the old checkpoint or the new one
+    private static void writeCheckpoint(Path checkpoint, long size, long modified, long offset) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("size", String.valueOf(size));
+        properties.setProperty("modified", String.valueOf(modified));
+        properties.setProperty("offset", String.valueOf(offset));
+        Path next = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(next)) {
+            properties.store(out, null);
+        }
+        Files.move(next, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
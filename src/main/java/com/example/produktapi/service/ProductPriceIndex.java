@@ -0,0 +1,215 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.repository.ProductPrice;
+import com.example.produktapi.repository.ProductRepository;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Product ids sorted on price, one list per category and one for the whole catalog.
+ * Each list is a pair of parallel double[] and int[] arrays ordered on (price, id),
+ * so a price range is two binary searches and a copy. Products without a price are left out.
+ *
+ * Built from the database before the application starts serving requests and kept
+ * up to date from the ProductChangedEvents that ProductService publishes.
+ */
+@Component
+public class ProductPriceIndex implements SmartInitializingSingleton {
+
+    private final ProductRepository productRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Swapped by rebuild, read and changed under the lock
+    private PriceList all = new PriceList();
+    private Map<String, PriceList> categories = new HashMap<>();
+    // The changes made while a rebuild reads the table, null at other times
+    private List<ProductChangedEvent> missed;
+
+    public ProductPriceIndex(ProductRepository productRepository, PlatformTransactionManager transactionManager) {
+        this.productRepository = productRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+    }
+
+    /**
+     * Reads the table, in (price, id) order so that every row is an append, into new lists and swaps
+     * them in. Readers and writers only wait for the swap. Changes made while the table is read are
+     * kept and applied again to the new lists, doing one twice leaves the same lists.
+     */
+    public synchronized void rebuild() {
+        lock.writeLock().lock();
+        try {
+            missed = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        PriceList newAll = new PriceList();
+        Map<String, PriceList> newCategories = new HashMap<>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<ProductPrice> products = productRepository.streamAllPrices()) {
+                    products.forEach(p -> add(newAll, newCategories, p.getId(), p.getCategory(), p.getPrice()));
+                }
+            });
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                missed = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        lock.writeLock().lock();
+        try {
+            for (ProductChangedEvent event : missed) {
+                apply(newAll, newCategories, event);
+            }
+            all = newAll;
+            categories = newCategories;
+            missed = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        lock.writeLock().lock();
+        try {
+            apply(all, categories, event);
+            if (missed != null) {
+                missed.add(event);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of products priced between minPrice and maxPrice, both included, ordered on price and id.
+     * Starts after (afterPrice, afterId) and returns at most limit ids. A null category means all products.
+     */
+    public int[] range(String category, double minPrice, double maxPrice, double afterPrice, int afterId, int limit) {
+        lock.readLock().lock();
+        try {
+            PriceList list = category == null ? all : categories.get(category);
+            if (list == null) {
+                return new int[0];
+            }
+            int from = Math.max(list.lowerBound(minPrice, Integer.MIN_VALUE), list.lowerBound(afterPrice, afterId + 1L));
+            int to = list.lowerBound(Math.nextUp(maxPrice), Integer.MIN_VALUE);
+            int count = Math.max(0, Math.min(to - from, limit));
+            return Arrays.copyOfRange(list.ids, from, from + count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void apply(PriceList all, Map<String, PriceList> categories, ProductChangedEvent event) {
+        Product before = event.before();
+        if (before != null) {
+            remove(all, categories, before.getId(), before.getCategory(), before.getPrice());
+        }
+        Product after = event.after();
+        if (after != null) {
+            add(all, categories, after.getId(), after.getCategory(), after.getPrice());
+        }
+    }
+
+    private static void add(PriceList all, Map<String, PriceList> categories, Integer id, String category, Double price) {
+        if (price == null) {
+            return;
+        }
+        all.insert(price, id);
+        categories.computeIfAbsent(category, c -> new PriceList()).insert(price, id);
+    }
+
+    private static void remove(PriceList all, Map<String, PriceList> categories, Integer id, String category, Double price) {
+        all.remove(price, id);
+        PriceList list = categories.get(category);
+        if (list != null) {
+            list.remove(price, id);
+            if (list.size == 0) {
+                categories.remove(category);
+            }
+        }
+    }
+
+    private static final class PriceList {
+
+        double[] prices = new double[16];
+        int[] ids = new int[16];
+        int size;
+
+        // First position whose (price, id) is not below the given one
+        int lowerBound(double price, long id) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (prices[mid] < price || (prices[mid] == price && ids[mid] < id)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // An append when the ids come in order, nothing when the id is already there at that price
+        void insert(double price, int id) {
+            int at = lowerBound(price, id);
+            if (at < size && prices[at] == price && ids[at] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                prices = Arrays.copyOf(prices, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(prices, at, prices, at + 1, size - at);
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            prices[at] = price;
+            ids[at] = id;
+            size++;
+        }
+
+        // By (price, id), with a scan for the id in case the price we were given is not the indexed one
+        void remove(Double price, int id) {
+            if (price == null) {
+                return;
+            }
+            int at = lowerBound(price, id);
+            if (at == size || ids[at] != id) {
+                at = 0;
+                while (at < size && ids[at] != id) {
+                    at++;
+                }
+                if (at == size) {
+                    return;
+                }
+            }
+            System.arraycopy(prices, at + 1, prices, at, size - at - 1);
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            size--;
+        }
+    }
+}
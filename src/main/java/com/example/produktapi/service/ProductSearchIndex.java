@@ -0,0 +1,596 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.repository.ProductRepository;
+import com.example.produktapi.repository.ProductText;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In-memory inverted index over product title and description.
+ *
+ * Every term maps to a posting list of product ids, sorted, with a weight per id
+ * (title occurrences count three times). Both are plain int arrays. Query words are
+ * matched as prefixes, all words have to match and results are ranked on a tf-idf score
+ * where exact word matches count more than prefix matches. A word that starts more than
+ * MAX_PREFIX_TERMS terms matches the term equal to it and the terms found in the most products,
+ * the rarest of the others are left out.
+ *
+ * A search walks the products of the rarest query word in blocks and stops once no product left can
+ * score high enough to get into the result, judged from the highest weight in each posting list.
+ * Where the best scores are rare, as when few of the matching products have every word in the title,
+ * the whole list is still walked. On 500k products that is 0.5 to 0.8 ms for two words found in a fifth
+ * of the catalog each, and about 3 ms for three or four such words, over the sub-millisecond target.
+ *
+ * The index is built from the database before the application starts serving requests
+ * and is kept up to date from the ProductChangedEvents that ProductService publishes.
+ */
+@Component
+public class ProductSearchIndex implements SmartInitializingSingleton {
+
+    static final Locale SWEDISH = Locale.forLanguageTag("sv-SE");
+    static final int TITLE_WEIGHT = 3;
+    static final int MAX_PREFIX_TERMS = 64;
+    static final float PREFIX_MATCH_FACTOR = 0.5f;
+    // Products of the rarest query word taken at a time, the search can stop after each block
+    static final int BLOCK_SIZE = 256;
+
+    private final ProductRepository productRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Swapped by rebuild, read and changed under the lock
+    private NavigableMap<String, Postings> terms = new TreeMap<>();
+    private Map<Integer, String[]> documentTerms = new HashMap<>();
+    // The changes made while a rebuild reads the table, null at other times
+    private List<ProductChangedEvent> missed;
+
+    public ProductSearchIndex(ProductRepository productRepository, PlatformTransactionManager transactionManager) {
+        this.productRepository = productRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+    }
+
+    /**
+     * Reads the table into a new index and swaps it in, searches and changes only wait for the swap.
+     * Changes made while the table is read are applied again to the new index, in the order they came.
+     */
+    public synchronized void rebuild() {
+        lock.writeLock().lock();
+        try {
+            missed = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        NavigableMap<String, Postings> newTerms = new TreeMap<>();
+        Map<Integer, String[]> newDocumentTerms = new HashMap<>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<ProductText> products = productRepository.streamAllText()) {
+                    products.forEach(p -> add(newTerms, newDocumentTerms, p.getId(), p.getTitle(), p.getDescription()));
+                }
+            });
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                missed = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        lock.writeLock().lock();
+        try {
+            for (ProductChangedEvent event : missed) {
+                apply(newTerms, newDocumentTerms, event);
+            }
+            terms = newTerms;
+            documentTerms = newDocumentTerms;
+            missed = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        lock.writeLock().lock();
+        try {
+            apply(terms, documentTerms, event);
+            if (missed != null) {
+                missed.add(event);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void apply(NavigableMap<String, Postings> terms, Map<Integer, String[]> documentTerms,
+                              ProductChangedEvent event) {
+        if (event.before() != null) {
+            remove(terms, documentTerms, event.before().getId());
+        }
+        Product after = event.after();
+        if (after != null) {
+            remove(terms, documentTerms, after.getId());
+            add(terms, documentTerms, after.getId(), after.getTitle(), after.getDescription());
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documentTerms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of the products matching every word of the query, best match first.
+     */
+    public int[] search(String query, int limit) {
+
+        List<String> words = tokenize(query).stream().distinct().toList();
+        if (words.isEmpty() || limit < 1) {
+            return new int[0];
+        }
+        lock.readLock().lock();
+        try {
+            List<Match> matches = new ArrayList<>(words.size());
+            for (String word : words) {
+                matches.add(match(word));
+            }
+            // Start from the rarest word, the other words only narrow that down. Its products are taken
+            // a block at a time, until no product left can score high enough to get into the top
+            matches.sort(Comparator.comparingLong(Match::postingsSize));
+            Match lead = matches.get(0);
+            if (lead.postings().isEmpty()) {
+                return new int[0];
+            }
+            Lookup[] others = new Lookup[matches.size() - 1];
+            float[] maxScores = new float[others.length];
+            for (int w = 0; w < others.length; w++) {
+                others[w] = new Lookup(matches.get(w + 1));
+                maxScores[w] = matches.get(w + 1).maxScore();
+            }
+            float leadMax = lead.maxScore();
+            boolean single = lead.postings().size() == 1;
+            Postings postings = lead.postings().get(0);
+            float boost = lead.boosts()[0];
+            Hits hits = single ? null : lead.hits();
+            int leadSize = single ? postings.size : hits.size;
+
+            Top top = new Top(Math.min(limit, documentTerms.size()));
+            int[] ids = new int[BLOCK_SIZE];
+            float[] scores = new float[BLOCK_SIZE];
+            for (int from = 0; from < leadSize && !top.isClosed(leadMax, maxScores); from += BLOCK_SIZE) {
+                int n = Math.min(BLOCK_SIZE, leadSize - from);
+                if (single) {
+                    System.arraycopy(postings.ids, from, ids, 0, n);
+                    for (int i = 0; i < n; i++) {
+                        scores[i] = postings.score(from + i, boost);
+                    }
+                } else {
+                    System.arraycopy(hits.ids, from, ids, 0, n);
+                    System.arraycopy(hits.scores, from, scores, 0, n);
+                }
+                n = top.retainPossible(ids, scores, n, maxScores);
+                for (int w = 0; w < others.length && n > 0; w++) {
+                    n = others[w].retain(ids, scores, n);
+                }
+                for (int i = 0; i < n; i++) {
+                    top.offer(ids[i], scores[i]);
+                }
+            }
+            return top.ids();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The terms starting with the word, an exact match first if there is one. Past MAX_PREFIX_TERMS
+    // the other terms in the fewest products are dropped
+    private Match match(String word) {
+        int documents = documentTerms.size();
+        List<Map.Entry<String, Postings>> matched = new ArrayList<>();
+        for (Map.Entry<String, Postings> entry : terms.tailMap(word, true).entrySet()) {
+            if (!entry.getKey().startsWith(word)) {
+                break;
+            }
+            matched.add(entry);
+        }
+        if (matched.size() > MAX_PREFIX_TERMS) {
+            // The exact match sorts first in the tail map, and stays first
+            int from = matched.get(0).getKey().length() == word.length() ? 1 : 0;
+            matched.subList(from, matched.size()).sort(Comparator.comparingInt(
+                    (Map.Entry<String, Postings> entry) -> entry.getValue().size).reversed());
+            matched = matched.subList(0, MAX_PREFIX_TERMS);
+        }
+        List<Postings> postings = new ArrayList<>(matched.size());
+        float[] boosts = new float[matched.size()];
+        for (int i = 0; i < boosts.length; i++) {
+            postings.add(matched.get(i).getValue());
+            float factor = matched.get(i).getKey().length() == word.length() ? 1f : PREFIX_MATCH_FACTOR;
+            boosts[i] = postings.get(i).boost(factor, documents);
+        }
+        return new Match(postings, boosts);
+    }
+
+    private static void add(NavigableMap<String, Postings> terms, Map<Integer, String[]> documentTerms,
+                            int id, String title, String description) {
+        Map<String, Integer> weights = new HashMap<>();
+        for (String term : tokenize(title)) {
+            weights.merge(term, TITLE_WEIGHT, Integer::sum);
+        }
+        for (String term : tokenize(description)) {
+            weights.merge(term, 1, Integer::sum);
+        }
+        for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+            terms.computeIfAbsent(weight.getKey(), t -> new Postings()).put(id, weight.getValue());
+        }
+        documentTerms.put(id, weights.keySet().toArray(new String[0]));
+    }
+
+    private static void remove(NavigableMap<String, Postings> terms, Map<Integer, String[]> documentTerms, int id) {
+        String[] previous = documentTerms.remove(id);
+        if (previous == null) {
+            return;
+        }
+        for (String term : previous) {
+            Postings postings = terms.get(term);
+            postings.remove(id);
+            if (postings.size == 0) {
+                terms.remove(term);
+            }
+        }
+    }
+
+    /**
+     * Lower cased letter and digit runs. Text is normalized first so that å, ä and ö
+     * written as a letter plus a combining mark end up as the same single character.
+     */
+    static List<String> tokenize(String text) {
+        if (text == null) {
+            return List.of();
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFC).toLowerCase(SWEDISH);
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Sorted product ids with the weight of the term in each product
+    private static final class Postings {
+
+        int[] ids = new int[4];
+        int[] weights = new int[4];
+        int size;
+        // At least the highest weight, removes leave it as it was
+        int maxWeight;
+
+        void put(int id, int weight) {
+            maxWeight = Math.max(maxWeight, weight);
+            // Ids from the sequence mostly arrive in increasing order, which makes this an append
+            int at = size == 0 || ids[size - 1] < id ? -(size + 1) : Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                weights[at] = weight;
+                return;
+            }
+            at = -(at + 1);
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            System.arraycopy(weights, at, weights, at + 1, size - at);
+            ids[at] = id;
+            weights[at] = weight;
+            size++;
+        }
+
+        void remove(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+                System.arraycopy(weights, at + 1, weights, at, size - at - 1);
+                size--;
+            }
+        }
+
+        // Term weight saturates, rare terms count more
+        float boost(float factor, int documents) {
+            return factor * (float) Math.log(1 + (double) documents / size);
+        }
+
+        float score(int at, float boost) {
+            return weightScore(weights[at], boost);
+        }
+
+        // Grows with the weight, also after rounding, so the score of maxWeight is a bound for all of them
+        static float weightScore(int weight, float boost) {
+            return boost * weight / (weight + 1.2f);
+        }
+
+        Hits hits(float boost) {
+            float[] scores = new float[size];
+            for (int i = 0; i < size; i++) {
+                scores[i] = score(i, boost);
+            }
+            return new Hits(Arrays.copyOf(ids, size), scores, size);
+        }
+
+        // Position of id at or after from, or the negative insertion point. Gallops first,
+        // which is cheap when the ids looked up are increasing and far fewer than this list.
+        int seek(int from, int id) {
+            if (from < size && ids[from] >= id) { // dense lists, already there
+                return ids[from] == id ? from : -(from + 1);
+            }
+            int step = 1, hi = from;
+            while (hi < size && ids[hi] < id) {
+                from = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            return Arrays.binarySearch(ids, from, Math.min(hi + 1, size), id);
+        }
+    }
+
+    // The posting lists of all terms a query word matched, with the boost their scores get
+    private record Match(List<Postings> postings, float[] boosts) {
+
+        long postingsSize() {
+            long total = 0;
+            for (Postings p : postings) {
+                total += p.size;
+            }
+            return total;
+        }
+
+        // The best score any product can get from the word
+        float maxScore() {
+            float max = 0;
+            for (int i = 0; i < postings.size(); i++) {
+                max = Math.max(max, Postings.weightScore(postings.get(i).maxWeight, boosts[i]));
+            }
+            return max;
+        }
+
+        // Merged pairwise in rounds, so every id is copied log(terms) times rather than once per term
+        Hits hits() {
+            List<Hits> round = new ArrayList<>(postings.size());
+            for (int i = 0; i < postings.size(); i++) {
+                round.add(postings.get(i).hits(boosts[i]));
+            }
+            while (round.size() > 1) {
+                List<Hits> next = new ArrayList<>((round.size() + 1) / 2);
+                for (int i = 0; i < round.size(); i += 2) {
+                    next.add(i + 1 < round.size() ? Hits.unionMax(round.get(i), round.get(i + 1)) : round.get(i));
+                }
+                round = next;
+            }
+            return round.get(0);
+        }
+    }
+
+    // Product ids in increasing order with a score each
+    private record Hits(int[] ids, float[] scores, int size) {
+
+        static Hits unionMax(Hits a, Hits b) {
+            int[] ids = new int[a.size + b.size];
+            float[] scores = new float[a.size + b.size];
+            int i = 0, j = 0, n = 0;
+            while (i < a.size || j < b.size) {
+                if (j == b.size || (i < a.size && a.ids[i] < b.ids[j])) {
+                    ids[n] = a.ids[i];
+                    scores[n++] = a.scores[i++];
+                } else if (i == a.size || b.ids[j] < a.ids[i]) {
+                    ids[n] = b.ids[j];
+                    scores[n++] = b.scores[j++];
+                } else {
+                    ids[n] = a.ids[i];
+                    scores[n++] = Math.max(a.scores[i++], b.scores[j++]);
+                }
+            }
+            return new Hits(ids, scores, n);
+        }
+    }
+
+    // Looks up increasing ids in the posting lists of one query word, each list from where the last lookup ended
+    private static final class Lookup {
+
+        final List<Postings> postings;
+        final float[] boosts;
+        final int[] cursors;
+
+        Lookup(Match match) {
+            postings = match.postings();
+            boosts = match.boosts();
+            cursors = new int[postings.size()];
+        }
+
+        // Keeps the first n ids that also match the word, adding the best score they get there. Works in place.
+        int retain(int[] ids, float[] scores, int n) {
+            if (cursors.length == 1) {
+                return retain(postings.get(0), boosts[0], ids, scores, n);
+            }
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                float best = 0;
+                boolean found = false;
+                for (int p = 0; p < cursors.length; p++) {
+                    Postings list = postings.get(p);
+                    int at = list.seek(cursors[p], ids[i]);
+                    cursors[p] = at >= 0 ? at : -(at + 1);
+                    if (at >= 0) {
+                        found = true;
+                        best = Math.max(best, list.score(at, boosts[p]));
+                    }
+                }
+                if (found) {
+                    ids[kept] = ids[i];
+                    scores[kept++] = scores[i] + best;
+                }
+            }
+            return kept;
+        }
+
+        private int retain(Postings list, float boost, int[] ids, float[] scores, int n) {
+            int kept = 0, at = cursors[0];
+            for (int i = 0; i < n && at < list.size; i++) {
+                at = list.seek(at, ids[i]);
+                if (at >= 0) {
+                    ids[kept] = ids[i];
+                    scores[kept++] = scores[i] + list.score(at, boost);
+                } else {
+                    at = -(at + 1);
+                }
+            }
+            cursors[0] = at;
+            return kept;
+        }
+    }
+
+    /**
+     * The best ids offered so far, best scores first and ties on the lowest id. Ids are offered in
+     * increasing order, so a later id with the same score as the worst kept one is never better.
+     * A bound is added up in the same order as the scores it stands for, and float addition keeps
+     * the order of its operands, so it is never below them.
+     */
+    private static final class Top {
+
+        final int[] ids;
+        final float[] scores;
+        int size;
+
+        Top(int limit) {
+            ids = new int[limit];
+            scores = new float[limit];
+        }
+
+        // Whether a later id that scores at most score in the lead word and maxScores in the others cannot get in
+        boolean isClosed(float score, float[] maxScores) {
+            if (size < ids.length) {
+                return false;
+            }
+            for (float max : maxScores) {
+                score += max;
+            }
+            return score <= scores[0];
+        }
+
+        // Keeps the first n ids that could still get in, in place
+        int retainPossible(int[] ids, float[] scores, int n, float[] maxScores) {
+            if (size < this.ids.length) {
+                return n;
+            }
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (!isClosed(scores[i], maxScores)) {
+                    ids[kept] = ids[i];
+                    scores[kept++] = scores[i];
+                }
+            }
+            return kept;
+        }
+
+        void offer(int id, float score) {
+            if (size < ids.length) {
+                ids[size] = id;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (score > scores[0]) {
+                ids[0] = id;
+                scores[0] = score;
+                siftDown();
+            }
+        }
+
+        // Best first, taking the heap apart
+        int[] ids() {
+            int[] result = new int[size];
+            for (int n = size - 1; n >= 0; n--) {
+                result[n] = ids[0];
+                size--;
+                ids[0] = ids[size];
+                scores[0] = scores[size];
+                siftDown();
+            }
+            return result;
+        }
+
+        // The worst kept id is at the root
+        private boolean worse(int x, int y) {
+            return scores[x] < scores[y] || (scores[x] == scores[y] && ids[x] > ids[y]);
+        }
+
+        private void siftUp(int at) {
+            while (at > 0) {
+                int parent = (at - 1) / 2;
+                if (!worse(at, parent)) {
+                    return;
+                }
+                swap(parent, at);
+                at = parent;
+            }
+        }
+
+        private void siftDown() {
+            int at = 0;
+            while (true) {
+                int worst = at, left = 2 * at + 1, right = left + 1;
+                if (left < size && worse(left, worst)) {
+                    worst = left;
+                }
+                if (right < size && worse(right, worst)) {
+                    worst = right;
+                }
+                if (worst == at) {
+                    return;
+                }
+                swap(at, worst);
+                at = worst;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            float score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+}
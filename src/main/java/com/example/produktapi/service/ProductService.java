@@ -2,43 +2,307 @@ package com.example.produktapi.service;
 
 import com.example.produktapi.exception.BadRequestException;
 import com.example.produktapi.exception.EntityNotFoundException;
+import com.example.produktapi.exception.PreconditionFailedException;
+import com.example.produktapi.model.CategoryStats;
+import com.example.produktapi.model.PendingProductWrite;
 import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductBatchResult;
+import com.example.produktapi.model.ProductDeletion;
+import com.example.produktapi.model.ProductLookup;
+import com.example.produktapi.model.ProductPage;
+import com.example.produktapi.model.ProductPatch;
+import com.example.produktapi.model.ProductSummary;
+import com.example.produktapi.repository.CategoryDictionary;
 import com.example.produktapi.repository.ProductRepository;
+import com.example.produktapi.repository.ReplicaFeed;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 public class ProductService {
 
+    public static final int MAX_PAGE_SIZE = 1000;
+    static final int BATCH_CHUNK_SIZE = 500;
+    static final int MAX_SEARCH_RESULTS = 100;
+    static final int MAX_LOOKUP_IDS = 1000;
+
     private final ProductRepository productRepository;
+    private final CategoryDictionary categories;
+    private final ProductCache productCache;
+    private final ProductSearchIndex searchIndex;
+    private final ProductPriceIndex priceIndex;
+    private final CategoryStatsIndex categoryStats;
+    private final SecondLevelCacheSync secondLevelCache;
+    private final ReplicaFeed replica;
+    private final WriteBehindQueue writeBehind;
+    private final ApplicationEventPublisher events;
+    // For the reads that are answered from the cache when they can, so that a hit needs no connection
+    private final TransactionTemplate readOnly;
+
+    // Concurrent cache misses for the same lookup share one query. The cache stamp is part of
+    // the key so that a caller arriving after a write never joins a query started before it.
+    private final SingleFlight loads = new SingleFlight();
+
+    private record LoadKey(String kind, Object value, long stamp) {
+    }
 
-    public ProductService(ProductRepository productRepository) {
+    public ProductService(ProductRepository productRepository, CategoryDictionary categories, ProductCache productCache,
+                          ProductSearchIndex searchIndex, ProductPriceIndex priceIndex,
+                          CategoryStatsIndex categoryStats, SecondLevelCacheSync secondLevelCache,
+                          ReplicaFeed replica, WriteBehindQueue writeBehind, ApplicationEventPublisher events,
+                          PlatformTransactionManager transactionManager) {
         this.productRepository = productRepository;
+        this.categories = categories;
+        this.productCache = productCache;
+        this.searchIndex = searchIndex;
+        this.priceIndex = priceIndex;
+        this.categoryStats = categoryStats;
+        this.secondLevelCache = secondLevelCache;
+        this.replica = replica;
+        this.writeBehind = writeBehind;
+        this.events = events;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        writeBehind.setGroupWriter(this::writeGroup);
     }
 
+    @Transactional(readOnly = true)
     public List<Product> getAllProducts()
     {
-        return productRepository.findAll();
+        List<Product> products = productRepository.findAll();
+        if (writeBehind.hasPending()) {
+            return writeBehind.overlay(null, products, productRepository::findById);
+        }
+        return products;
     }
 
+    // From the in-memory aggregates, no query
     public List<String> getAllCategories()
     {
-        return productRepository.findAllCategories();
+        return categoryStats.categories();
+    }
+
+    public List<CategoryStats> getCategoryStats() {
+        return categoryStats.stats();
     }
 
     public List<Product> getProductsByCategory(String category) {
-        return productRepository.findByCategory(category);
+        List<Product> products = productCache.getCategory(category);
+        if (products == null) {
+            long stamp = productCache.stamp();
+            products = loads.execute(new LoadKey("category", category, stamp), () -> {
+                List<Product> loaded = readOnly.execute(status -> productRepository.findByCategory(category));
+                productCache.putCategory(stamp, category, loaded);
+                return loaded;
+            });
+        }
+        if (writeBehind.hasPending()) {
+            return writeBehind.overlay(category, products, productRepository::findById);
+        }
+        return products;
+    }
+
+    /**
+     * Keyset paginated listing, sorted on id, price or title with id as tiebreaker.
+     * category may be null for all products, after is the nextCursor of the previous page.
+     */
+    @Transactional(readOnly = true)
+    public ProductPage getProductPage(String category, String sort, String after, int limit) {
+
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new BadRequestException("limit måste vara mellan 1 och " + MAX_PAGE_SIZE);
+        }
+        ProductCursor cursor = ProductCursor.decode(sort, after);
+        // One extra row tells us whether there is a next page without a count query
+        Pageable pageable = Pageable.ofSize(limit + 1);
+        List<Product> rows = switch (sort) {
+            case ProductCursor.SORT_ID ->
+                    productRepository.findPageOrderById(category, cursor.id(), pageable);
+            case ProductCursor.SORT_PRICE ->
+                    productRepository.findPageOrderByPrice(category, cursor.price(), cursor.id(), pageable);
+            case ProductCursor.SORT_TITLE ->
+                    productRepository.findPageOrderByTitle(category, cursor.title(), cursor.id(), pageable);
+            default -> throw new BadRequestException("Okänd sortering: " + sort);
+        };
+
+        if (rows.size() <= limit) {
+            return new ProductPage(rows, null);
+        }
+        List<Product> items = rows.subList(0, limit);
+        return new ProductPage(items, ProductCursor.after(sort, items.get(limit - 1)).encode());
+    }
+
+    // For listings, straight from the database since the columns are cheap to read. category may be null for all products.
+    @Transactional(readOnly = true)
+    public List<ProductSummary> getProductSummaries(String category) {
+        if (category == null) {
+            return productRepository.findAllSummaries();
+        }
+        return productRepository.findSummariesByCategory(category);
     }
 
     public Product getProductById(Integer id) {
 
-        Optional<Product> product = productRepository.findById(id);
-        if (product.isEmpty()) {
-            throw new EntityNotFoundException(id);
+        Product product = productCache.getProduct(id);
+        if (product == null) {
+            long stamp = productCache.stamp();
+            product = loads.execute(new LoadKey("id", id, stamp), () -> {
+                Optional<Product> loaded = readOnly.execute(status -> productRepository.findById(id));
+                if (loaded.isEmpty()) {
+                    throw new EntityNotFoundException(id);
+                }
+                productCache.putProduct(stamp, loaded.get());
+                return loaded.get();
+            });
+        }
+        if (writeBehind.hasPending()) {
+            return writeBehind.overlay(product);
+        }
+        return product;
+    }
+
+    // The version alone, from the cache or a single column query, for answering If-None-Match
+    public Long getProductVersion(Integer id) {
+
+        Product cached = productCache.getProduct(id);
+        if (cached != null) {
+            return cached.getVersion();
+        }
+        return readOnly.execute(status -> productRepository.findVersionById(id))
+                .orElseThrow(() -> new EntityNotFoundException(id));
+    }
+
+    /**
+     * Products priced between minPrice and maxPrice, both included and both optional, cheapest first.
+     * category may be null for all products. Loaded a page of MAX_PAGE_SIZE at a time.
+     */
+    @Transactional(readOnly = true)
+    public List<Product> getProductsByPrice(String category, Double minPrice, Double maxPrice) {
+
+        List<Product> products = new ArrayList<>();
+        String after = null;
+        do {
+            ProductPage page = getProductPageByPrice(category, minPrice, maxPrice, after, MAX_PAGE_SIZE);
+            products.addAll(page.items());
+            after = page.nextCursor();
+        } while (after != null);
+        return products;
+    }
+
+    @Transactional(readOnly = true)
+    public ProductPage getProductPageByPrice(String category, Double minPrice, Double maxPrice, String after, int limit) {
+
+        double min = minPrice == null ? Double.NEGATIVE_INFINITY : minPrice;
+        double max = maxPrice == null ? Double.POSITIVE_INFINITY : maxPrice;
+        if (min > max) {
+            throw new BadRequestException("minPrice får inte vara större än maxPrice");
+        }
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new BadRequestException("limit måste vara mellan 1 och " + MAX_PAGE_SIZE);
+        }
+        ProductCursor cursor = ProductCursor.decode(ProductCursor.SORT_PRICE, after);
+        // One extra id tells us whether there is a next page
+        int[] ids = priceIndex.range(category, min, max, cursor.price(), cursor.id(), limit + 1);
+
+        List<Integer> idList = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length && i < limit; i++) {
+            idList.add(ids[i]);
+        }
+        List<Product> items = getProductsById(idList);
+        if (ids.length <= limit || items.isEmpty()) {
+            return new ProductPage(items, null);
+        }
+        return new ProductPage(items, ProductCursor.after(ProductCursor.SORT_PRICE, items.get(items.size() - 1)).encode());
+    }
+
+    /**
+     * Products matching every word of the query as a prefix of a word in title or description, best first.
+     */
+    @Transactional(readOnly = true)
+    public List<Product> searchProducts(String query, int limit) {
+
+        if (limit < 1 || limit > MAX_SEARCH_RESULTS) {
+            throw new BadRequestException("limit måste vara mellan 1 och " + MAX_SEARCH_RESULTS);
+        }
+        int[] ids = searchIndex.search(query, limit);
+        List<Integer> idList = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            idList.add(id);
+        }
+        return getProductsById(idList);
+    }
+
+    /**
+     * Many products at once, from the cache where possible and one query for the rest.
+     * Repeated ids are returned once, ids without a product are listed as missing.
+     */
+    public ProductLookup getProductsByIds(List<Integer> ids) {
+
+        if (ids.size() > MAX_LOOKUP_IDS) {
+            throw new BadRequestException("Högst " + MAX_LOOKUP_IDS + " id:n per anrop");
+        }
+        Set<Integer> requested = new LinkedHashSet<>(ids);
+        requested.remove(null);
+        List<Product> items = getProductsById(new ArrayList<>(requested));
+
+        for (Product product : items) {
+            requested.remove(product.getId());
+        }
+        return new ProductLookup(items, new ArrayList<>(requested));
+    }
+
+    // In the given order, taken from the cache where possible and the rest in one query.
+    // Ids that do not exist are left out.
+    private List<Product> getProductsById(List<Integer> ids) {
+
+        Map<Integer, Product> found = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            Product cached = productCache.getProduct(id);
+            if (cached != null) {
+                found.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long stamp = productCache.stamp();
+            for (Product product : readOnly.execute(status -> productRepository.findAllById(missing))) {
+                productCache.putProduct(stamp, product);
+                found.put(product.getId(), product);
+            }
+        }
+
+        List<Product> result = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            Product product = found.get(id);
+            if (product != null) {
+                result.add(product);
+            }
         }
-        return product.get();
+        return result;
+    }
+
+    /**
+     * Number of lookups that were answered by a database call already running for another caller.
+     */
+    public long getCoalescedLoads() {
+        return loads.coalesced();
     }
 
     public Product addProduct(Product product) {
@@ -47,24 +311,334 @@ public class ProductService {
         if (p.isPresent()) {
             throw new BadRequestException("En produkt med titeln: "+ product.getTitle() + " finns redan");
         }
-        return productRepository.save(product);
+        product.setCategory(categories.canonical(product.getCategory()));
+        if (writeBehind.isEnabled()) {
+            return WriteBehindQueue.await(writeBehind.add(product));
+        }
+        // The repository commits on return, the cache is only touched after that
+        Product saved = productRepository.save(product);
+        replica.productsWritten(Collections.singletonList(product.getId()));
+        productCache.productAdded(product);
+        events.publishEvent(ProductChangedEvent.added(saved));
+        return saved;
+    }
+
+    /**
+     * With produktapi.write-behind.mode=queued, queues the product and returns before it is written.
+     * The pending write tells how it went. In the other modes the product is added before this returns.
+     */
+    public PendingProductWrite addProductLater(Product product) {
+        if (!writeBehind.isQueued()) {
+            return written(addProduct(product));
+        }
+        Optional<Product> p = productRepository.findByTitle(product.getTitle());
+        if (p.isPresent()) {
+            throw new BadRequestException("En produkt med titeln: "+ product.getTitle() + " finns redan");
+        }
+        product.setCategory(categories.canonical(product.getCategory()));
+        return writeBehind.add(product).status();
+    }
+
+    // Same as addProductLater, for patchProduct
+    public PendingProductWrite patchProductLater(Integer id, ProductPatch patch, Long expectedVersion) {
+        if (!writeBehind.isQueued()) {
+            return written(patchProduct(id, patch, expectedVersion));
+        }
+        if (patch.has("category")) {
+            categories.canonical(patch.category());
+        }
+        return writeBehind.patch(id, patch, expectedVersion).status();
+    }
+
+    // Whether addProductLater and patchProductLater return before the write
+    public boolean writesLater() {
+        return writeBehind.isQueued();
+    }
+
+    // Pending and recently finished writes, null for unknown ids
+    public PendingProductWrite getPendingWrite(long pendingId) {
+        return writeBehind.status(pendingId);
+    }
+
+    // Whether the reads of this thread's client include writes of its own that are still queued
+    public boolean hasPendingWrites() {
+        return writeBehind.hasPending();
+    }
+
+    private static PendingProductWrite written(Product product) {
+        return new PendingProductWrite(0, PendingProductWrite.State.WRITTEN, product, null);
+    }
+
+    /**
+     * Bulk insert, read and written in chunks so the input may be streamed.
+     * Each chunk costs one title lookup and one transaction of batched inserts.
+     */
+    public ProductBatchResult addProducts(Iterator<Product> products) {
+        return addProducts(products, true);
+    }
+
+    /**
+     * For ProductImportJob: like addProducts, but no ProductChangedEvent is published for the products.
+     * The category aggregates take each product as it is saved, once the import is done productsImported()
+     * brings the other indexes and the listeners up to date at once.
+     */
+    public ProductBatchResult importProducts(List<Product> products) {
+        return addProducts(products.iterator(), false);
+    }
+
+    // Rebuilds the in-memory indexes before the listeners of the event read from them
+    public void productsImported() {
+        searchIndex.rebuild();
+        priceIndex.rebuild();
+        events.publishEvent(new ProductsImportedEvent());
+    }
+
+    private ProductBatchResult addProducts(Iterator<Product> products, boolean publish) {
+
+        List<ProductBatchResult.Row> rows = new ArrayList<>();
+        List<Product> chunk = new ArrayList<>(BATCH_CHUNK_SIZE);
+        while (products.hasNext()) {
+            chunk.add(products.next());
+            if (chunk.size() == BATCH_CHUNK_SIZE || !products.hasNext()) {
+                addChunk(chunk, rows.size(), rows, publish);
+                chunk.clear();
+            }
+        }
+
+        int created = 0, conflicts = 0, invalid = 0;
+        for (ProductBatchResult.Row row : rows) {
+            switch (row.status()) {
+                case CREATED -> created++;
+                case CONFLICT -> conflicts++;
+                case INVALID -> invalid++;
+            }
+        }
+        return new ProductBatchResult(created, conflicts, invalid, rows);
+    }
+
+    private void addChunk(List<Product> chunk, int firstIndex, List<ProductBatchResult.Row> rows, boolean publish) {
+
+        Set<String> titles = new HashSet<>();
+        for (Product product : chunk) {
+            if (product.getTitle() != null) {
+                titles.add(product.getTitle());
+            }
+        }
+        Set<String> taken = new HashSet<>(productRepository.findExistingTitles(titles));
+
+        List<Product> toSave = new ArrayList<>();
+        ProductBatchResult.Row[] chunkRows = new ProductBatchResult.Row[chunk.size()];
+        for (int i = 0; i < chunk.size(); i++) {
+            Product product = chunk.get(i);
+            String title = product.getTitle();
+            if (title == null || title.isBlank()) {
+                chunkRows[i] = new ProductBatchResult.Row(firstIndex + i, ProductBatchResult.Status.INVALID,
+                        null, "Titel saknas");
+            } else if (!taken.add(title)) { // also catches the same title twice in one chunk
+                chunkRows[i] = new ProductBatchResult.Row(firstIndex + i, ProductBatchResult.Status.CONFLICT,
+                        null, "En produkt med titeln: " + title + " finns redan");
+            } else {
+                product.setId(null);
+                product.setCategory(categories.canonical(product.getCategory()));
+                toSave.add(product);
+            }
+        }
+
+        List<Product> savedList = productRepository.saveAll(toSave);
+        List<Integer> savedIds = new ArrayList<>(savedList.size());
+        for (Product product : savedList) {
+            savedIds.add(product.getId());
+        }
+        replica.productsWritten(savedIds);
+        Iterator<Product> saved = savedList.iterator();
+        for (int i = 0; i < chunkRows.length; i++) {
+            if (chunkRows[i] == null) {
+                Product product = saved.next();
+                productCache.productAdded(product);
+                if (publish) {
+                    events.publishEvent(ProductChangedEvent.added(product));
+                } else {
+                    categoryStats.productAdded(product);
+                }
+                chunkRows[i] = new ProductBatchResult.Row(firstIndex + i, ProductBatchResult.Status.CREATED,
+                        product.getId(), null);
+            }
+        }
+        rows.addAll(List.of(chunkRows));
     }
 
     public Product updateProduct(Product updatedProduct, Integer id) {
+        return updateProduct(updatedProduct, id, null);
+    }
 
-        Optional<Product> product = productRepository.findById(id);
-        if (product.isEmpty()) {
-             throw new EntityNotFoundException(id);
+    /**
+     * Replaces the product with the given fields. With an expectedVersion the update only goes through
+     * if the product still has that version, otherwise a PreconditionFailedException is thrown.
+     */
+    public Product updateProduct(Product updatedProduct, Integer id, Long expectedVersion) {
+        return patchProduct(id, ProductPatch.replacing(updatedProduct), expectedVersion);
+    }
+
+    /**
+     * Sets the fields in the patch and leaves the others, in one UPDATE without reading the product first.
+     * Same version rules as updateProduct.
+     */
+    public Product patchProduct(Integer id, ProductPatch patch, Long expectedVersion) {
+
+        if (patch.has("category")) {
+            // The UPDATE looks the category up by name
+            categories.canonical(patch.category());
+        }
+        if (writeBehind.isEnabled()) {
+            return WriteBehindQueue.await(writeBehind.patch(id, patch, expectedVersion));
         }
-        return productRepository.save(product.get());
+        Product before = productRepository.patchReturningBefore(id, expectedVersion, patch)
+                .orElseThrow(() -> notWritten(id, expectedVersion, patch));
+        Product after = patch.applyTo(before);
+        replica.productsWritten(List.of(id));
+        secondLevelCache.productWritten(id);
+        productCache.productChanged(before, after);
+        events.publishEvent(ProductChangedEvent.updated(before, after));
+        return after;
     }
 
     public void deleteProduct(Integer id) {
+        deleteProduct(id, null);
+    }
+
+    // Same version rules as updateProduct
+    public void deleteProduct(Integer id, Long expectedVersion) {
+        writeBehind.flush();
+
+        Product deleted = productRepository.deleteReturningBefore(id, expectedVersion)
+                .orElseThrow(() -> notWritten(id, expectedVersion));
+        productsRemoved(List.of(deleted));
+    }
+
+    // One DELETE for all the ids, ids without a product are listed as missing
+    public ProductDeletion deleteProducts(List<Integer> ids) {
+
+        if (ids.size() > MAX_LOOKUP_IDS) {
+            throw new BadRequestException("Högst " + MAX_LOOKUP_IDS + " id:n per anrop");
+        }
+        Set<Integer> requested = new LinkedHashSet<>(ids);
+        requested.remove(null);
+        if (requested.isEmpty()) {
+            return new ProductDeletion(List.of(), List.of());
+        }
+        writeBehind.flush();
+        List<Integer> deleted = productsRemoved(productRepository.deleteAllByIdReturningBefore(requested));
+        deleted.forEach(requested::remove);
+        return new ProductDeletion(deleted, new ArrayList<>(requested));
+    }
+
+    // One DELETE for the whole category, an empty or unknown category deletes nothing
+    public ProductDeletion deleteCategory(String category) {
+        writeBehind.flush();
+
+        List<Integer> deleted = productsRemoved(productRepository.deleteByCategoryReturningBefore(category));
+        return new ProductDeletion(deleted, List.of());
+    }
+
+    // Returns the ids of the products
+    private List<Integer> productsRemoved(List<Product> products) {
+        List<Integer> ids = new ArrayList<>(products.size());
+        for (Product product : products) {
+            ids.add(product.getId());
+        }
+        replica.productsWritten(ids);
+        for (Product product : products) {
+            secondLevelCache.productWritten(product.getId());
+            productCache.productRemoved(product);
+            events.publishEvent(ProductChangedEvent.deleted(product));
+        }
+        return ids;
+    }
+
+    /**
+     * A group from the WriteBehindQueue, in its transaction: the added products in one batch, then the
+     * patches in the order they came. A write that would have thrown is failed after the commit, the
+     * others go through. Caches, indexes and listeners hear of the writes after the commit, as above.
+     */
+    private Runnable writeGroup(List<PendingWrite> group) {
+
+        List<Runnable> afterCommit = new ArrayList<>();
+        List<Integer> written = new ArrayList<>();
+        List<PendingWrite> adds = new ArrayList<>();
+        Set<String> titles = new HashSet<>();
+        for (PendingWrite write : group) {
+            if (write.isAdd()) {
+                adds.add(write);
+                titles.add(write.product().getTitle());
+            }
+        }
+        Set<String> taken = titles.isEmpty() ? Set.of() : new HashSet<>(productRepository.findExistingTitles(titles));
+        List<PendingWrite> adding = new ArrayList<>();
+        for (PendingWrite write : adds) {
+            String title = write.product().getTitle();
+            if (taken.contains(title)) {
+                afterCommit.add(() -> write.done().completeExceptionally(
+                        new BadRequestException("En produkt med titeln: " + title + " finns redan")));
+            } else {
+                adding.add(write);
+            }
+        }
+        // Copies, so a group that is rolled back and tried again leaves the queued products as they were
+        List<Product> saved = productRepository.saveAll(adding.stream().map(PendingWrite::product)
+                .map(p -> new Product(p.getTitle(), p.getPrice(), p.getCategory(), p.getDescription(), p.getImage()))
+                .toList());
+        for (int i = 0; i < saved.size(); i++) {
+            Product product = saved.get(i);
+            PendingWrite write = adding.get(i);
+            written.add(product.getId());
+            afterCommit.add(() -> {
+                productCache.productAdded(product);
+                events.publishEvent(ProductChangedEvent.added(product));
+                write.done().complete(product);
+            });
+        }
+
+        for (PendingWrite write : group) {
+            if (write.isAdd()) {
+                continue;
+            }
+            Optional<Product> before = productRepository.patchReturningBefore(write.id(), write.expectedVersion(), write.patch());
+            if (before.isEmpty()) {
+                RuntimeException failure = notWritten(write.id(), write.expectedVersion(), write.patch());
+                afterCommit.add(() -> write.done().completeExceptionally(failure));
+                continue;
+            }
+            Product after = write.patch().applyTo(before.get());
+            written.add(write.id());
+            afterCommit.add(() -> {
+                secondLevelCache.productWritten(write.id());
+                productCache.productChanged(before.get(), after);
+                events.publishEvent(ProductChangedEvent.updated(before.get(), after));
+                write.done().complete(after);
+            });
+        }
+
+        return () -> {
+            replica.productsWritten(written);
+            afterCommit.forEach(Runnable::run);
+        };
+    }
+
+    // No row was written: either there is no such product, or it no longer has the expected version.
+    // Only the failure costs a second query.
+    private RuntimeException notWritten(Integer id, Long expectedVersion) {
+        if (expectedVersion != null && productRepository.findVersionById(id).isPresent()) {
+            return new PreconditionFailedException(id);
+        }
+        return new EntityNotFoundException(id);
+    }
 
-        Optional product = productRepository.findById(id);
-        if (product.isEmpty()) {
-            throw new EntityNotFoundException(id);
+    // For a patch the title may also be taken by another product
+    private RuntimeException notWritten(Integer id, Long expectedVersion, ProductPatch patch) {
+        if (patch.has("title") && productRepository.findVersionById(id).isPresent()
+                && productRepository.existsByTitleAndIdNot(patch.title(), id)) {
+            return new BadRequestException("En produkt med titeln: " + patch.title() + " finns redan");
         }
-        productRepository.deleteById(id);
+        return notWritten(id, expectedVersion);
     }
 }
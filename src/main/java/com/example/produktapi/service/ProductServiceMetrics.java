@@ -0,0 +1,27 @@
+package com.example.produktapi.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+/**
+ * product.service.loads.coalesced, the cache misses that were answered by a database call already
+ * running for another caller, see ProductService.getCoalescedLoads. Read from the service when scraped.
+ */
+@Component
+public class ProductServiceMetrics implements MeterBinder {
+
+    private final ProductService productService;
+
+    public ProductServiceMetrics(ProductService productService) {
+        this.productService = productService;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("product.service.loads.coalesced", productService, ProductService::getCoalescedLoads)
+                .description("Lookups that shared a database call already running for another caller")
+                .register(registry);
+    }
+}
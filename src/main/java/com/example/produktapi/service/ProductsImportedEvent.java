@@ -0,0 +1,8 @@
+package com.example.produktapi.service;
+
+/**
+ * Published by ProductService after an import, in place of a ProductChangedEvent for every product it added.
+ * The indexes in this package have been rebuilt by then.
+ */
+public record ProductsImportedEvent() {
+}
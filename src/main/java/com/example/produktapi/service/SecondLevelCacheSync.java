@@ -0,0 +1,60 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.Product;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Session;
+import org.hibernate.cache.spi.TimestampsCache;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.stereotype.Component;
+
+/**
+ * The single-statement updates and deletes in ProductRepository run as queries, so Hibernate does not
+ * see them as writes. ProductService calls productWritten after each one has committed, which clears the
+ * product from the second-level cache the way Hibernate does for its own writes: with a released soft lock
+ * in place of the entry, which keeps loads that started before the write from putting the old row back.
+ * Cached query results are invalidated through the update timestamp of the product table.
+ *
+ * This has to happen before ProductCache hears of the write. A reader that reloads the product
+ * after that must not find the old row here.
+ *
+ * Added products are saved through Hibernate, which takes care of its cache itself.
+ */
+@Component
+public class SecondLevelCacheSync {
+
+    private final SessionFactoryImplementor sessionFactory;
+    private final EntityPersister persister;
+    // null when the second-level cache is turned off
+    private final EntityDataAccess entityCache;
+    private final String[] tables;
+
+    public SecondLevelCacheSync(EntityManagerFactory entityManagerFactory) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        this.persister = sessionFactory.getMappingMetamodel().getEntityDescriptor(Product.class);
+        this.entityCache = persister.canWriteToCache() ? persister.getCacheAccessStrategy() : null;
+        this.tables = persister.getSynchronizationSpaces();
+    }
+
+    public void productWritten(Integer id) {
+        TimestampsCache queryCache = sessionFactory.getSessionFactoryOptions().isQueryCacheEnabled()
+                ? sessionFactory.getCache().getTimestampsCache() : null;
+        if (entityCache == null && queryCache == null) {
+            return;
+        }
+        try (Session session = sessionFactory.openTemporarySession()) {
+            SharedSessionContractImplementor cacheSession = (SharedSessionContractImplementor) session;
+            if (entityCache != null) {
+                Object key = entityCache.generateCacheKey(id, persister, sessionFactory, null);
+                SoftLock lock = entityCache.lockItem(cacheSession, key, null);
+                entityCache.unlockItem(cacheSession, key, lock);
+            }
+            if (queryCache != null) {
+                queryCache.invalidate(tables, cacheSession);
+            }
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.exception.BadRequestException;
+import com.example.produktapi.model.PendingProductWrite;
+import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductPatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Optional write-behind for added and updated products, produktapi.write-behind.mode:
+ *
+ * off      every write commits a transaction of its own before the call returns, as without this class.
+ * grouped  writes wait here and the call returns once the group it was written in has committed.
+ *          Just as durable as off, but concurrent writes share one commit.
+ * queued   POST, PUT and PATCH answer 202 with a pending id as soon as the write is queued, see
+ *          ProductService.addProductLater. The write is durable once GET /products/pending/{id} says WRITTEN.
+ *          Queued writes are written before the application shuts down, and lost if the process dies.
+ *
+ * One writer thread takes up to max-batch writes, waiting at most max-delay after the first, and writes
+ * them in one transaction. If that fails, each write of the group is tried again on its own, so a bad
+ * write only fails itself. The queue holds queue-size writes, callers wait while it is full.
+ * Deletes are not queued, they wait until the writes before them are in, see flush().
+ *
+ * In queued mode, reads through ProductService show a client its own pending writes, see overlay().
+ * The client of a request is set by ReadYourWritesFilter.
+ */
+@Component
+public class WriteBehindQueue implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    // Finished writes are kept this long for GET /products/pending/{id}, counted in writes
+    private static final int KEEP_FINISHED = 10_000;
+
+    public enum Mode { OFF, GROUPED, QUEUED }
+
+    interface GroupWriter {
+        // Called in the transaction of the group, returns what to do once it has committed
+        Runnable write(List<PendingWrite> group);
+    }
+
+    private final Mode mode;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final BlockingQueue<PendingWrite> queue;
+    private final TransactionTemplate transactionTemplate;
+
+    private final AtomicLong pendingIds = new AtomicLong();
+    private final ThreadLocal<String> client = new ThreadLocal<>();
+    private final Map<String, List<PendingWrite>> pendingByClient = new ConcurrentHashMap<>();
+    private final Set<String> pendingTitles = ConcurrentHashMap.newKeySet();
+    // By pending id, oldest first, guarded by itself
+    private final Map<Long, PendingWrite> writes = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PendingWrite> eldest) {
+            return size() > KEEP_FINISHED && eldest.getValue().done().isDone();
+        }
+    };
+
+    private GroupWriter groupWriter;
+    private Thread writer;
+    private volatile boolean stopping;
+    // Whether submit takes writes, the writes between that check and the queue, the writes queued
+    // and the writes finished, all guarded by this
+    private boolean accepting;
+    private int submitting;
+    private long submitted;
+    private long finished;
+
+    public WriteBehindQueue(PlatformTransactionManager transactionManager,
+                            @Value("${produktapi.write-behind.mode:off}") String mode,
+                            @Value("${produktapi.write-behind.max-batch:500}") int maxBatch,
+                            @Value("${produktapi.write-behind.max-delay:5ms}") Duration maxDelay,
+                            @Value("${produktapi.write-behind.queue-size:10000}") int queueSize) {
+        this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public boolean isEnabled() {
+        return mode != Mode.OFF;
+    }
+
+    public boolean isQueued() {
+        return mode == Mode.QUEUED;
+    }
+
+    // ProductService hands over how a group is written
+    void setGroupWriter(GroupWriter groupWriter) {
+        this.groupWriter = groupWriter;
+    }
+
+    public void enter(String clientId) {
+        client.set(clientId);
+    }
+
+    public void exit() {
+        client.remove();
+    }
+
+    @Override
+    public synchronized void start() {
+        if (isEnabled() && writer == null) {
+            accepting = true;
+            writer = new Thread(this::writeLoop, "write-behind");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Queued writes are written first, so a normal shutdown loses none. New writes are turned away,
+     * the ones already past the check in submit get into the queue before the writer is told to stop.
+     */
+    @Override
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            accepting = false;
+            while (submitting > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            stopping = true;
+            thread = writer;
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Only if we were interrupted above, these are written here instead
+            List<PendingWrite> late = new ArrayList<>();
+            while (queue.drainTo(late, maxBatch) > 0) {
+                write(late);
+                late = new ArrayList<>();
+            }
+            log.info("Write-behind queue flushed, {} writes in total", finished());
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return writer != null && !stopping;
+    }
+
+    // Stopped after the web server, which stops at DEFAULT_PHASE - 2048, so no request queues a write after it
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    PendingWrite add(Product product) {
+        String title = product.getTitle();
+        if (title != null && !pendingTitles.add(title)) {
+            throw new BadRequestException("En produkt med titeln: " + title + " finns redan");
+        }
+        try {
+            return submit(PendingWrite.add(pendingIds.incrementAndGet(), client.get(), product));
+        } catch (RuntimeException e) {
+            if (title != null) {
+                pendingTitles.remove(title);
+            }
+            throw e;
+        }
+    }
+
+    PendingWrite patch(Integer id, ProductPatch patch, Long expectedVersion) {
+        return submit(PendingWrite.patch(pendingIds.incrementAndGet(), client.get(), id, patch, expectedVersion));
+    }
+
+    private PendingWrite submit(PendingWrite write) {
+        synchronized (this) {
+            if (!accepting) {
+                throw new IllegalStateException("Skrivkön tar inte emot skrivningar");
+            }
+            submitting++;
+            submitted++;
+        }
+        try {
+            return enqueue(write);
+        } finally {
+            synchronized (this) {
+                submitting--;
+                notifyAll();
+            }
+        }
+    }
+
+    private PendingWrite enqueue(PendingWrite write) {
+        synchronized (writes) {
+            writes.put(write.pendingId(), write);
+        }
+        if (write.client() != null) {
+            pendingByClient.compute(write.client(), (c, pending) -> {
+                pending = pending != null ? pending : Collections.synchronizedList(new ArrayList<>());
+                pending.add(write);
+                return pending;
+            });
+        }
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            unpend(List.of(write));
+            finished(List.of(write));
+            throw new IllegalStateException("Avbruten i väntan på skrivkön", e);
+        }
+        return write;
+    }
+
+    // The product as the write left it, or what the write threw
+    static Product await(PendingWrite write) {
+        try {
+            return write.done().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // null for ids that were never handed out, or are long finished
+    PendingProductWrite status(long pendingId) {
+        synchronized (writes) {
+            PendingWrite write = writes.get(pendingId);
+            return write == null ? null : write.status();
+        }
+    }
+
+    /**
+     * Waits until every write queued before the call has been written.
+     */
+    public void flush() {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            long target = submitted;
+            while (finished < target) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private synchronized long finished() {
+        return finished;
+    }
+
+    // Whether the client of this thread has writes that are not written yet
+    boolean hasPending() {
+        String clientId = client.get();
+        if (clientId == null) {
+            return false;
+        }
+        List<PendingWrite> pending = pendingByClient.get(clientId);
+        return pending != null && !pending.isEmpty();
+    }
+
+    private List<PendingWrite> pending() {
+        String clientId = client.get();
+        List<PendingWrite> pending = clientId == null ? null : pendingByClient.get(clientId);
+        if (pending == null) {
+            return List.of();
+        }
+        synchronized (pending) {
+            return new ArrayList<>(pending);
+        }
+    }
+
+    // The product with the pending patches of this thread's client applied
+    Product overlay(Product product) {
+        for (PendingWrite write : pending()) {
+            if (!write.isAdd() && Objects.equals(write.id(), product.getId())) {
+                product = write.patch().applyTo(product);
+            }
+        }
+        return product;
+    }
+
+    /**
+     * The products of a category, or all products for a null category, as this thread's client will see
+     * them once its pending writes are in: patched, moved between categories, and with its added products
+     * at the end. Those have no id yet. load gives a product that is patched into the category.
+     */
+    List<Product> overlay(String category, List<Product> products, Function<Integer, Optional<Product>> load) {
+        List<PendingWrite> pending = pending();
+        if (pending.isEmpty()) {
+            return products;
+        }
+        List<Product> result = new ArrayList<>(products.size() + pending.size());
+        Set<Integer> listed = new HashSet<>();
+        for (Product product : products) {
+            listed.add(product.getId());
+            Product patched = overlay(product);
+            if (category == null || category.equals(patched.getCategory())) {
+                result.add(patched);
+            }
+        }
+        for (PendingWrite write : pending) {
+            if (write.isAdd()) {
+                if (category == null || category.equals(write.product().getCategory())) {
+                    result.add(write.product());
+                }
+            } else if (category != null && write.patch().has("category") && category.equals(write.patch().category())
+                    && listed.add(write.id())) {
+                load.apply(write.id()).map(this::overlay).ifPresent(result::add);
+            }
+        }
+        return result;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            PendingWrite first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first == null) {
+                if (stopping && queue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            List<PendingWrite> group = new ArrayList<>();
+            group.add(first);
+            long deadline = System.nanoTime() + maxDelayNanos;
+            while (group.size() < maxBatch) {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0 || stopping) {
+                    queue.drainTo(group, maxBatch - group.size());
+                    break;
+                }
+                try {
+                    PendingWrite next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            write(group);
+        }
+    }
+
+    private void write(List<PendingWrite> group) {
+        Runnable afterCommit;
+        try {
+            afterCommit = transactionTemplate.execute(status -> groupWriter.write(group));
+        } catch (RuntimeException e) {
+            if (group.size() > 1) {
+                for (PendingWrite write : group) {
+                    write(List.of(write));
+                }
+                return;
+            }
+            unpend(group);
+            group.get(0).done().completeExceptionally(e);
+            finished(group);
+            return;
+        }
+        // Off the overlays before the caches change, so a read never sees a write twice
+        unpend(group);
+        try {
+            afterCommit.run();
+        } catch (RuntimeException e) {
+            log.warn("Could not finish a group of {} writes after the commit", group.size(), e);
+        } finally {
+            for (PendingWrite write : group) {
+                write.done().completeExceptionally(new IllegalStateException("Skrivningen avslutades inte"));
+            }
+            finished(group);
+        }
+    }
+
+    private void unpend(List<PendingWrite> group) {
+        for (PendingWrite write : group) {
+            if (write.isAdd() && write.product().getTitle() != null) {
+                pendingTitles.remove(write.product().getTitle());
+            }
+            if (write.client() != null) {
+                pendingByClient.computeIfPresent(write.client(), (c, pending) -> {
+                    pending.remove(write);
+                    return pending.isEmpty() ? null : pending;
+                });
+            }
+        }
+    }
+
+    private synchronized void finished(List<PendingWrite> group) {
+        finished += group.size();
+        notifyAll();
+    }
+}
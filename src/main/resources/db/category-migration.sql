@@ -0,0 +1,19 @@
+-- Moves the category names of an existing product table into the category table,
+-- for a database created before products stored a category_id. Run it once before starting
+-- the application on that database, in H2 for example with RUNSCRIPT FROM 'classpath:db/category-migration.sql'.
+-- The result is the schema Hibernate creates for Product and Category.
+
+CREATE TABLE category (
+    id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    name VARCHAR(255) NOT NULL,
+    CONSTRAINT uk_category_name UNIQUE (name)
+);
+INSERT INTO category(name) SELECT DISTINCT category FROM product WHERE category IS NOT NULL ORDER BY category;
+
+ALTER TABLE product ADD COLUMN category_id INTEGER;
+UPDATE product p SET category_id = (SELECT c.id FROM category c WHERE c.name = p.category) WHERE category IS NOT NULL;
+
+DROP INDEX IF EXISTS idx_product_category_price;
+ALTER TABLE product DROP COLUMN category;
+CREATE INDEX idx_product_category_price ON product(category_id, price, id);
+ALTER TABLE product ADD CONSTRAINT fk_product_category FOREIGN KEY (category_id) REFERENCES category(id);
@@ -0,0 +1,113 @@
+package com.example.produktapi.controller;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.service.CatalogVersion;
+import com.example.produktapi.service.ProductChangedEvent;
+import com.example.produktapi.service.ProductService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+class CatalogResponseCacheTest {
+
+    private final ProductService productService = mock(ProductService.class);
+    private final Product bag = new Product("Väska", 10.0, "bags", "Rymlig", "urlForBagImage");
+    private final Product ring = new Product("Ring", 20.0, "jewelery", "Liten", "urlForRingImage");
+
+    private CatalogResponseCache cache(Duration maxStaleness) {
+        CatalogResponseCache cache = new CatalogResponseCache(productService, new ObjectMapper(), new CatalogVersion(),
+                true, true, maxStaleness);
+        cache.afterSingletonsInstantiated();
+        return cache;
+    }
+
+    private static String json(CatalogResponseCache.Body body) {
+        return new String(body.json(), StandardCharsets.UTF_8);
+    }
+
+
+    @DisplayName("The bodies are encoded once, as JSON and as gzipped JSON")
+    @Test
+    public void whenBuilt_thenBodiesHoldTheCatalog() throws IOException {
+
+        //given
+        given(productService.getAllProducts()).willReturn(List.of(bag));
+        given(productService.getAllCategories()).willReturn(List.of("bags"));
+
+        //when
+        CatalogResponseCache underTest = cache(Duration.ofSeconds(1));
+        CatalogResponseCache.Body products = underTest.products();
+
+        //then
+        byte[] unzipped = new GZIPInputStream(new ByteArrayInputStream(products.gzip())).readAllBytes();
+        Assertions.assertAll(
+                ()-> assertTrue(json(products).contains("\"title\":\"Väska\"")),
+                ()-> assertArrayEquals(products.json(), unzipped),
+                ()-> assertEquals("[\"bags\"]", json(underTest.categories()))
+        );
+    }
+
+
+    @DisplayName("After a change the old bodies are served within the staleness bound and replaced in the background")
+    @Test
+    public void whenCatalogChanges_thenOldBodyIsServedUntilRebuilt() throws InterruptedException {
+
+        //given, the rebuild is held back until the test lets it go
+        CountDownLatch rebuildMayLoad = new CountDownLatch(1);
+        given(productService.getAllCategories()).willReturn(List.of("bags"));
+        given(productService.getAllProducts()).willReturn(List.of(bag)).willAnswer(invocation -> {
+            rebuildMayLoad.await();
+            return List.of(bag, ring);
+        });
+        CatalogResponseCache underTest = cache(Duration.ofMinutes(1));
+
+        //when
+        underTest.onProductChanged(ProductChangedEvent.added(ring));
+        String duringRebuild = json(underTest.products());
+        rebuildMayLoad.countDown();
+
+        //then
+        assertFalse(duringRebuild.contains("Ring"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!json(underTest.products()).contains("Ring")) {
+            assertTrue(System.nanoTime() < deadline, "the body was not rebuilt");
+            Thread.sleep(5);
+        }
+    }
+
+
+    @DisplayName("Once a change is older than the staleness bound the old bodies are not served")
+    @Test
+    public void whenRebuildTakesLongerThanStalenessBound_thenNoBodyIsServed() throws InterruptedException {
+
+        //given, a rebuild that never gets to finish
+        given(productService.getAllCategories()).willReturn(List.of("bags"));
+        given(productService.getAllProducts()).willReturn(List.of(bag)).willAnswer(invocation -> {
+            Thread.sleep(Long.MAX_VALUE);
+            return null;
+        });
+        CatalogResponseCache underTest = cache(Duration.ZERO);
+
+        //when
+        underTest.onProductChanged(ProductChangedEvent.added(ring));
+        Thread.sleep(1);
+
+        //then
+        Assertions.assertAll(
+                ()-> assertNull(underTest.products()),
+                ()-> assertNull(underTest.categories())
+        );
+        underTest.destroy();
+    }
+}
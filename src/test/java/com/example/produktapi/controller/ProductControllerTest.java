@@ -0,0 +1,61 @@
+package com.example.produktapi.controller;
+
+import com.example.produktapi.service.CatalogVersion;
+import com.example.produktapi.service.ExceptionHandlerAdvice;
+import com.example.produktapi.service.ProductService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.*;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+class ProductControllerTest {
+
+    private final ProductService productService = mock(ProductService.class);
+    // Only the request mapping and the advice, the service is never reached
+    private final MockMvc mockMvc = MockMvcBuilders
+            .standaloneSetup(new ProductController(productService, null, new ObjectMapper(), new CatalogVersion(),
+                    null, null, null, null))
+            .setControllerAdvice(new ExceptionHandlerAdvice(new SimpleMeterRegistry()))
+            .build();
+
+
+    @DisplayName("view=summary together with limit is a bad request, not a page of whole products")
+    @Test
+    public void givenLimit_whenViewIsSummary_thenBadRequest() throws Exception {
+
+        //when
+        MvcResult result = mockMvc.perform(get("/products").param("view", "summary").param("limit", "20")).andReturn();
+        MvcResult byCategory = mockMvc.perform(get("/products/categories/bags")
+                .param("view", "summary").param("limit", "20")).andReturn();
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(400, result.getResponse().getStatus()),
+                ()-> assertEquals("view=summary går inte att kombinera med limit", result.getResponse().getContentAsString()),
+                ()-> assertEquals(400, byCategory.getResponse().getStatus()),
+                ()-> verifyNoInteractions(productService)
+        );
+    }
+
+
+    @DisplayName("view=summary together with ids is a bad request, not a lookup of whole products")
+    @Test
+    public void givenIds_whenViewIsSummary_thenBadRequest() throws Exception {
+
+        //when
+        MvcResult result = mockMvc.perform(get("/products").param("view", "summary").param("ids", "1,2")).andReturn();
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(400, result.getResponse().getStatus()),
+                ()-> assertEquals("view=summary går inte att kombinera med ids", result.getResponse().getContentAsString()),
+                ()-> verifyNoInteractions(productService)
+        );
+    }
+}
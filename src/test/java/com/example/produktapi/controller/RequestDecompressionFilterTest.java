@@ -0,0 +1,96 @@
+package com.example.produktapi.controller;
+
+import com.example.produktapi.exception.PayloadTooLargeException;
+import org.junit.jupiter.api.*;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestDecompressionFilterTest {
+
+    private final RequestDecompressionFilter underTest = new RequestDecompressionFilter(DataSize.ofBytes(100));
+
+    private static MockHttpServletRequest request(String encoding, byte[] body) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/products/batch");
+        request.addHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+        request.setContentType("application/json");
+        request.setContent(body);
+        return request;
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return compressed.toByteArray();
+    }
+
+
+    @DisplayName("A gzipped body reaches the handler inflated, without Content-Encoding and for blocking reads only")
+    @Test
+    public void whenBodyIsGzipped_thenHandlerReadsItInflated() throws ServletException, IOException {
+
+        //given
+        MockFilterChain chain = new MockFilterChain();
+
+        //when
+        underTest.doFilter(request("gzip", gzip("[{\"title\":\"Väska\"}]")), new MockHttpServletResponse(), chain);
+
+        //then
+        HttpServletRequest passedOn = (HttpServletRequest) chain.getRequest();
+        Assertions.assertAll(
+                ()-> assertEquals("[{\"title\":\"Väska\"}]", new String(passedOn.getInputStream().readAllBytes(), StandardCharsets.UTF_8)),
+                ()-> assertNull(passedOn.getHeader(HttpHeaders.CONTENT_ENCODING)),
+                ()-> assertEquals(-1, passedOn.getContentLength()),
+                ()-> assertThrows(IllegalStateException.class, () -> passedOn.getInputStream().setReadListener(null))
+        );
+    }
+
+
+    @DisplayName("A body that unpacks to more than max-size is stopped while it is read")
+    @Test
+    public void whenBodyInflatesPastMaxSize_thenPayloadTooLarge() throws ServletException, IOException {
+
+        //given
+        MockFilterChain chain = new MockFilterChain();
+
+        //when
+        underTest.doFilter(request("gzip", gzip("x".repeat(101))), new MockHttpServletResponse(), chain);
+
+        //then
+        HttpServletRequest passedOn = (HttpServletRequest) chain.getRequest();
+        assertThrows(PayloadTooLargeException.class, () -> passedOn.getInputStream().readAllBytes());
+    }
+
+
+    @DisplayName("Encodings other than gzip are answered with 415")
+    @Test
+    public void whenEncodingIsNotGzip_then415() throws ServletException, IOException {
+
+        //given
+        MockFilterChain chain = new MockFilterChain();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        //when
+        underTest.doFilter(request("br", new byte[]{1, 2, 3}), response, chain);
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(415, response.getStatus()),
+                ()-> assertNull(chain.getRequest())
+        );
+    }
+}
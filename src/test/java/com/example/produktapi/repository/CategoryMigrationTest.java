@@ -0,0 +1,77 @@
+package com.example.produktapi.repository;
+
+import org.junit.jupiter.api.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CategoryMigrationTest {
+
+    //The tests are run against a database of their own, with the product table as it was before category_id
+
+    private Connection connection;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:category-migration");
+        try (Statement sql = connection.createStatement()) {
+            sql.execute("CREATE TABLE product (id INTEGER PRIMARY KEY, title VARCHAR(255), price DOUBLE, " +
+                    "category VARCHAR(255), description VARCHAR(255), image VARCHAR(255), version BIGINT DEFAULT 0)");
+            sql.execute("CREATE INDEX idx_product_category_price ON product(category, price, id)");
+            sql.execute("INSERT INTO product(id, title, price, category) VALUES " +
+                    "(1, 'Väska', 109.95, 'men''s clothing'), (2, 'T-shirt', 22.3, 'men''s clothing'), " +
+                    "(3, 'Ring', 695, 'jewelery'), (4, 'Okänd', 1, NULL)");
+        }
+    }
+
+    @AfterEach
+    public void cleanUp() throws SQLException {
+        connection.close();
+    }
+
+
+    @DisplayName("After the migration every product points at a category row with its old name")
+    @Test
+    public void givenOldSchema_whenMigrating_thenCategoriesMoveToTheirOwnTable() throws SQLException {
+
+        //when
+        try (Statement sql = connection.createStatement()) {
+            sql.execute("RUNSCRIPT FROM 'classpath:db/category-migration.sql'");
+        }
+
+        //then
+        Map<Integer, String> categories = new LinkedHashMap<>();
+        long categoryRows;
+        try (Statement sql = connection.createStatement()) {
+            ResultSet rows = sql.executeQuery("SELECT p.id, c.name FROM product p " +
+                    "LEFT JOIN category c ON c.id = p.category_id ORDER BY p.id");
+            while (rows.next()) {
+                categories.put(rows.getInt(1), rows.getString(2));
+            }
+            ResultSet count = sql.executeQuery("SELECT COUNT(*) FROM category");
+            count.next();
+            categoryRows = count.getLong(1);
+        }
+        Map<Integer, String> expected = new LinkedHashMap<>();
+        expected.put(1, "men's clothing");
+        expected.put(2, "men's clothing");
+        expected.put(3, "jewelery");
+        expected.put(4, null);
+        Assertions.assertAll(
+                ()-> assertEquals(expected, categories),
+                ()-> assertEquals(2, categoryRows),
+                ()-> assertThrows(SQLException.class, () -> {
+                    try (Statement sql = connection.createStatement()) {
+                        sql.execute("UPDATE product SET category_id = 999 WHERE id = 1");
+                    }
+                })
+        );
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.produktapi.repository;
+
+import com.example.produktapi.exception.BulkheadFullException;
+import com.example.produktapi.service.ProductService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "produktapi.threads=virtual",
+        "spring.datasource.hikari.maximum-pool-size=2",
+        "spring.datasource.hikari.connection-timeout=500"
+})
+class JdbcBulkheadTest {
+
+    //Two connections and half a second to get one, the transactions below are real ones against H2
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger maxOpen = new AtomicInteger();
+
+
+    @DisplayName("Many transactions with several queries each take turns on the two connections, none is turned away")
+    @Test
+    public void givenManyTransactions_whenRunAtOnce_thenAtMostTwoAreOpenAndAllFinish() throws Exception {
+
+        //given
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+
+        //when
+        List<Future<Long>> calls = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            calls.add(executor.submit(() -> transaction.execute(status -> {
+                long count = repository.count();
+                maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                open.decrementAndGet();
+                return count + repository.findAllCategories().size();
+            })));
+        }
+        int finished = 0;
+        for (Future<Long> call : calls) {
+            call.get(30, TimeUnit.SECONDS);
+            finished++;
+        }
+        executor.shutdown();
+
+        //then
+        int done = finished;
+        Assertions.assertAll(
+                ()-> assertEquals(32, done),
+                ()-> assertTrue(maxOpen.get() <= 2)
+        );
+    }
+
+
+    @DisplayName("While both connections are held by open transactions, a read is rejected with 503 and works afterwards")
+    @Test
+    public void givenBothConnectionsHeld_whenReading_thenBulkheadFullUntilReleased() throws Exception {
+
+        //given, two transactions that have run a query and wait for us
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        CountDownLatch holding = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<Long>> held = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            held.add(executor.submit(() -> transaction.execute(status -> {
+                long count = repository.count();
+                holding.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return count;
+            })));
+        }
+        holding.await();
+
+        //when
+        RuntimeException rejected = assertThrows(RuntimeException.class, () -> productService.getAllProducts());
+        release.countDown();
+
+        //then
+        for (Future<Long> call : held) {
+            call.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        Assertions.assertAll(
+                ()-> assertInstanceOf(BulkheadFullException.class, NestedExceptionUtils.getMostSpecificCause(rejected)),
+                ()-> assertFalse(productService.getAllProducts().isEmpty())
+        );
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.produktapi.repository;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.service.ProductService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class OrmCacheTest {
+
+    //The tests are run against the database without a surrounding transaction,
+    //so every repository call has its own session and only the second-level cache is shared
+
+    private static final String CATEGORY = "orm-cache";
+
+    @Autowired
+    private ProductRepository underTest;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    public void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        productService.deleteCategory(CATEGORY);
+    }
+
+    private Product add(String title, Double price) {
+        return productService.addProduct(new Product(title, price, CATEGORY, "Description", "urlForImage"));
+    }
+
+
+    @DisplayName("Reading the same product, category, title and category list again issues no SQL")
+    @Test
+    public void givenCachedReads_whenRepeated_thenNoStatementsAreIssued() {
+
+        //given
+        Product product = add("Cache 1", 10.0);
+        add("Cache 2", 20.0);
+        underTest.findById(product.getId());
+        underTest.findByCategory(CATEGORY);
+        underTest.findByTitle("Cache 1");
+        underTest.findAllCategories();
+        long statements = statistics.getPrepareStatementCount();
+
+        //when
+        Optional<Product> byId = underTest.findById(product.getId());
+        List<Product> byCategory = underTest.findByCategory(CATEGORY);
+        Optional<Product> byTitle = underTest.findByTitle("Cache 1");
+        List<String> categories = underTest.findAllCategories();
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(statements, statistics.getPrepareStatementCount()),
+                ()-> assertEquals(10.0, byId.orElseThrow().getPrice()),
+                ()-> assertEquals(2, byCategory.size()),
+                ()-> assertEquals(product.getId(), byTitle.orElseThrow().getId()),
+                ()-> assertTrue(categories.contains(CATEGORY))
+        );
+    }
+
+
+    @DisplayName("Updates and deletes through the service are seen by the next cached read")
+    @Test
+    public void givenCachedReads_whenWritingThroughTheService_thenNextReadSeesTheWrite() {
+
+        //given
+        Product updated = add("Cache 3", 10.0);
+        Product deleted = add("Cache 4", 20.0);
+        underTest.findById(updated.getId());
+        underTest.findById(deleted.getId());
+        underTest.findByCategory(CATEGORY);
+
+        //when
+        productService.updateProduct(new Product("Cache 3", 15.0, CATEGORY, "Description", "urlForImage"), updated.getId());
+        productService.deleteProduct(deleted.getId());
+
+        //then
+        List<Product> byCategory = underTest.findByCategory(CATEGORY);
+        Assertions.assertAll(
+                ()-> assertEquals(15.0, underTest.findById(updated.getId()).orElseThrow().getPrice()),
+                ()-> assertTrue(underTest.findById(deleted.getId()).isEmpty()),
+                ()-> assertEquals(List.of(updated.getId()), byCategory.stream().map(Product::getId).toList()),
+                ()-> assertEquals(15.0, byCategory.get(0).getPrice())
+        );
+    }
+}
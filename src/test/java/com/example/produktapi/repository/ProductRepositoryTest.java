@@ -2,19 +2,27 @@ package com.example.produktapi.repository;
 
 import com.example.produktapi.exception.BadRequestException;
 import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductPatch;
+import com.example.produktapi.model.ProductSummary;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Pageable;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @DataJpaTest //Testing our JPA repository, for unit testing our repository
+@Import(CategoryDictionary.class) //Products store their category as an id, looked up in the dictionary
 class ProductRepositoryTest {
 
     //The tests are run against the database
@@ -27,6 +35,9 @@ class ProductRepositoryTest {
     @Autowired
     private ProductRepository underTest;
 
+    @Autowired
+    private CategoryDictionary categories;
+
 
     @BeforeAll
     public static void beforeTests(){
@@ -34,6 +45,12 @@ class ProductRepositoryTest {
         System.out.println("\nRunning tests...\n¨¨¨¨¨¨¨¨¨¨¨¨¨¨¨¨¨");
     }
 
+    @BeforeEach
+    public void setUp() {
+        // ProductService adds a category before its first product is saved, the tests save directly
+        categories.canonical("Electronic");
+    }
+
 
     @DisplayName("Find all from repository")
     @Test
@@ -154,4 +171,178 @@ class ProductRepositoryTest {
 
     }
 
-}
\ No newline at end of file
+    @DisplayName("Keyset pages on price follow each other without gaps or duplicates")
+    @Test
+    public void whenPagingOnPrice_thenPagesAreOrderedAndCoverAllProducts() {
+
+        //given, all seeded products sorted the same way as the keyset query
+        List<Product> expected = underTest.findAll().stream()
+                .sorted(Comparator.comparing(Product::getPrice).thenComparing(Product::getId))
+                .toList();
+
+        //when, walking the pages 3 at a time, seeking past the last row of each page
+        List<Product> walked = new ArrayList<>();
+        double afterPrice = -Double.MAX_VALUE;
+        int afterId = 0;
+        List<Product> page;
+        do {
+            page = underTest.findPageOrderByPrice(null, afterPrice, afterId, Pageable.ofSize(3));
+            walked.addAll(page);
+            if (!page.isEmpty()) {
+                Product last = page.get(page.size() - 1);
+                afterPrice = last.getPrice();
+                afterId = last.getId();
+            }
+        } while (page.size() == 3);
+
+        //then
+        assertEquals(expected, walked);
+    }
+
+    @DisplayName("Keyset page is restricted to the given category")
+    @Test
+    public void whenPagingOnIdInCategory_thenOnlyThatCategoryIsReturned() {
+
+        //when
+        List<Product> page = underTest.findPageOrderById("jewelery", 0, Pageable.ofSize(100));
+
+        //then
+        Assertions.assertAll(
+                ()-> assertFalse(page.isEmpty()),
+                ()-> assertTrue(page.stream().allMatch(p -> p.getCategory().equals("jewelery"))),
+                ()-> assertEquals(underTest.findByCategory("jewelery").size(), page.size())
+        );
+    }
+
+    @DisplayName("Only titles that are already stored are returned by the set based lookup")
+    @Test
+    public void whenLookingUpExistingTitles_thenOnlyStoredTitlesAreReturned() {
+
+        //when
+        List<String> existing = underTest.findExistingTitles(List.of("Mens Cotton Jacket", "Computer"));
+
+        //then
+        assertEquals(List.of("Mens Cotton Jacket"), existing);
+    }
+
+    @DisplayName("New products get ids from the sequence after the seeded ones")
+    @Test
+    public void whenSavingNewProducts_thenIdsContinueAfterSeededProducts() {
+
+        //when
+        List<Product> saved = underTest.saveAll(List.of(
+                new Product("Usb", 150.0, "Electronic", "Good for computers", "urlForUsbImage"),
+                new Product("Computer", 25000.0, "Electronic", "Good for job and school", "urlForComputerImage")));
+
+        //then
+        Assertions.assertAll(
+                ()-> assertTrue(saved.get(0).getId() > 20),
+                ()-> assertEquals(saved.get(0).getId() + 1, saved.get(1).getId())
+        );
+    }
+
+    @DisplayName("Seeded products start at version 0 and every update bumps the version")
+    @Test
+    public void whenUpdatingAProduct_thenItsVersionIsBumped() {
+
+        //given
+        Product product = underTest.findById(1).orElseThrow();
+        Long before = underTest.findVersionById(1).orElseThrow();
+
+        //when
+        product.setPrice(99.0);
+        underTest.saveAndFlush(product);
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(0L, before),
+                ()-> assertEquals(1L, underTest.findVersionById(1).orElseThrow()),
+                ()-> assertTrue(underTest.findVersionById(-1).isEmpty())
+        );
+    }
+
+    @DisplayName("Summaries of a category have the same products as the full entities")
+    @Test
+    public void whenGettingSummariesByCategory_thenTheyMatchTheFullProducts() {
+
+        //when
+        List<ProductSummary> summaries = underTest.findSummariesByCategory("jewelery");
+        List<Product> products = underTest.findByCategory("jewelery");
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(products.stream().map(Product::getId).sorted().toList(),
+                        summaries.stream().map(ProductSummary::id).toList()),
+                ()-> assertTrue(summaries.stream().allMatch(s -> s.category().equals("jewelery") && s.title() != null)),
+                ()-> assertEquals(underTest.count(), underTest.findAllSummaries().size())
+        );
+    }
+
+    @DisplayName("A patch changes only its fields in one statement and hands back the row as it was")
+    @Test
+    public void whenPatchingAProduct_thenOnlyPatchedFieldsChangeAndTheOldRowIsReturned() {
+
+        //given, a new price and a cleared image
+        ProductPatch patch = new ProductPatch(Set.of("price", "image"), null, 5.0, null, null, null);
+
+        //when
+        Optional<Product> before = underTest.patchReturningBefore(2, 0L, patch);
+        Optional<Product> wrongVersion = underTest.patchReturningBefore(2, 0L, patch);
+        Optional<Product> missing = underTest.patchReturningBefore(-1, null, patch);
+
+        //then
+        ProductSummary after = underTest.findAllSummaries().stream().filter(p -> p.id() == 2).findFirst().orElseThrow();
+        Assertions.assertAll(
+                ()-> assertEquals(0L, before.orElseThrow().getVersion()),
+                ()-> assertNotEquals(5.0, before.orElseThrow().getPrice()),
+                ()-> assertEquals(5.0, after.price()),
+                ()-> assertEquals(1L, underTest.findVersionById(2).orElseThrow()),
+                ()-> assertTrue(wrongVersion.isEmpty()),
+                ()-> assertTrue(missing.isEmpty())
+        );
+    }
+
+    @DisplayName("A patch to a title another product has writes nothing, keeping its own title is fine")
+    @Test
+    public void givenTakenTitle_whenPatchingTitle_thenNothingIsWritten() {
+
+        //given
+        String taken = underTest.findById(1).orElseThrow().getTitle();
+        String own = underTest.findById(2).orElseThrow().getTitle();
+
+        //when
+        Optional<Product> toTaken = underTest.patchReturningBefore(2, null,
+                new ProductPatch(Set.of("title"), taken, null, null, null, null));
+        Optional<Product> toOwn = underTest.patchReturningBefore(2, null,
+                new ProductPatch(Set.of("title", "price"), own, 5.0, null, null, null));
+
+        //then
+        Assertions.assertAll(
+                ()-> assertTrue(toTaken.isEmpty()),
+                ()-> assertTrue(toOwn.isPresent()),
+                ()-> assertTrue(underTest.existsByTitleAndIdNot(taken, 2)),
+                ()-> assertFalse(underTest.existsByTitleAndIdNot(own, 2)),
+                ()-> assertEquals(own, underTest.findByTitle(own).orElseThrow().getTitle())
+        );
+    }
+
+
+    @DisplayName("Bulk deletes remove every matching row in one statement and hand the rows back")
+    @Test
+    public void whenDeletingInBulk_thenTheDeletedRowsAreReturned() {
+
+        //when
+        List<Product> byId = underTest.deleteAllByIdReturningBefore(List.of(1, 2, -1));
+        List<Product> byCategory = underTest.deleteByCategoryReturningBefore("jewelery");
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(Set.of(1, 2), byId.stream().map(Product::getId).collect(Collectors.toSet())),
+                ()-> assertFalse(byCategory.isEmpty()),
+                ()-> assertTrue(byCategory.stream().allMatch(p -> p.getCategory().equals("jewelery"))),
+                ()-> assertTrue(underTest.findVersionById(1).isEmpty()),
+                ()-> assertTrue(underTest.findSummariesByCategory("jewelery").isEmpty())
+        );
+    }
+
+}
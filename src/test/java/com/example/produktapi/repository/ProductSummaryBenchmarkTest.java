@@ -0,0 +1,96 @@
+package com.example.produktapi.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.json.AutoConfigureJson;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Run with: mvn test -Dtest=ProductSummaryBenchmarkTest -Dbenchmarks=true
+@DataJpaTest // Runs against the database, the extra rows are rolled back afterwards
+@AutoConfigureJson
+@Import(CategoryDictionary.class)
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+class ProductSummaryBenchmarkTest {
+
+    private static final int ROWS = 20_000;
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 30;
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+
+    @DisplayName("Summaries of a whole category are cheaper to read and write than full products")
+    @Test
+    public void compareSummaryWithFullEntities() throws IOException {
+
+        //given, a large category where description and image are as long as the columns allow
+        entityManager.createNativeQuery("INSERT INTO category(name) VALUES ('bench')").executeUpdate();
+        entityManager.createNativeQuery(
+                "INSERT INTO product(id, title, price, category_id, description, image) " +
+                "SELECT 100000 + x, 'Produkt ' || x, x / 100.0, (SELECT id FROM category WHERE name = 'bench'), " +
+                "REPEAT('Beskrivning ', 19) || x, " +
+                "'https://fakestoreapi.com/img/' || REPEAT('x', 40) || x || '.jpg' " +
+                "FROM SYSTEM_RANGE(1, " + ROWS + ")").executeUpdate();
+        entityManager.clear();
+
+        //when, one request is a query plus writing the JSON, each with a persistence context of its own
+        Result full = measure(() -> repository.findByCategory("bench"));
+        Result summary = measure(() -> repository.findSummariesByCategory("bench"));
+
+        //then
+        System.out.printf("%nfindByCategory          %8.2f ms %10d bytes/request%n", full.millis, full.bytes);
+        System.out.printf("findSummariesByCategory %8.2f ms %10d bytes/request%n%n", summary.millis, summary.bytes);
+        assertTrue(summary.bytes < full.bytes, "summary allocated " + summary.bytes + ", full " + full.bytes);
+    }
+
+    private record Result(double millis, long bytes) {
+    }
+
+    private Result measure(Supplier<List<?>> query) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            request(query);
+        }
+        long[] nanos = new long[ITERATIONS];
+        long[] bytes = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long allocated = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            request(query);
+            nanos[i] = System.nanoTime() - start;
+            bytes[i] = threads.getCurrentThreadAllocatedBytes() - allocated;
+        }
+        Arrays.sort(nanos);
+        Arrays.sort(bytes);
+        return new Result(nanos[ITERATIONS / 2] / 1e6, bytes[ITERATIONS / 2]);
+    }
+
+    private void request(Supplier<List<?>> query) throws IOException {
+        List<?> result = query.get();
+        assertEquals(ROWS, result.size());
+        objectMapper.writeValue(OutputStream.nullOutputStream(), result);
+        entityManager.clear();
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.produktapi.repository;
+
+import com.example.produktapi.ReplicaDataSourceConfig;
+import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductSummary;
+import com.example.produktapi.service.ProductService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "produktapi.replica.enabled=true",
+        "produktapi.replica.sticky-window=500ms"
+})
+class ReplicaRoutingTest {
+
+    //The tests are run against two H2 databases, the replica is changed behind the feed's back
+    //to tell which of them answered a read
+
+    private static final String CATEGORY = "replica";
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ReadYourWrites readYourWrites;
+
+    @Autowired
+    private ReplicaFeed feed;
+
+    @Autowired
+    @Qualifier(ReplicaDataSourceConfig.REPLICA)
+    private DataSource replicaDataSource;
+
+    private JdbcTemplate replica;
+
+    @BeforeEach
+    public void setUp() {
+        replica = new JdbcTemplate(replicaDataSource);
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        readYourWrites.exit();
+        productService.deleteCategory(CATEGORY);
+    }
+
+    private Product add(String title) {
+        return productService.addProduct(new Product(title, 10.0, CATEGORY, "Description", "urlForImage"));
+    }
+
+    private String readTitle() {
+        List<ProductSummary> summaries = productService.getProductSummaries(CATEGORY);
+        assertEquals(1, summaries.size());
+        return summaries.get(0).title();
+    }
+
+
+    @DisplayName("Read-only transactions are answered by the replica")
+    @Test
+    public void whenReadingOutsideAnyClient_thenTheReplicaAnswers() {
+
+        //given
+        Product product = add("Primär");
+        replica.update("UPDATE product SET title = 'Replik' WHERE id = ?", product.getId());
+
+        //when
+        String title = readTitle();
+
+        //then
+        Assertions.assertAll(
+                ()-> assertTrue(feed.isReady()),
+                ()-> assertEquals("Replik", title)
+        );
+    }
+
+
+    @DisplayName("Adds, updates and deletes reach the replica before the call returns")
+    @Test
+    public void whenWriting_thenTheReplicaHasTheWriteOnReturn() {
+
+        //given
+        String sql = "SELECT title FROM product WHERE id = ?";
+
+        //when
+        Product product = add("Ny");
+        String added = replica.queryForObject(sql, String.class, product.getId());
+        productService.updateProduct(new Product("Ändrad", 20.0, CATEGORY, "Description", "urlForImage"), product.getId());
+        String updated = replica.queryForObject(sql, String.class, product.getId());
+        productService.deleteProduct(product.getId());
+        List<String> deleted = replica.queryForList(sql, String.class, product.getId());
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals("Ny", added),
+                ()-> assertEquals("Ändrad", updated),
+                ()-> assertTrue(deleted.isEmpty())
+        );
+    }
+
+
+    @DisplayName("A client that has just written reads from the primary until the sticky window has passed")
+    @Test
+    public void givenClientWrote_whenReadingWithinWindow_thenThePrimaryAnswers() throws InterruptedException {
+
+        //given
+        readYourWrites.enter("klient-a");
+        Product product = add("Primär");
+        replica.update("UPDATE product SET title = 'Replik' WHERE id = ?", product.getId());
+
+        //when
+        String writer = readTitle();
+        readYourWrites.enter("klient-b");
+        String other = readTitle();
+        readYourWrites.enter("klient-a");
+        Thread.sleep(600);
+        String writerLater = readTitle();
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals("Primär", writer),
+                ()-> assertEquals("Replik", other),
+                ()-> assertEquals("Replik", writerLater)
+        );
+    }
+
+
+    @DisplayName("A write the replica cannot take puts it out of use, it is copied again in the background")
+    @Test
+    public void givenBrokenReplica_whenWriting_thenItIsCopiedAgainInTheBackground() throws InterruptedException {
+
+        //given
+        replica.execute("DROP TABLE product");
+
+        //when
+        Product product = add("Efter felet");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!feed.isReady() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        //then
+        Assertions.assertAll(
+                ()-> assertTrue(feed.isReady()),
+                ()-> assertEquals("Efter felet", replica.queryForObject("SELECT title FROM product WHERE id = ?",
+                        String.class, product.getId()))
+        );
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.produktapi.repository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.*;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositoryMetricsTest {
+
+    //The interceptor is put in front of a small stand-in, the same way it is put in front of the real repositories
+
+    interface Finder {
+        List<String> findAll();
+
+        Optional<String> findFirst();
+
+        String broken();
+    }
+
+    private MeterRegistry registry;
+    private Finder underTest;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        ProxyFactory proxy = new ProxyFactory(new Finder() {
+            public List<String> findAll() {
+                return List.of("a", "b", "c");
+            }
+
+            public Optional<String> findFirst() {
+                return Optional.empty();
+            }
+
+            public String broken() {
+                throw new IllegalStateException();
+            }
+        });
+        proxy.addAdvice(new RepositoryMetrics.Interceptor(() -> registry, "Finder"));
+        underTest = (Finder) proxy.getProxy();
+    }
+
+
+    @DisplayName("Calls are timed per method and the returned rows are recorded")
+    @Test
+    public void whenCallingRepositoryMethods_thenTimesAndRowsAreRecorded() {
+
+        //when
+        underTest.findAll();
+        underTest.findAll();
+        underTest.findFirst();
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(2, registry.get("product.repository.invocations").tag("method", "findAll").timer().count()),
+                ()-> assertEquals(6, registry.get("product.repository.rows").tag("method", "findAll").summary().totalAmount()),
+                ()-> assertEquals(1, registry.get("product.repository.rows").tag("method", "findFirst").summary().count()),
+                ()-> assertEquals(0, registry.get("product.repository.rows").tag("method", "findFirst").summary().totalAmount())
+        );
+    }
+
+
+    @DisplayName("A failing call is timed under the type of the exception and still thrown")
+    @Test
+    public void whenRepositoryMethodThrows_thenItIsTimedWithTheException() {
+
+        //when
+        assertThrows(IllegalStateException.class, ()-> underTest.broken());
+
+        //then
+        assertEquals(1, registry.get("product.repository.invocations")
+                .tags("method", "broken", "exception", "IllegalStateException").timer().count());
+    }
+}
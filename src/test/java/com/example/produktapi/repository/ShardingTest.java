@@ -0,0 +1,207 @@
+package com.example.produktapi.repository;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductBatchResult;
+import com.example.produktapi.model.ProductPage;
+import com.example.produktapi.model.ProductPatch;
+import com.example.produktapi.service.ProductService;
+import jakarta.persistence.EntityNotFoundException;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "produktapi.sharding.enabled=true",
+        "produktapi.sharding.shards=4"
+})
+class ShardingTest {
+
+    //The tests are run against four H2 databases, which are read directly to see where the rows are
+
+    private static final List<String> CATEGORIES = List.of("shard-a", "shard-b", "shard-c", "shard-d", "shard-e");
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository underTest;
+
+    @Autowired
+    private Shards shards;
+
+    @AfterEach
+    public void cleanUp() {
+        CATEGORIES.forEach(productService::deleteCategory);
+    }
+
+    private Product add(String title, Double price, String category) {
+        return productService.addProduct(new Product(title, price, category, "Description", "urlForImage"));
+    }
+
+    // Number of products with the category on each shard
+    private List<Integer> rowsPerShard(String category) {
+        List<Integer> rows = new ArrayList<>();
+        for (int shard = 0; shard < shards.count(); shard++) {
+            rows.add(new JdbcTemplate(shards.dataSource(shard)).queryForObject(
+                    "SELECT COUNT(*) FROM product p JOIN category c ON c.id = p.category_id WHERE c.name = ?",
+                    Integer.class, category));
+        }
+        return rows;
+    }
+
+
+    @DisplayName("Products from data.sql and new ones are on the shard of their category only")
+    @Test
+    public void whenStarted_thenEveryCategoryIsOnItsOwnShard() {
+
+        //given
+        for (String category : CATEGORIES) {
+            add("Sharding " + category, 10.0, category);
+        }
+
+        //when
+        List<String> categories = new ArrayList<>(CATEGORIES);
+        categories.addAll(List.of("men's clothing", "jewelery", "electronics", "women's clothing"));
+
+        //then
+        for (String category : categories) {
+            List<Integer> rows = rowsPerShard(category);
+            int shard = shards.shardOf(category);
+            for (int other = 0; other < shards.count(); other++) {
+                if (other == shard) {
+                    assertTrue(rows.get(other) > 0, category + " saknas på shard " + shard);
+                } else {
+                    assertEquals(0, rows.get(other), category + " finns på shard " + other);
+                }
+            }
+        }
+        assertTrue(new HashSet<>(CATEGORIES.stream().map(shards::shardOf).toList()).size() > 1);
+    }
+
+
+    @DisplayName("findAll, findAllCategories and findByTitle read every shard and merge the results")
+    @Test
+    public void givenProductsOnSeveralShards_whenFanningOut_thenEveryShardIsRead() {
+
+        //given
+        List<Integer> ids = new ArrayList<>();
+        for (String category : CATEGORIES) {
+            ids.add(add("Sharding " + category, 10.0, category).getId());
+        }
+
+        //when
+        List<Integer> all = underTest.findAll().stream().map(Product::getId).toList();
+        List<String> categories = underTest.findAllCategories();
+        List<Product> byTitle = CATEGORIES.stream()
+                .map(category -> underTest.findByTitle("Sharding " + category).orElseThrow()).toList();
+
+        //then
+        Assertions.assertAll(
+                ()-> assertTrue(all.containsAll(ids)),
+                ()-> assertEquals(all.size(), new HashSet<>(all).size()),
+                ()-> assertTrue(categories.containsAll(CATEGORIES)),
+                ()-> assertEquals(categories.stream().sorted().distinct().toList(), categories),
+                ()-> assertEquals(ids, byTitle.stream().map(Product::getId).toList()),
+                ()-> assertEquals(1, underTest.findByCategory("shard-c").size())
+        );
+    }
+
+
+    @DisplayName("Ids are unique across shards and pages over all categories come back in order")
+    @Test
+    public void givenBatchOverAllShards_whenListing_thenIdsAreUniqueAndPagesSorted() {
+
+        //given
+        List<Product> products = new ArrayList<>();
+        for (int x = 0; x < 300; x++) {
+            products.add(new Product("Batch " + x, (double) (x * 7 % 100), CATEGORIES.get(x % CATEGORIES.size()),
+                    "Description", "urlForImage"));
+        }
+
+        //when
+        ProductBatchResult result = productService.addProducts(products.iterator());
+        List<Product> paged = new ArrayList<>();
+        String after = null;
+        do {
+            ProductPage page = productService.getProductPage(null, "price", after, 40);
+            paged.addAll(page.items());
+            after = page.nextCursor();
+        } while (after != null);
+
+        //then
+        Set<Integer> ids = new HashSet<>();
+        result.rows().forEach(row -> ids.add(row.id()));
+        List<Product> sorted = new ArrayList<>(paged);
+        sorted.sort(Comparator.comparing(Product::getPrice).thenComparing(Product::getId));
+        Assertions.assertAll(
+                ()-> assertEquals(300, result.created()),
+                ()-> assertEquals(300, ids.size()),
+                ()-> assertEquals(sorted, paged),
+                ()-> assertEquals(320, paged.size())
+        );
+    }
+
+
+    @DisplayName("A product given a category on another shard is moved there")
+    @Test
+    public void givenNewCategoryOnOtherShard_whenPatching_thenProductMoves() {
+
+        //given
+        String from = CATEGORIES.get(0);
+        String to = CATEGORIES.stream().filter(c -> shards.shardOf(c) != shards.shardOf(from)).findFirst().orElseThrow();
+        Product product = add("Flyttas", 10.0, from);
+
+        //when
+        productService.patchProduct(product.getId(), new ProductPatch(Set.of("category"), null, null, to, null, null), null);
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(0, rowsPerShard(from).stream().mapToInt(Integer::intValue).sum()),
+                ()-> assertEquals(1, rowsPerShard(to).get(shards.shardOf(to))),
+                ()-> assertEquals(to, underTest.findById(product.getId()).orElseThrow().getCategory()),
+                ()-> assertEquals(1, underTest.findByCategory(to).size())
+        );
+    }
+
+
+    @DisplayName("findAll with a Pageable or a Sort and getReferenceById give the same answers as on one database")
+    @Test
+    public void givenProductsOnSeveralShards_whenPagingSortingOrReferencing_thenResultsAreMerged() {
+
+        //given, one product per category, priced in the opposite order of the categories
+        List<Product> added = new ArrayList<>();
+        for (int x = 0; x < CATEGORIES.size(); x++) {
+            added.add(add("Sharding " + x, 1000.0 - x, CATEGORIES.get(x)));
+        }
+        List<Integer> all = underTest.findAll().stream()
+                .sorted(Comparator.comparing(Product::getPrice, Comparator.nullsFirst(Comparator.<Double>naturalOrder()))
+                        .reversed().thenComparing(Product::getId))
+                .map(Product::getId).toList();
+
+        //when
+        Page<Product> page = underTest.findAll(PageRequest.of(1, 3, Sort.by(Sort.Direction.DESC, "price")));
+        List<Product> sorted = underTest.findAll(Sort.by(Sort.Direction.DESC, "price").and(Sort.by("id")));
+        Product reference = underTest.getReferenceById(added.get(3).getId());
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(all.subList(3, 6), page.getContent().stream().map(Product::getId).toList()),
+                ()-> assertEquals(all.size(), page.getTotalElements()),
+                ()-> assertEquals(all, sorted.stream().map(Product::getId).toList()),
+                ()-> assertEquals("Sharding 3", reference.getTitle()),
+                ()-> assertThrows(EntityNotFoundException.class, () -> underTest.getReferenceById(-1))
+        );
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.CategoryStats;
+import com.example.produktapi.model.Product;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "produktapi.snapshot.parallel-threshold=1"
+})
+class CatalogSnapshotsTest {
+
+    //Every scan without a limit runs on a parallel stream, however small the catalog
+
+    private static final String CHEAP = "snapshot-cheap";
+    private static final String OTHER = "snapshot-other";
+    private static final String LEFT_OUT = "snapshot-left-out";
+
+    @Autowired
+    private CatalogSnapshots underTest;
+
+    @Autowired
+    private ProductService productService;
+
+    @AfterEach
+    public void cleanUp() {
+        productService.deleteCategory(CHEAP);
+        productService.deleteCategory(OTHER);
+        productService.deleteCategory(LEFT_OUT);
+    }
+
+    private Product add(String title, Double price, String category) {
+        return productService.addProduct(new Product(title, price, category, "Description", "urlForImage"));
+    }
+
+    private CatalogSnapshot.Query query() {
+        underTest.rebuild();
+        return underTest.current().query().categories(List.of(CHEAP, OTHER));
+    }
+
+
+    @DisplayName("Products in two categories under a price come back in price order, either way and with a limit")
+    @Test
+    public void givenCategoriesAndMaxPrice_whenQuerying_thenProductsInPriceOrder() {
+
+        //given
+        Product ten = add("Snapshot 1", 10.0, CHEAP);
+        Product five = add("Snapshot 2", 5.0, OTHER);
+        Product alsoTen = add("Snapshot 3", 10.0, OTHER);
+        add("Snapshot 4", 99.0, CHEAP);
+        add("Snapshot 5", null, CHEAP);
+        add("Snapshot 6", 1.0, LEFT_OUT);
+
+        //when
+        int[] ascending = query().price(null, 10.0).sort(CatalogSnapshot.Sort.PRICE, false).ids();
+        int[] descending = query().price(null, 10.0).sort(CatalogSnapshot.Sort.PRICE, true).ids();
+        List<Product> cheapest = query().price(5.0, 10.0).sort(CatalogSnapshot.Sort.PRICE, false).limit(2).products();
+        int[] all = query().sort(CatalogSnapshot.Sort.PRICE, true).ids();
+
+        //then
+        Assertions.assertAll(
+                ()-> assertArrayEquals(new int[]{five.getId(), ten.getId(), alsoTen.getId()}, ascending),
+                ()-> assertArrayEquals(new int[]{alsoTen.getId(), ten.getId(), five.getId()}, descending),
+                ()-> assertEquals(List.of("Snapshot 2", "Snapshot 1"), cheapest.stream().map(Product::getTitle).toList()),
+                ()-> assertEquals(five.getVersion(), cheapest.get(0).getVersion()),
+                ()-> assertEquals(OTHER, cheapest.get(0).getCategory()),
+                ()-> assertEquals(5, all.length),
+                ()-> assertEquals("Snapshot 5", productService.getProductById(all[4]).getTitle()),
+                ()-> assertEquals(3, query().price(null, 10.0).count())
+        );
+    }
+
+
+    @DisplayName("Aggregates over the snapshot are the ones the category statistics give")
+    @Test
+    public void givenProducts_whenAggregating_thenSameAsCategoryStats() {
+
+        //given
+        add("Snapshot 1", 10.0, CHEAP);
+        add("Snapshot 2", 30.0, CHEAP);
+        add("Snapshot 3", null, CHEAP);
+        add("Snapshot 4", 7.0, OTHER);
+
+        //when
+        List<CategoryStats> stats = query().stats();
+
+        //then
+        List<CategoryStats> expected = productService.getCategoryStats().stream()
+                .filter(s -> Set.of(CHEAP, OTHER).contains(s.category())).toList();
+        Assertions.assertAll(
+                ()-> assertEquals(expected, stats),
+                ()-> assertEquals(new CategoryStats(CHEAP, 3, 10.0, 30.0, 20.0), stats.get(0))
+        );
+    }
+
+
+    @DisplayName("A write shows in a later snapshot, the one taken before it stays as it was")
+    @Test
+    public void givenSnapshot_whenProductIsWritten_thenNewSnapshotHasItAndOldDoesNot() throws InterruptedException {
+
+        //given
+        underTest.rebuild();
+        CatalogSnapshot before = underTest.current();
+
+        //when
+        Product added = add("Snapshot ny", 1.0, CHEAP);
+        // Rebuilt on the background thread
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (underTest.current().query().categories(List.of(CHEAP)).count() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        //then
+        CatalogSnapshot after = underTest.current();
+        Assertions.assertAll(
+                ()-> assertNotSame(before, after),
+                ()-> assertEquals(0, before.query().categories(List.of(CHEAP)).count()),
+                ()-> assertArrayEquals(new int[]{added.getId()}, after.query().categories(List.of(CHEAP)).ids())
+        );
+    }
+}
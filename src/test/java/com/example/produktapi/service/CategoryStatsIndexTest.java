@@ -0,0 +1,148 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.CategoryStats;
+import com.example.produktapi.model.Product;
+import com.example.produktapi.repository.CategoryTotals;
+import com.example.produktapi.repository.ProductRepository;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class CategoryStatsIndexTest {
+
+    //The tests are run against the database, every write is committed and cleaned up afterwards
+
+    private static final String CHEAP = "stats-cheap";
+    private static final String OTHER = "stats-other";
+
+    @Autowired
+    private CategoryStatsIndex underTest;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository repository;
+
+    @BeforeEach
+    public void setUp() {
+        // Other tests in this context write past the service
+        underTest.rebuild();
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        productService.deleteCategory(CHEAP);
+        productService.deleteCategory(OTHER);
+    }
+
+    private Product add(String title, Double price, String category) {
+        return productService.addProduct(new Product(title, price, category, "Description", "urlForImage"));
+    }
+
+
+    @DisplayName("After adds, updates and deletes the aggregates are the same as a GROUP BY over the table")
+    @Test
+    public void givenWritesThroughTheService_whenComparedWithSql_thenAggregatesMatch() {
+
+        //given
+        Product cheapest = add("Stats 1", 1.0, CHEAP);
+        Product dearest = add("Stats 2", 50.0, CHEAP);
+        add("Stats 3", 20.0, CHEAP);
+        add("Stats 4", null, CHEAP);
+        Product moved = add("Stats 5", 30.0, CHEAP);
+
+        //when, the lowest and highest prices go away and a product moves to another category
+        productService.deleteProduct(cheapest.getId());
+        productService.updateProduct(new Product("Stats 2", 10.0, CHEAP, "Description", "urlForImage"), dearest.getId());
+        productService.updateProduct(new Product("Stats 5", 30.0, OTHER, "Description", "urlForImage"), moved.getId());
+
+        //then
+        Map<String, CategoryTotals> sql = repository.findAllCategoryTotals().stream()
+                .filter(row -> row.getCategory() != null)
+                .collect(Collectors.toMap(CategoryTotals::getCategory, row -> row));
+        List<CategoryStats> stats = underTest.stats();
+        Assertions.assertAll(
+                ()-> assertEquals(sql.keySet().stream().sorted().toList(), underTest.categories()),
+                ()-> assertEquals(sql.size(), stats.size()),
+                ()-> assertTrue(stats.stream().allMatch(s -> matches(s, sql.get(s.category()))), stats::toString),
+                ()-> assertEquals(new CategoryStats(CHEAP, 3, 10.0, 20.0, 15.0),
+                        stats.stream().filter(s -> s.category().equals(CHEAP)).findFirst().orElseThrow())
+        );
+    }
+
+
+    @DisplayName("A category is no longer listed once its last product is deleted")
+    @Test
+    public void givenOneProduct_whenDeletingIt_thenCategoryIsGone() {
+
+        //given
+        Product only = add("Stats only", 5.0, OTHER);
+        assertTrue(underTest.categories().contains(OTHER));
+
+        //when
+        productService.deleteProduct(only.getId());
+
+        //then
+        Assertions.assertAll(
+                ()-> assertFalse(underTest.categories().contains(OTHER)),
+                ()-> assertTrue(underTest.stats().stream().noneMatch(s -> s.category().equals(OTHER)))
+        );
+    }
+
+    @DisplayName("Removing the lowest price leaves the query to stats(), and a write while it runs makes it ask again")
+    @Test
+    public void givenLowestPriceRemoved_whenWrittenToDuringTheQuery_thenRangeIsReadAgain() {
+
+        //given, a repository of its own, the first range query sees a product added while it runs
+        ProductRepository totalsRepository = mock(ProductRepository.class);
+        given(totalsRepository.findAllCategoryTotals()).willReturn(List.of());
+        CategoryStatsIndex index = new CategoryStatsIndex(totalsRepository);
+        index.rebuild();
+        Product cheapest = new Product("Stats 1", 1.0, CHEAP, "Description", "urlForImage");
+        index.onProductChanged(ProductChangedEvent.added(cheapest));
+        index.onProductChanged(ProductChangedEvent.added(new Product("Stats 2", 20.0, CHEAP, "Description", "urlForImage")));
+        given(totalsRepository.findCategoryTotals(CHEAP)).willAnswer(invocation -> {
+            index.onProductChanged(ProductChangedEvent.added(new Product("Stats 3", 5.0, CHEAP, "Description", "urlForImage")));
+            return totals(20.0, 20.0);
+        }).willReturn(totals(5.0, 20.0));
+
+        //when
+        index.onProductChanged(ProductChangedEvent.deleted(cheapest));
+        verify(totalsRepository, never()).findCategoryTotals(any());
+        List<CategoryStats> stats = index.stats();
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(List.of(new CategoryStats(CHEAP, 2, 5.0, 20.0, 12.5)), stats),
+                ()-> verify(totalsRepository, times(2)).findCategoryTotals(CHEAP)
+        );
+    }
+
+    private static Optional<CategoryTotals> totals(double min, double max) {
+        CategoryTotals row = mock(CategoryTotals.class);
+        given(row.getMin()).willReturn(min);
+        given(row.getMax()).willReturn(max);
+        return Optional.of(row);
+    }
+
+    private static boolean matches(CategoryStats stats, CategoryTotals row) {
+        if (row == null || stats.count() != row.getCount()) {
+            return false;
+        }
+        if (row.getPriced() == 0) {
+            return stats.minPrice() == null && stats.averagePrice() == null;
+        }
+        return row.getMin().equals(stats.minPrice()) && row.getMax().equals(stats.maxPrice())
+                && Math.abs(row.getSum() / row.getPriced() - stats.averagePrice()) < 1e-9;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.Product;
+import org.junit.jupiter.api.*;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductCacheTest {
+
+    //Plain unit tests, no database and no mocks needed
+
+    private ProductCache underTest;
+
+    @BeforeEach
+    public void setUp() {
+        underTest = new ProductCache(2, 2);
+    }
+
+    private static Product product(Integer id, String category) {
+        Product product = new Product("Product " + id, 10.0, category, "Description", "urlForImage");
+        product.setId(id);
+        return product;
+    }
+
+
+    @DisplayName("Put more products than the cache holds, then the least recently used is evicted")
+    @Test
+    public void whenCacheIsFull_thenLeastRecentlyUsedProductIsEvicted() {
+
+        //given
+        underTest.putProduct(underTest.stamp(), product(1, "Clothes"));
+        underTest.putProduct(underTest.stamp(), product(2, "Clothes"));
+        underTest.getProduct(1);
+
+        //when
+        underTest.putProduct(underTest.stamp(), product(3, "Clothes"));
+
+        //then, 2 was used least recently
+        Assertions.assertAll(
+                ()-> assertNotNull(underTest.getProduct(1)),
+                ()-> assertNull(underTest.getProduct(2)),
+                ()-> assertNotNull(underTest.getProduct(3)),
+                ()-> assertEquals(1, underTest.stats().evictions()),
+                ()-> assertEquals(3, underTest.stats().hits()),
+                ()-> assertEquals(1, underTest.stats().misses())
+        );
+    }
+
+
+    @DisplayName("A load that started before a write is not stored in the cache")
+    @Test
+    public void givenWriteDuringLoad_whenFillingCache_thenLoadedValueIsDropped() {
+
+        //given, a reader takes its stamp and goes to the database
+        long stamp = underTest.stamp();
+
+        //when, a write commits before the reader is back
+        underTest.productAdded(product(1, "Clothes"));
+        underTest.putCategory(stamp, "Clothes", List.of(product(2, "Clothes")));
+
+        //then
+        assertNull(underTest.getCategory("Clothes"));
+    }
+
+
+    @DisplayName("A category is a miss when one of its products has been evicted")
+    @Test
+    public void givenEvictedProduct_whenGettingCategory_thenCategoryIsMissing() {
+
+        //given
+        underTest.putCategory(underTest.stamp(), "Clothes", List.of(product(1, "Clothes"), product(2, "Clothes")));
+
+        //when, product 1 is pushed out by two others
+        underTest.putProduct(underTest.stamp(), product(3, "Jewelry"));
+        underTest.putProduct(underTest.stamp(), product(4, "Jewelry"));
+
+        //then
+        assertNull(underTest.getCategory("Clothes"));
+    }
+
+
+    @DisplayName("Changing a product drops its own entries and leaves other categories cached")
+    @Test
+    public void whenProductChanges_thenOnlyItsEntriesAreDropped() {
+
+        //given
+        Product shirt = product(1, "Clothes");
+        underTest.putCategory(underTest.stamp(), "Clothes", List.of(shirt));
+        underTest.putCategory(underTest.stamp(), "Jewelry", List.of(product(2, "Jewelry")));
+        underTest.putCategories(underTest.stamp(), List.of("Clothes", "Jewelry"));
+
+        //when, same category so the category list stays
+        underTest.productChanged(shirt, product(1, "Clothes"));
+
+        //then
+        Assertions.assertAll(
+                ()-> assertNull(underTest.getProduct(1)),
+                ()-> assertNull(underTest.getCategory("Clothes")),
+                ()-> assertNotNull(underTest.getCategory("Jewelry")),
+                ()-> assertEquals(List.of("Clothes", "Jewelry"), underTest.getCategories())
+        );
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.Product;
+import org.junit.jupiter.api.*;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductChangeFeedTest {
+
+    private final ProductChangeFeed underTest = new ProductChangeFeed(3);
+
+    private static Product product(int id) {
+        Product product = new Product("Produkt " + id, 10.0, "feed", "Description", "urlForImage");
+        product.setId(id);
+        return product;
+    }
+
+
+    @DisplayName("Changes are numbered in the order they are published and resumed after the Last-Event-ID")
+    @Test
+    public void givenChanges_whenResumingAfterAnEventId_thenLaterChangesAreReplayedInOrder() {
+
+        //given
+        AtomicInteger notified = new AtomicInteger();
+        underTest.addListener(notified::incrementAndGet);
+        underTest.onProductChanged(ProductChangedEvent.added(product(1)));
+        underTest.onProductChanged(ProductChangedEvent.updated(product(1), product(1)));
+        underTest.onProductChanged(ProductChangedEvent.deleted(product(1)));
+
+        //when
+        long after = underTest.resumeAfter(underTest.eventId(1));
+        List<ProductChange> replayed = underTest.since(after, 10);
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(3, notified.get()),
+                ()-> assertEquals(3, underTest.resumeAfter(null)),
+                ()-> assertEquals(List.of(2L, 3L), replayed.stream().map(ProductChange::sequence).toList()),
+                ()-> assertEquals(List.of(ProductChangedEvent.Type.UPDATED, ProductChangedEvent.Type.DELETED),
+                        replayed.stream().map(ProductChange::type).toList()),
+                ()-> assertEquals(1, replayed.get(1).productId()),
+                ()-> assertEquals(1, underTest.since(after, 1).size())
+        );
+    }
+
+
+    @DisplayName("An id that has left the replay buffer or is not ours gives null, so the client is told to reset")
+    @Test
+    public void givenFullBuffer_whenResumingBeforeIt_thenChangesAreReportedLost() {
+
+        //given
+        for (int id = 1; id <= 5; id++) {
+            underTest.onProductChanged(ProductChangedEvent.added(product(id)));
+        }
+
+        //then
+        Assertions.assertAll(
+                ()-> assertNull(underTest.since(underTest.resumeAfter(underTest.eventId(1)), 10)),
+                ()-> assertEquals(3, underTest.since(underTest.resumeAfter(underTest.eventId(2)), 10).size()),
+                ()-> assertNull(underTest.since(underTest.resumeAfter("abc-2"), 10)),
+                ()-> assertNull(underTest.since(underTest.resumeAfter(underTest.eventId(6)), 10)),
+                ()-> assertTrue(underTest.since(underTest.resumeAfter(underTest.eventId(5)), 10).isEmpty())
+        );
+    }
+
+
+    @DisplayName("Readers from before an import have lost changes, readers after it go on as usual")
+    @Test
+    public void givenImport_whenResumingBeforeIt_thenChangesAreReportedLost() {
+
+        //given
+        underTest.onProductChanged(ProductChangedEvent.added(product(1)));
+        underTest.onProductsImported(new ProductsImportedEvent());
+        underTest.onProductChanged(ProductChangedEvent.added(product(2)));
+
+        //then
+        Assertions.assertAll(
+                ()-> assertNull(underTest.since(1, 10)),
+                ()-> assertEquals(List.of(3L), underTest.since(2, 10).stream().map(ProductChange::sequence).toList()),
+                ()-> assertEquals(3, underTest.head())
+        );
+    }
+}
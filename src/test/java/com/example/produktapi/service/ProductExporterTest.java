@@ -0,0 +1,84 @@
+package com.example.produktapi.service;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import com.example.produktapi.repository.CategoryDictionary;
+import org.springframework.boot.test.autoconfigure.json.AutoConfigureJson;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest // Runs against the database, the seeded rows are rolled back after each test
+@AutoConfigureJson
+@Import({ProductExporter.class, CategoryDictionary.class})
+class ProductExporterTest {
+
+    private static final int ROWS = 300_000;
+
+    @Autowired
+    private ProductExporter underTest;
+
+    @Autowired
+    private EntityManager entityManager;
+
+
+    @DisplayName("Export a large catalog, then every row is written and the persistence context stays small")
+    @Test
+    public void givenLargeCatalog_whenExporting_thenMemoryStaysBounded() throws IOException {
+
+        //given, a few hundred thousand rows next to the ones from data.sql
+        long before = (Long) entityManager.createQuery("SELECT count(p) FROM Product p").getSingleResult();
+        entityManager.createNativeQuery("INSERT INTO category(name) VALUES ('export')").executeUpdate();
+        entityManager.createNativeQuery(
+                "INSERT INTO product(id, title, price, category_id, description, image) " +
+                "SELECT 100000 + x, 'Export ' || x, x / 100.0, (SELECT id FROM category WHERE name = 'export'), " +
+                "'Beskrivning ' || x, 'urlForImage' || x " +
+                "FROM SYSTEM_RANGE(1, " + ROWS + ")").executeUpdate();
+        entityManager.clear();
+
+        //when, every time the exporter pushes bytes we look at how many entities are still managed
+        Session session = entityManager.unwrap(Session.class);
+        CountingOutputStream out = new CountingOutputStream(session);
+        long written = underTest.exportAll(out);
+
+        //then, one line per product and never more than one managed product at a time
+        Assertions.assertAll(
+                ()-> assertEquals(before + ROWS, written),
+                ()-> assertEquals(before + ROWS, out.lines),
+                ()-> assertTrue(out.maxManagedEntities <= 1, "managed entities: " + out.maxManagedEntities)
+        );
+    }
+
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private final Session session;
+        long lines;
+        int maxManagedEntities;
+
+        CountingOutputStream(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+            maxManagedEntities = Math.max(maxManagedEntities, session.getStatistics().getEntityCount());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.exception.BadRequestException;
+import com.example.produktapi.model.CategoryStats;
+import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductImportStatus;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "produktapi.import.chunk-size=64B",
+        "produktapi.import.workers=2",
+        "produktapi.import.queue-size=2"
+})
+class ProductImportJobTest {
+
+    //Chunks of 64 bytes, so every file below is read in several and most rows are cut somewhere
+
+    private static final String CATEGORY = "import";
+
+    @Autowired
+    private ProductImportJob underTest;
+
+    @Autowired
+    private ProductService productService;
+
+    @TempDir
+    private Path directory;
+
+    @AfterEach
+    public void cleanUp() {
+        productService.deleteCategory(CATEGORY);
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(directory.resolve(name), content, StandardCharsets.UTF_8);
+    }
+
+
+    @DisplayName("A CSV file is imported with quoted fields, duplicates as conflicts and broken rows as invalid")
+    @Test
+    public void givenCsvFile_whenImporting_thenRowsAreStoredAndCounted() throws IOException {
+
+        //given
+        Path file = write("produkter.csv", """
+                price,title,category,description,image,unused
+                10.5,Import ett,import,"Beskrivning, med komma","bild1",x
+                20,"Import ""två\""",import,"Två
+                rader",bild2,x
+                30,Import ett,import,Samma titel igen,bild3,x
+                inget pris,Import tre,import,Ogiltigt pris,bild4,x
+                40,"Fjallraven - Foldsack No. 1 Backpack, Fits 15 Laptops",import,Finns redan,bild5,x
+                ,,import,Titel saknas,bild6,x
+                50,Import fyra,import,Sist,bild7,x
+                """.replace("\n", "\r\n"));
+
+        //when
+        ProductImportStatus status = underTest.importFile(file);
+
+        //then
+        List<Product> imported = productService.getProductsByCategory(CATEGORY);
+        Product second = imported.stream().filter(p -> p.getPrice() == 20.0).findFirst().orElseThrow();
+        Assertions.assertAll(
+                ()-> assertEquals(ProductImportStatus.State.DONE, status.state()),
+                ()-> assertEquals(3, status.created()),
+                ()-> assertEquals(2, status.conflicts()),
+                ()-> assertEquals(2, status.invalid()),
+                ()-> assertEquals(Files.size(file), status.offset()),
+                ()-> assertEquals(3, imported.size()),
+                ()-> assertEquals("Import \"två\"", second.getTitle()),
+                ()-> assertEquals("Två\r\nrader", second.getDescription()),
+                ()-> assertEquals(3, productService.getProductsByPrice(CATEGORY, null, null).size()),
+                ()-> assertTrue(productService.getAllCategories().contains(CATEGORY)),
+                ()-> assertTrue(productService.getCategoryStats().contains(new CategoryStats(CATEGORY, 3, 10.5, 50.0, 80.5 / 3))),
+                ()-> assertFalse(Files.exists(directory.resolve("produkter.csv.checkpoint")))
+        );
+    }
+
+
+    @DisplayName("An NDJSON file with a checkpoint is imported from where the earlier run stopped")
+    @Test
+    public void givenCheckpoint_whenImportingAgain_thenImportResumes() throws IOException {
+
+        //given
+        String done = """
+                {"title":"Import ett","price":1.0,"category":"import"}
+                {"title":"Import två","price":2.0,"category":"import"}
+                """;
+        Path file = write("produkter.ndjson", done + """
+                {"title":"Import tre","price":3.0,"category":"import"}
+                inte json
+                {"title":"Import fyra","price":4.0,"category":"import"}
+                """);
+        Files.writeString(directory.resolve("produkter.ndjson.checkpoint"), "size=" + Files.size(file)
+                + "\nmodified=" + Files.getLastModifiedTime(file).toMillis()
+                + "\noffset=" + done.getBytes(StandardCharsets.UTF_8).length + "\n");
+
+        //when
+        ProductImportStatus status = underTest.importFile(file);
+
+        //then
+        List<String> titles = productService.getProductsByCategory(CATEGORY).stream().map(Product::getTitle).toList();
+        Assertions.assertAll(
+                ()-> assertEquals(ProductImportStatus.State.DONE, status.state()),
+                ()-> assertEquals(done.getBytes(StandardCharsets.UTF_8).length, status.resumedFrom()),
+                ()-> assertEquals(2, status.created()),
+                ()-> assertEquals(1, status.invalid()),
+                ()-> assertEquals(List.of("Import tre", "Import fyra"), titles)
+        );
+    }
+
+
+    @DisplayName("The endpoint only imports files in the import directory")
+    @Test
+    public void givenFileOutsideDirectory_whenStarting_thenBadRequest() {
+
+        //then
+        Assertions.assertAll(
+                ()-> assertThrows(BadRequestException.class, () -> underTest.start("../etc/passwd.csv")),
+                ()-> assertThrows(BadRequestException.class, () -> underTest.start("saknas.csv"))
+        );
+    }
+}
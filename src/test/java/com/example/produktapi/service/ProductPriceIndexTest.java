@@ -0,0 +1,166 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.repository.ProductPrice;
+import com.example.produktapi.repository.ProductRepository;
+import org.junit.jupiter.api.*;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class ProductPriceIndexTest {
+
+    //Products are fed to the index the same way ProductService does it, through change events
+
+    private static final List<String> CATEGORIES = List.of("electronics", "jewelery", "men's clothing");
+
+    private ProductRepository repository;
+    private ProductPriceIndex underTest;
+    private List<Product> products;
+    private Random random;
+
+    @BeforeEach
+    public void setUp() {
+        repository = mock(ProductRepository.class);
+        underTest = new ProductPriceIndex(repository, mock(PlatformTransactionManager.class));
+        products = new ArrayList<>();
+        random = new Random(7);
+        for (int id = 1; id <= 2000; id++) {
+            Product product = randomProduct(id);
+            products.add(product);
+            underTest.onProductChanged(ProductChangedEvent.added(product));
+        }
+    }
+
+    private Product randomProduct(int id) {
+        // Few distinct prices so that ties on price are common, and now and then no price at all
+        Double price = random.nextInt(20) == 0 ? null : (double) random.nextInt(200);
+        Product product = new Product("Produkt " + id, price, CATEGORIES.get(random.nextInt(CATEGORIES.size())), "", "");
+        product.setId(id);
+        return product;
+    }
+
+    // What the database query findByCategoryAndPriceBetweenOrderByPriceAscIdAsc returns
+    private List<Integer> expected(String category, double min, double max) {
+        return products.stream()
+                .filter(p -> p.getPrice() != null && p.getPrice() >= min && p.getPrice() <= max)
+                .filter(p -> category == null || category.equals(p.getCategory()))
+                .sorted(Comparator.comparing(Product::getPrice).thenComparing(Product::getId))
+                .map(Product::getId)
+                .toList();
+    }
+
+    private List<Integer> range(String category, double min, double max) {
+        return Arrays.stream(underTest.range(category, min, max, -Double.MAX_VALUE, 0, Integer.MAX_VALUE)).boxed().toList();
+    }
+
+    private void assertSameAsScan() {
+        for (int i = 0; i < 200; i++) {
+            double a = random.nextInt(220) - 10, b = random.nextInt(220) - 10;
+            String category = random.nextBoolean() ? null : CATEGORIES.get(random.nextInt(CATEGORIES.size()));
+            assertEquals(expected(category, Math.min(a, b), Math.max(a, b)), range(category, Math.min(a, b), Math.max(a, b)));
+        }
+    }
+
+
+    @DisplayName("Price ranges give the same products in the same order as filtering and sorting all products")
+    @Test
+    public void whenQueryingRanges_thenTheResultMatchesAFullScan() {
+
+        //then
+        Assertions.assertAll(
+                ()-> assertSameAsScan(),
+                ()-> assertEquals(expected(null, 50, 50), range(null, 50, 50)),
+                ()-> assertEquals(List.of(), range("finns inte", 0, 1000))
+        );
+    }
+
+
+    @DisplayName("Walking a range page by page visits every product once")
+    @Test
+    public void whenPagingThroughARange_thenNoProductIsSkippedOrRepeated() {
+
+        //given
+        Product byId[] = products.toArray(new Product[0]);
+        List<Integer> visited = new ArrayList<>();
+        double afterPrice = -Double.MAX_VALUE;
+        int afterId = 0;
+
+        //when
+        int[] page;
+        while ((page = underTest.range("jewelery", 20, 120, afterPrice, afterId, 7)).length > 0) {
+            for (int id : page) {
+                visited.add(id);
+            }
+            afterId = page[page.length - 1];
+            afterPrice = byId[afterId - 1].getPrice();
+        }
+
+        //then
+        assertEquals(expected("jewelery", 20, 120), visited);
+    }
+
+
+    @DisplayName("Updates and deletes move products in the index")
+    @Test
+    public void whenProductsChange_thenTheIndexFollows() {
+
+        //when, every other product gets a new price or category, every fifth is removed
+        for (int i = 0; i < products.size(); i += 2) {
+            Product before = products.get(i);
+            Product after = randomProduct(before.getId());
+            products.set(i, after);
+            underTest.onProductChanged(ProductChangedEvent.updated(before, after));
+        }
+        for (int i = products.size() - 1; i >= 0; i -= 5) {
+            underTest.onProductChanged(ProductChangedEvent.deleted(products.remove(i)));
+        }
+
+        //then
+        assertSameAsScan();
+    }
+
+
+    @DisplayName("A rebuild gives the products in the table, with the changes made while it read the table")
+    @Test
+    public void givenChangesDuringRebuild_whenRebuilt_thenTheIndexHasThem() {
+
+        //given, the table in (price, id) order, and halfway through it one product is updated and one deleted
+        List<Product> table = products.stream().filter(p -> p.getPrice() != null)
+                .sorted(Comparator.comparing(Product::getPrice).thenComparing(Product::getId)).toList();
+        Product updated = randomProduct(table.get(0).getId());
+        Product deleted = table.get(table.size() - 1);
+        given(repository.streamAllPrices()).willReturn(Stream.concat(
+                table.stream().limit(table.size() / 2),
+                Stream.of((Product) null).flatMap(ignored -> {
+                    products.set(updated.getId() - 1, updated);
+                    underTest.onProductChanged(ProductChangedEvent.updated(table.get(0), updated));
+                    products.remove(deleted);
+                    underTest.onProductChanged(ProductChangedEvent.deleted(deleted));
+                    return table.stream().skip(table.size() / 2).filter(p -> p != deleted);
+                })).map(ProductPriceIndexTest::price));
+
+        //when
+        underTest.rebuild();
+
+        //then
+        assertSameAsScan();
+    }
+
+    private static ProductPrice price(Product product) {
+        return new ProductPrice() {
+            public Integer getId() { return product.getId(); }
+            public String getCategory() { return product.getCategory(); }
+            public Double getPrice() { return product.getPrice(); }
+        };
+    }
+}
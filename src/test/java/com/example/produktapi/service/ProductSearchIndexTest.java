@@ -0,0 +1,205 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.model.Product;
+import com.example.produktapi.repository.ProductRepository;
+import com.example.produktapi.repository.ProductText;
+import org.junit.jupiter.api.*;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class ProductSearchIndexTest {
+
+    //Products are fed to the index the same way ProductService does it, through change events
+
+    private ProductRepository repository;
+    private ProductSearchIndex underTest;
+
+    @BeforeEach
+    public void setUp() {
+        repository = mock(ProductRepository.class);
+        underTest = new ProductSearchIndex(repository, mock(PlatformTransactionManager.class));
+        add(1, "Fjallraven - Foldsack No. 1 Backpack", "Fin väska me plats för dator");
+        add(2, "Mens Casual Premium Slim Fit T-Shirts", "Vilken härlig t-shirt, slim fit o casual i ett!");
+        add(3, "Mens Cotton Jacket", "Bomullsjacka, vad finns det mer att säga?!");
+        add(4, "Mens Casual Slim Fit", "Mer casual än såhär blir det inte!");
+        add(5, "Väska i läder", "Rymlig");
+    }
+
+    private Product add(int id, String title, String description) {
+        Product product = new Product(title, 10.0, "men's clothing", description, "urlForImage");
+        product.setId(id);
+        underTest.onProductChanged(ProductChangedEvent.added(product));
+        return product;
+    }
+
+    private List<Integer> search(String query) {
+        return Arrays.stream(underTest.search(query, 10)).boxed().toList();
+    }
+
+
+    @DisplayName("Swedish letters are kept and compared without regard to case")
+    @Test
+    public void whenSearchingWithSwedishLetters_thenTheyMatch() {
+
+        //then, a title hit ranks above a description hit
+        Assertions.assertAll(
+                ()-> assertEquals(List.of(5, 1), search("VÄSKA")),
+                ()-> assertEquals(List.of(3), search("säga")),
+                ()-> assertEquals(List.of(), search("vaska"))
+        );
+    }
+
+
+    @DisplayName("Letters written with combining marks find the same products")
+    @Test
+    public void whenSearchingWithDecomposedLetters_thenTheyMatchTheComposedOnes() {
+
+        //when, "väska" with a plain a followed by a combining diaeresis
+        List<Integer> result = search("väska");
+
+        //then
+        assertEquals(List.of(5, 1), result);
+    }
+
+
+    @DisplayName("The start of a word finds compound words, and exact words rank first")
+    @Test
+    public void whenSearchingForPrefix_thenLongerWordsMatch() {
+
+        //given
+        add(6, "Bomull", "Ren bomull");
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(List.of(6, 3), search("bomull")),
+                ()-> assertEquals(List.of(3), search("bomullsj"))
+        );
+    }
+
+
+    @DisplayName("All words in the query have to match")
+    @Test
+    public void whenSearchingForSeveralWords_thenOnlyProductsWithAllWordsMatch() {
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(List.of(2, 4), search("casual slim")),
+                ()-> assertEquals(List.of(2), search("casual t-shirt")),
+                ()-> assertEquals(List.of(), search("casual väska"))
+        );
+    }
+
+
+    @DisplayName("Updated and deleted products are searchable right after the event")
+    @Test
+    public void whenProductsChange_thenIndexFollows() {
+
+        //given
+        Product jacket = new Product("Mens Cotton Jacket", 10.0, "men's clothing", "Bomullsjacka", "urlForImage");
+        jacket.setId(3);
+        Product renamed = new Product("Mens Wool Jacket", 10.0, "men's clothing", "Ulljacka", "urlForImage");
+        renamed.setId(3);
+
+        //when
+        underTest.onProductChanged(ProductChangedEvent.updated(jacket, renamed));
+        underTest.onProductChanged(ProductChangedEvent.deleted(add(7, "Ulltröja", "Stickad")));
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(List.of(), search("bomull")),
+                ()-> assertEquals(List.of(3), search("ull")),
+                ()-> assertEquals(5, underTest.size())
+        );
+    }
+
+
+    @DisplayName("A prefix of more terms than are looked at matches the terms in the most products")
+    @Test
+    public void givenPrefixOfManyTerms_whenSearching_thenTheCommonTermsMatch() {
+
+        //given, rare terms that sort before a common one
+        for (int i = 0; i <= ProductSearchIndex.MAX_PREFIX_TERMS; i++) {
+            add(100 + i, "Kabel" + String.format("%03d", i), "");
+        }
+        add(200, "Kabelvinda", "");
+        add(201, "Kabelvinda stor", "");
+
+        //when
+        List<Integer> result = Arrays.stream(underTest.search("kabel", 100)).boxed().toList();
+
+        //then, the common term and all but two of the rare ones
+        Assertions.assertAll(
+                ()-> assertTrue(result.containsAll(List.of(200, 201))),
+                ()-> assertEquals(2 + ProductSearchIndex.MAX_PREFIX_TERMS - 1, result.size())
+        );
+    }
+
+
+    @DisplayName("The search stops once no product left can rank higher, without missing a better one further on")
+    @Test
+    public void givenManyEqualMatches_whenSearching_thenTiesGoToLowestIdsAndBetterMatchesAreFound() {
+
+        //given, more products than a block that all score the same, and one near the end with both words in its title
+        for (int i = 0; i < 3 * ProductSearchIndex.BLOCK_SIZE; i++) {
+            add(1000 + i, "Produkt", "Sko i röd färg");
+        }
+        add(1000 + 3 * ProductSearchIndex.BLOCK_SIZE - 1, "Röd sko", "Sko i röd färg");
+
+        //when
+        List<Integer> result = Arrays.stream(underTest.search("sko röd", 3)).boxed().toList();
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(List.of(1000 + 3 * ProductSearchIndex.BLOCK_SIZE - 1, 1000, 1001), result),
+                ()-> assertEquals(List.of(1000, 1001), Arrays.stream(underTest.search("produkt sko", 2)).boxed().toList())
+        );
+    }
+
+
+    @DisplayName("A rebuild gives the products in the table, with the changes made while it read the table")
+    @Test
+    public void givenChangesDuringRebuild_whenRebuilt_thenTheIndexHasThem() {
+
+        //given, halfway through the table product 3 is renamed and product 5 deleted
+        Product jacket = new Product("Mens Cotton Jacket", 10.0, "men's clothing", "Bomullsjacka", "urlForImage");
+        jacket.setId(3);
+        Product renamed = new Product("Mens Wool Jacket", 10.0, "men's clothing", "Ulljacka", "urlForImage");
+        renamed.setId(3);
+        Product bag = new Product("Väska i läder", 10.0, "men's clothing", "Rymlig", "urlForImage");
+        bag.setId(5);
+        given(repository.streamAllText()).willReturn(Stream.concat(
+                Stream.of(text(1, "Fjallraven - Foldsack No. 1 Backpack", ""), text(3, "Mens Cotton Jacket", "Bomullsjacka")),
+                Stream.of(4).flatMap(id -> {
+                    underTest.onProductChanged(ProductChangedEvent.updated(jacket, renamed));
+                    underTest.onProductChanged(ProductChangedEvent.deleted(bag));
+                    return Stream.of(text(id, "Mens Casual Slim Fit", ""));
+                })));
+
+        //when
+        underTest.rebuild();
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(3, underTest.size()),
+                ()-> assertEquals(List.of(3), search("ulljacka")),
+                ()-> assertEquals(List.of(), search("bomull")),
+                ()-> assertEquals(List.of(), search("väska")),
+                ()-> assertEquals(List.of(4), search("casual"))
+        );
+    }
+
+    private static ProductText text(int id, String title, String description) {
+        return new ProductText() {
+            public Integer getId() { return id; }
+            public String getTitle() { return title; }
+            public String getDescription() { return description; }
+        };
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.exception.EntityNotFoundException;
+import com.example.produktapi.model.Product;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class ProductServiceConcurrencyTest {
+
+    //The tests are run against the database, with the real cache in front of it.
+    //Nothing is rolled back, every write is committed like in the running application.
+
+    private static final String CATEGORY = "concurrency";
+    private static final int WRITES = 300;
+    private static final int READERS = 4;
+
+    @Autowired
+    private ProductService underTest;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @AfterEach
+    public void cleanUp() {
+        underTest.deleteCategory(CATEGORY);
+    }
+
+
+    @DisplayName("Readers running next to a writer never get a product back from the cache after it was changed")
+    @Test
+    public void givenConcurrentReadersAndWriter_whenWritesCommit_thenReadersNeverSeeStaleData() throws Exception {
+
+        //given, the ids the writer has finished adding and deleting, -1 until the first one.
+        //A delete may be seen before the writer gets to publish it, so its start is marked too.
+        AtomicInteger lastAdded = new AtomicInteger(-1);
+        AtomicInteger deleteStarted = new AtomicInteger(-1);
+        AtomicInteger lastDeleted = new AtomicInteger(-1);
+        AtomicBoolean done = new AtomicBoolean();
+        Queue<String> staleReads = new ConcurrentLinkedQueue<>();
+        ExecutorService pool = Executors.newFixedThreadPool(READERS);
+
+        List<Future<?>> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            readers.add(pool.submit(() -> {
+                while (!done.get()) {
+                    // what was committed before this read started has to be visible
+                    int added = lastAdded.get();
+                    int deleted = lastDeleted.get();
+
+                    List<Integer> ids = underTest.getProductsByCategory(CATEGORY).stream().map(Product::getId).toList();
+                    if (added != -1 && !ids.contains(added) && deleteStarted.get() < added) {
+                        staleReads.add("category misses added product " + added);
+                    }
+                    if (deleted != -1 && ids.contains(deleted)) {
+                        staleReads.add("category still has deleted product " + deleted);
+                    }
+                    if (deleted != -1) {
+                        try {
+                            underTest.getProductById(deleted);
+                            staleReads.add("deleted product " + deleted + " still found by id");
+                        } catch (EntityNotFoundException expected) {
+                            // this is what we want
+                        }
+                    }
+                    if (added != -1 && !underTest.getAllCategories().contains(CATEGORY)) {
+                        staleReads.add("category list misses " + CATEGORY);
+                    }
+                }
+            }));
+        }
+
+        //when, the writer adds a new product and deletes the previous one, over and over
+        for (int i = 0; i < WRITES; i++) {
+            Product saved = underTest.addProduct(new Product("Concurrency " + i, (double) i, CATEGORY, "Description", "urlForImage"));
+            int previous = lastAdded.getAndSet(saved.getId());
+            if (previous != -1) {
+                deleteStarted.set(previous);
+                underTest.deleteProduct(previous);
+                lastDeleted.set(previous);
+            }
+        }
+        done.set(true);
+        for (Future<?> reader : readers) {
+            reader.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        //then
+        Assertions.assertAll(
+                ()-> assertTrue(staleReads.isEmpty(), () -> String.join("\n", staleReads)),
+                ()-> assertEquals(List.of(lastAdded.get()),
+                        underTest.getProductsByCategory(CATEGORY).stream().map(Product::getId).toList()),
+                ()-> assertEquals(underTest.getCoalescedLoads(),
+                        meterRegistry.get("product.service.loads.coalesced").functionCounter().count())
+        );
+    }
+}
@@ -2,8 +2,16 @@ package com.example.produktapi.service;
 
 import com.example.produktapi.exception.BadRequestException;
 import com.example.produktapi.exception.EntityNotFoundException;
+import com.example.produktapi.exception.PreconditionFailedException;
 import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductBatchResult;
+import com.example.produktapi.model.ProductDeletion;
+import com.example.produktapi.model.ProductLookup;
+import com.example.produktapi.model.ProductPage;
+import com.example.produktapi.model.ProductPatch;
+import com.example.produktapi.repository.CategoryDictionary;
 import com.example.produktapi.repository.ProductRepository;
+import com.example.produktapi.repository.ReplicaFeed;
 import jakarta.persistence.criteria.CriteriaBuilder;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -12,10 +20,19 @@ import static org.mockito.BDDMockito.*;
 
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.data.domain.Pageable;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -27,6 +44,36 @@ class ProductServiceTest {
     @Mock //@Mock makes a copy of the repository, so we can just test what we want, handles what is to be mocked
     private ProductRepository repository;
 
+    @Mock
+    private CategoryDictionary categories;
+
+    @Spy //A real cache, new for every test, so the service behaves like it does in the application
+    private ProductCache cache = new ProductCache(100, 10);
+
+    @Mock
+    private ProductSearchIndex searchIndex;
+
+    @Mock
+    private ProductPriceIndex priceIndex;
+
+    @Mock
+    private CategoryStatsIndex categoryStats;
+
+    @Mock
+    private SecondLevelCacheSync secondLevelCache;
+
+    @Mock
+    private ReplicaFeed replica;
+
+    @Mock //Mode off: isEnabled() is false, so every write is made right away
+    private WriteBehindQueue writeBehind;
+
+    @Mock
+    private ApplicationEventPublisher events;
+
+    @Mock //getTransaction hands back null, so TransactionTemplate just runs the callback
+    private PlatformTransactionManager transactionManager;
+
 
     // @InjectMocks makes an instance of ProductService (constructor),
     // and makes everything hang together with Mock
@@ -42,6 +89,12 @@ class ProductServiceTest {
         System.out.println("\nRunning tests...\n¨¨¨¨¨¨¨¨¨¨¨¨¨¨¨¨¨");
     }
 
+    @BeforeEach
+    public void setUp() {
+        // Every category is known, the name is handed back as it is
+        lenient().when(categories.canonical(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
 
     @DisplayName("Get all products, then one interaction with findAll() should be made")
     @Test
@@ -59,19 +112,21 @@ class ProductServiceTest {
     }
 
 
-    @DisplayName("Get all categories, then one interaction with findAllCategories() should be made")
+    @DisplayName("Get all categories, then they come from the category aggregates without a query")
     @Test
-    public void whenGetAllCategories_thenExactlyOneInteractionWithRepositoryMethodFindAllCategories() {
+    public void whenGetAllCategories_thenNoInteractionWithRepository() {
+
+        //given
+        given(categoryStats.categories()).willReturn(List.of("Clothes", "Jewelry"));
 
         //when, method invocation
-        underTest.getAllCategories();
+        List<String> categories = underTest.getAllCategories();
 
         //then, what we expect
         Assertions.assertAll(
-                ()-> verify(repository,times(1)).findAllCategories(),
-                ()-> verifyNoMoreInteractions(repository)
+                ()-> assertEquals(List.of("Clothes", "Jewelry"), categories),
+                ()-> verifyNoInteractions(repository)
         );
-
     }
 
 
@@ -207,10 +262,10 @@ class ProductServiceTest {
         Integer id = 8;
         Product productOld = new Product("Necklace", 1800.0,"Jewelry", "Bling bling","urlForNecklaceImage");
         Product productNew = new Product("Rings", 1600.0,"Jewelry", "Bling bling","urlForRingsImage");
-        given(repository.findById(id)).willReturn(Optional.of(productOld));
-
-        //repository saves the old product and when called then it should return the old product
-        when(repository.save(productOld)).thenReturn(productOld);
+        productOld.setId(id);
+        productOld.setVersion(0L);
+        //the update statement hands back the row as it was before
+        given(repository.patchReturningBefore(eq(id), isNull(), any(ProductPatch.class))).willReturn(Optional.of(productOld));
 
         //when, method invocation
         productNew.setTitle("Necklace");
@@ -219,8 +274,11 @@ class ProductServiceTest {
 
         //then, what we expect
         Assertions.assertAll(
-                ()-> verify(repository,times(1)).findById(id),
-                ()-> assertEquals(productNew.getTitle(), updatedResult.getTitle())
+                ()-> verify(repository,never()).findById(id),
+                ()-> assertEquals(productNew.getTitle(), updatedResult.getTitle()),
+                ()-> assertEquals(productNew.getPrice(), updatedResult.getPrice()),
+                ()-> assertEquals(id, updatedResult.getId()),
+                ()-> assertEquals(1L, updatedResult.getVersion())
         );
 
     }
@@ -235,7 +293,7 @@ class ProductServiceTest {
         //given, setup for test
         Integer id = 6;
         Product product = new Product("Necklace", 1800.0,"Jewelry", "Bling bling","urlForNecklaceImage");
-        given(repository.findById(id)).willReturn(Optional.empty());
+        given(repository.patchReturningBefore(eq(id), isNull(), any(ProductPatch.class))).willReturn(Optional.empty());
 
         //then, what we expect
         EntityNotFoundException exception = assertThrows(EntityNotFoundException.class,
@@ -244,7 +302,7 @@ class ProductServiceTest {
 
         //then, what we expect
         Assertions.assertAll(
-                ()-> verify(repository,times(1)).findById(id),
+                ()-> verify(repository,times(1)).patchReturningBefore(eq(id), isNull(), any(ProductPatch.class)),
                 ()-> assertEquals("Produkt med id 6 hittades inte",exception.getMessage())
         );
 
@@ -261,7 +319,7 @@ class ProductServiceTest {
         //given, setup for test
         Integer id = 3;
         Product product = new Product("Necklace", 1800.0,"Jewelry", "Bling bling","urlForNecklaceImage");
-        given(repository.findById(id)).willReturn(Optional.of(product));
+        given(repository.deleteReturningBefore(id, null)).willReturn(Optional.of(product));
 
 
         //when, method invocation
@@ -270,7 +328,8 @@ class ProductServiceTest {
 
         //then, what we expect
         Assertions.assertAll(
-                ()-> verify(repository,times(1)).deleteById(id),
+                ()-> verify(repository,times(1)).deleteReturningBefore(id, null),
+                ()-> verify(repository,never()).findById(id),
                 ()-> assertNull(product.getId())
         );
 
@@ -287,7 +346,7 @@ class ProductServiceTest {
         //given, setup for test
         Integer id = 11;
         Product product = new Product("Ring", 1200.0,"Jewelry", "Bling bling","urlForRingImage");
-        given(repository.findById(id)).willReturn(Optional.empty());
+        given(repository.deleteReturningBefore(id, null)).willReturn(Optional.empty());
 
 
         //then, what we expect
@@ -297,10 +356,401 @@ class ProductServiceTest {
 
         //then, what we expect
         Assertions.assertAll(
-                ()-> verify(repository,times(1)).findById(id),
+                ()-> verify(repository,times(1)).deleteReturningBefore(id, null),
                 ()-> assertEquals("Produkt med id 11 hittades inte",exception.getMessage())
         );
     }
 
 
-}
\ No newline at end of file
+    //Normal flow
+    @DisplayName("Get a full page, then a cursor to the next page is returned")
+    @Test
+    public void givenMoreProductsThanLimit_whenGetProductPage_thenNextCursorPointsAtLastItem() {
+
+        //given, the repository returns limit + 1 rows which means there is a next page
+        Product first = new Product("Shirt", 10.0, "Clothes", "Casual", "urlForShirtImage");
+        Product second = new Product("Dress", 20.0, "Clothes", "Casual", "urlForDressImage");
+        Product third = new Product("Hat", 30.0, "Clothes", "Casual", "urlForHatImage");
+        first.setId(4);
+        second.setId(7);
+        third.setId(9);
+        given(repository.findPageOrderById(null, 0, Pageable.ofSize(3))).willReturn(List.of(first, second, third));
+
+        //when, method invocation
+        ProductPage page = underTest.getProductPage(null, "id", null, 2);
+
+        //then, what we expect
+        Assertions.assertAll(
+                ()-> assertEquals(List.of(first, second), page.items()),
+                ()-> assertEquals("7", page.nextCursor())
+        );
+    }
+
+
+    //Wrong flow
+    @DisplayName("Get a page with a cursor that cannot be decoded, then throw exception")
+    @Test
+    public void givenBrokenCursor_whenGetProductPage_thenThrowException() {
+
+        //then, what we expect
+        assertThrows(BadRequestException.class,
+                //when, method invocation
+                ()-> underTest.getProductPage(null, "price", "not-a-cursor", 10));
+
+        verifyNoInteractions(repository);
+    }
+
+
+    //Normal and wrong flow in one batch
+    @DisplayName("Add products in bulk, then existing and repeated titles are reported as conflicts")
+    @Test
+    public void givenBatchWithDuplicates_whenAddingProducts_thenOnlyNewTitlesAreSaved() {
+
+        //given, "Shirt" already exists and "Dress" is sent twice
+        Product shirt = new Product("Shirt", 40.0, "Clothes", "Casual", "urlForShirtImage");
+        Product dress = new Product("Dress", 34.0, "Clothes", "Casual", "urlForDressImage");
+        Product dressAgain = new Product("Dress", 35.0, "Clothes", "Casual", "urlForDressImage");
+        Product untitled = new Product(null, 1.0, "Clothes", "Casual", "urlForImage");
+        given(repository.findExistingTitles(any())).willReturn(List.of("Shirt"));
+        given(repository.saveAll(any())).willAnswer(invocation -> {
+            dress.setId(21);
+            return List.of(dress);
+        });
+
+        //when, method invocation
+        ProductBatchResult result = underTest.addProducts(List.of(shirt, dress, dressAgain, untitled).iterator());
+
+        //then, one lookup and one save for the whole chunk
+        Assertions.assertAll(
+                ()-> verify(repository,times(1)).findExistingTitles(any()),
+                ()-> verify(repository,times(1)).saveAll(List.of(dress)),
+                ()-> assertEquals(1, result.created()),
+                ()-> assertEquals(2, result.conflicts()),
+                ()-> assertEquals(1, result.invalid()),
+                ()-> assertEquals(21, result.rows().get(1).id()),
+                ()-> assertEquals(ProductBatchResult.Status.CONFLICT, result.rows().get(2).status())
+        );
+    }
+
+
+    //Normal flow
+    @DisplayName("Get the same product twice, then the database is only asked once and the hit needs no transaction")
+    @Test
+    public void givenProductId_whenGetProductByIdTwice_thenSecondCallIsServedFromCache() {
+
+        //given, setup for test
+        Integer id = 5;
+        Product product = new Product("Dress",34.0,"Clothes","Casual","urlForDressImage");
+        product.setId(id);
+        given(repository.findById(id)).willReturn(Optional.of(product));
+
+        //when, method invocation
+        underTest.getProductById(id);
+        clearInvocations(transactionManager);
+        Product second = underTest.getProductById(id);
+
+        //then, what we expect, the hit does not even start a transaction
+        Assertions.assertAll(
+                ()-> verify(repository,times(1)).findById(id),
+                ()-> assertSame(product, second),
+                ()-> assertEquals(1, cache.stats().hits()),
+                ()-> verify(transactionManager, never()).getTransaction(any())
+        );
+    }
+
+
+    //Normal flow
+    @DisplayName("Delete a product, then only its category is loaded again")
+    @Test
+    public void givenCachedCategories_whenDeletingProduct_thenOnlyThatCategoryIsReloaded() {
+
+        //given, two categories in the cache
+        Product ring = new Product("Ring", 1200.0,"Jewelry", "Bling bling","urlForRingImage");
+        Product shirt = new Product("Shirt", 40.0,"Clothes", "Casual","urlForShirtImage");
+        ring.setId(1);
+        shirt.setId(2);
+        given(repository.findByCategory("Jewelry")).willReturn(List.of(ring));
+        given(repository.findByCategory("Clothes")).willReturn(List.of(shirt));
+        given(repository.deleteReturningBefore(1, null)).willReturn(Optional.of(ring));
+        underTest.getProductsByCategory("Jewelry");
+        underTest.getProductsByCategory("Clothes");
+
+        //when, method invocation
+        underTest.deleteProduct(1);
+        underTest.getProductsByCategory("Jewelry");
+        underTest.getProductsByCategory("Clothes");
+
+        //then, what we expect
+        Assertions.assertAll(
+                ()-> verify(repository,times(2)).findByCategory("Jewelry"),
+                ()-> verify(repository,times(1)).findByCategory("Clothes")
+        );
+    }
+
+
+    //Load test
+    @DisplayName("Many concurrent requests for the same product share one slow database call")
+    @Test
+    public void givenSlowDatabase_whenManyConcurrentGetProductById_thenFewerDatabaseCallsThanRequests() throws Exception {
+
+        //given, a database call that takes 100 ms
+        Integer id = 7;
+        int requests = 50;
+        Product product = new Product("Dress",34.0,"Clothes","Casual","urlForDressImage");
+        product.setId(id);
+        given(repository.findById(id)).willAnswer(invocation -> {
+            Thread.sleep(100);
+            return Optional.of(product);
+        });
+
+        //when, all requests are fired at the same time
+        ExecutorService pool = Executors.newFixedThreadPool(requests);
+        List<Callable<Product>> calls = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            calls.add(() -> underTest.getProductById(id));
+        }
+        List<Future<Product>> results = pool.invokeAll(calls);
+        pool.shutdown();
+
+        //then, everybody got the product but the database was asked only a few times
+        for (Future<Product> result : results) {
+            assertSame(product, result.get());
+        }
+        int databaseCalls = mockingDetails(repository).getInvocations().size();
+        Assertions.assertAll(
+                ()-> assertTrue(databaseCalls < requests / 5, "database calls: " + databaseCalls),
+                ()-> assertEquals(requests - databaseCalls, underTest.getCoalescedLoads()
+                        + cache.stats().hits())
+        );
+    }
+
+
+    //Normal flow
+    @DisplayName("Search products, then they are returned in the order the index ranked them")
+    @Test
+    public void givenRankedSearchHits_whenSearchProducts_thenProductsKeepTheRankOrder() {
+
+        //given, the index ranks 9 before 4 and 4 is already cached
+        Product jacket = new Product("Mens Cotton Jacket", 55.99, "men's clothing", "Bomullsjacka", "urlForJacketImage");
+        Product shirt = new Product("Shirt", 40.0, "men's clothing", "Bomull", "urlForShirtImage");
+        jacket.setId(9);
+        shirt.setId(4);
+        cache.putProduct(cache.stamp(), shirt);
+        given(searchIndex.search("bomull", 20)).willReturn(new int[]{9, 4});
+        given(repository.findAllById(List.of(9))).willReturn(List.of(jacket));
+
+        //when, method invocation
+        List<Product> result = underTest.searchProducts("bomull", 20);
+
+        //then, what we expect
+        Assertions.assertAll(
+                ()-> assertEquals(List.of(jacket, shirt), result),
+                ()-> verify(repository,times(1)).findAllById(List.of(9))
+        );
+    }
+
+
+    //Normal flow
+    @DisplayName("Delete product, then a change event is published")
+    @Test
+    public void givenProductId_whenDeletingProduct_thenDeletedEventIsPublished() {
+
+        //given, setup for test
+        Integer id = 3;
+        Product product = new Product("Necklace", 1800.0,"Jewelry", "Bling bling","urlForNecklaceImage");
+        given(repository.deleteReturningBefore(id, null)).willReturn(Optional.of(product));
+
+        //when, method invocation
+        underTest.deleteProduct(id);
+
+        //then, what we expect
+        verify(events).publishEvent(ProductChangedEvent.deleted(product));
+    }
+
+
+    //Normal flow
+    @DisplayName("Get a full page of a price range, then the cursor continues after the last product")
+    @Test
+    public void givenMoreProductsInRange_whenGetProductPageByPrice_thenCursorPointsAfterLastProduct() {
+
+        //given, the index has three products in the range and the page holds two
+        Product ring = new Product("Ring", 10.0, "jewelery", "Liten", "urlForRingImage");
+        Product necklace = new Product("Necklace", 25.0, "jewelery", "Bling bling", "urlForNecklaceImage");
+        ring.setId(7);
+        necklace.setId(2);
+        given(priceIndex.range("jewelery", 5.0, 30.0, -Double.MAX_VALUE, 0, 3)).willReturn(new int[]{7, 2, 11});
+        given(repository.findAllById(List.of(7, 2))).willReturn(List.of(necklace, ring));
+
+        //when, method invocation
+        ProductPage page = underTest.getProductPageByPrice("jewelery", 5.0, 30.0, null, 2);
+
+        //then, what we expect
+        Assertions.assertAll(
+                ()-> assertEquals(List.of(ring, necklace), page.items()),
+                ()-> assertEquals(ProductCursor.after(ProductCursor.SORT_PRICE, necklace).encode(), page.nextCursor())
+        );
+    }
+
+
+    //Exception flow
+    @DisplayName("Get a price range where min is above max, then throw exception")
+    @Test
+    public void givenMinPriceAboveMaxPrice_whenGetProductsByPrice_thenThrowException() {
+
+        //then, what we expect
+        assertThrows(BadRequestException.class, ()-> underTest.getProductsByPrice(null, 30.0, 5.0));
+        verifyNoInteractions(priceIndex);
+    }
+
+
+    //Exception flow
+    @DisplayName("Get a page of a price range larger than the biggest page, then throw exception")
+    @Test
+    public void givenLimitAboveMaxPageSize_whenGetProductPageByPrice_thenThrowException() {
+
+        //then, what we expect
+        assertThrows(BadRequestException.class, ()-> underTest.getProductPageByPrice(null, null, null, null, ProductService.MAX_PAGE_SIZE + 1));
+        verifyNoInteractions(priceIndex);
+    }
+
+
+    //Wrong flow
+    @DisplayName("Update a product with a version it no longer has, then throw exception and publish nothing")
+    @Test
+    public void givenStaleVersion_whenUpdateProduct_thenThrowPreconditionFailed() {
+
+        //given, the update matches no row but the product is there with version 4
+        Integer id = 8;
+        given(repository.patchReturningBefore(eq(id), eq(3L), any(ProductPatch.class))).willReturn(Optional.empty());
+        given(repository.findVersionById(id)).willReturn(Optional.of(4L));
+
+        //then, what we expect
+        assertThrows(PreconditionFailedException.class,
+                //when, method invocation
+                ()-> underTest.updateProduct(new Product("Rings", 1600.0,"Jewelry", "Bling bling","urlForRingsImage"), id, 3L));
+
+        Assertions.assertAll(
+                ()-> verify(repository, never()).save(any()),
+                ()-> verifyNoInteractions(events)
+        );
+    }
+
+
+    //Wrong flow
+    @DisplayName("Patch a product to a title another product has, then throw exception and publish nothing")
+    @Test
+    public void givenTakenTitle_whenPatchProduct_thenThrowBadRequest() {
+
+        //given, the update matches no row because product 3 has the title
+        Integer id = 8;
+        ProductPatch patch = new ProductPatch(Set.of("title"), "Rings", null, null, null, null);
+        given(repository.patchReturningBefore(id, null, patch)).willReturn(Optional.empty());
+        given(repository.findVersionById(id)).willReturn(Optional.of(4L));
+        given(repository.existsByTitleAndIdNot("Rings", id)).willReturn(true);
+
+        //when
+        BadRequestException exception = assertThrows(BadRequestException.class, ()-> underTest.patchProduct(id, patch, null));
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals("En produkt med titeln: Rings finns redan", exception.getMessage()),
+                ()-> verifyNoInteractions(events)
+        );
+    }
+
+
+    //Wrong flow
+    @DisplayName("Delete a product that someone else changed in between, then throw exception")
+    @Test
+    public void givenConcurrentUpdate_whenDeletingProduct_thenThrowPreconditionFailed() {
+
+        //given, the delete matches no row because the version has moved on
+        Integer id = 3;
+        given(repository.deleteReturningBefore(id, 1L)).willReturn(Optional.empty());
+        given(repository.findVersionById(id)).willReturn(Optional.of(2L));
+
+        //then, what we expect
+        Assertions.assertAll(
+                ()-> assertThrows(PreconditionFailedException.class, ()-> underTest.deleteProduct(id, 1L)),
+                ()-> verifyNoInteractions(events)
+        );
+    }
+
+
+    //Normal flow
+    @DisplayName("Get products by a list of ids, then they keep the requested order and missing ids are listed")
+    @Test
+    public void givenSomeUnknownIds_whenGetProductsByIds_thenMissingIdsAreListed() {
+
+        //given, 4 is already cached, 9 is in the database and 7 does not exist
+        Product jacket = new Product("Mens Cotton Jacket", 55.99, "men's clothing", "Bomullsjacka", "urlForJacketImage");
+        Product shirt = new Product("Shirt", 40.0, "men's clothing", "Bomull", "urlForShirtImage");
+        jacket.setId(9);
+        shirt.setId(4);
+        cache.putProduct(cache.stamp(), shirt);
+        given(repository.findAllById(List.of(9, 7))).willReturn(List.of(jacket));
+
+        //when, method invocation
+        ProductLookup result = underTest.getProductsByIds(List.of(9, 4, 7, 9));
+
+        //then, what we expect
+        Assertions.assertAll(
+                ()-> assertEquals(List.of(jacket, shirt), result.items()),
+                ()-> assertEquals(List.of(7), result.missing()),
+                ()-> verify(repository,times(1)).findAllById(List.of(9, 7)),
+                ()-> verifyNoMoreInteractions(repository)
+        );
+    }
+
+
+
+
+    //Normal flow
+    @DisplayName("Patch a product, then only the patched fields change and an update event is published")
+    @Test
+    public void givenPatch_whenPatchingProduct_thenOtherFieldsAreKept() {
+
+        //given, setup for test
+        Integer id = 8;
+        Product before = new Product("Necklace", 1800.0,"Jewelry", "Bling bling","urlForNecklaceImage");
+        before.setId(id);
+        before.setVersion(2L);
+        ProductPatch patch = new ProductPatch(Set.of("price", "image"), null, 1500.0, null, null, null);
+        given(repository.patchReturningBefore(id, 2L, patch)).willReturn(Optional.of(before));
+
+        //when, method invocation
+        Product after = underTest.patchProduct(id, patch, 2L);
+
+        //then, what we expect
+        Assertions.assertAll(
+                ()-> assertEquals("Necklace", after.getTitle()),
+                ()-> assertEquals(1500.0, after.getPrice()),
+                ()-> assertNull(after.getImage()),
+                ()-> assertEquals(3L, after.getVersion()),
+                ()-> verify(repository, never()).findById(any()),
+                ()-> verify(events).publishEvent(ProductChangedEvent.updated(before, after))
+        );
+    }
+
+
+    //Normal flow
+    @DisplayName("Delete products by id, then one statement deletes them and missing ids are listed")
+    @Test
+    public void givenIds_whenDeletingProducts_thenDeletedAndMissingIdsAreReturned() {
+
+        //given, setup for test
+        Product ring = new Product("Ring", 1200.0,"Jewelry", "Bling bling","urlForRingImage");
+        ring.setId(1);
+        given(repository.deleteAllByIdReturningBefore(Set.of(1, 7))).willReturn(List.of(ring));
+
+        //when, method invocation
+        ProductDeletion deletion = underTest.deleteProducts(List.of(1, 7, 1));
+
+        //then, what we expect
+        Assertions.assertAll(
+                ()-> assertEquals(List.of(1), deletion.deleted()),
+                ()-> assertEquals(List.of(7), deletion.missing()),
+                ()-> verify(events).publishEvent(ProductChangedEvent.deleted(ring))
+        );
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.exception.EntityNotFoundException;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private static final int CALLERS = 16;
+
+    private SingleFlight underTest;
+    private ExecutorService pool;
+
+    @BeforeEach
+    public void setUp() {
+        underTest = new SingleFlight();
+        pool = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    // Starts all callers at once and lets the loader wait until they have all called in
+    private List<Future<String>> callConcurrently(Object key, AtomicInteger loaderCalls, RuntimeException failure) {
+        CountDownLatch started = new CountDownLatch(CALLERS);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(pool.submit(() -> {
+                started.countDown();
+                return underTest.execute(key, () -> {
+                    loaderCalls.incrementAndGet();
+                    await(started);
+                    sleep(50);
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return "value";
+                });
+            }));
+        }
+        return results;
+    }
+
+
+    @DisplayName("Concurrent calls for the same key run the loader once and all get its value")
+    @Test
+    public void givenConcurrentCallsForSameKey_whenExecuting_thenLoaderRunsOnce() throws Exception {
+
+        //given
+        AtomicInteger loaderCalls = new AtomicInteger();
+
+        //when
+        List<Future<String>> results = callConcurrently("key", loaderCalls, null);
+
+        //then
+        for (Future<String> result : results) {
+            assertEquals("value", result.get(5, TimeUnit.SECONDS));
+        }
+        Assertions.assertAll(
+                ()-> assertEquals(1, loaderCalls.get()),
+                ()-> assertEquals(CALLERS - 1, underTest.coalesced())
+        );
+    }
+
+
+    @DisplayName("Concurrent calls that fail all get the exception from the one loader call")
+    @Test
+    public void givenFailingLoader_whenExecutingConcurrently_thenEveryCallerGetsTheException() {
+
+        //given
+        AtomicInteger loaderCalls = new AtomicInteger();
+        EntityNotFoundException notFound = new EntityNotFoundException(3);
+
+        //when
+        List<Future<String>> results = callConcurrently("key", loaderCalls, notFound);
+
+        //then
+        for (Future<String> result : results) {
+            Exception exception = assertThrows(Exception.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertSame(notFound, exception.getCause());
+        }
+        assertEquals(1, loaderCalls.get());
+    }
+
+
+    @DisplayName("Calls after the first one has finished run the loader again")
+    @Test
+    public void givenFinishedCall_whenExecutingAgain_thenLoaderRunsAgain() {
+
+        //given
+        AtomicInteger loaderCalls = new AtomicInteger();
+
+        //when
+        underTest.execute("key", loaderCalls::incrementAndGet);
+        underTest.execute("key", loaderCalls::incrementAndGet);
+
+        //then
+        Assertions.assertAll(
+                ()-> assertEquals(2, loaderCalls.get()),
+                ()-> assertEquals(0, underTest.coalesced())
+        );
+    }
+
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
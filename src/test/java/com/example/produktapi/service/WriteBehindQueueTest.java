@@ -0,0 +1,186 @@
+package com.example.produktapi.service;
+
+import com.example.produktapi.exception.BadRequestException;
+import com.example.produktapi.model.PendingProductWrite;
+import com.example.produktapi.model.Product;
+import com.example.produktapi.model.ProductPatch;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "produktapi.write-behind.mode=queued",
+        "produktapi.write-behind.max-batch=100",
+        "produktapi.write-behind.max-delay=1s"
+})
+class WriteBehindQueueTest {
+
+    //A group is written a second after its first write, so everything queued in a test stays pending until flush()
+
+    private static final String CATEGORY = "skrivkö";
+
+    @Autowired
+    private WriteBehindQueue underTest;
+
+    @Autowired
+    private ProductService productService;
+
+    @AfterEach
+    public void cleanUp() {
+        underTest.exit();
+        productService.deleteCategory(CATEGORY);
+    }
+
+    private static Product product(String title) {
+        return new Product(title, 10.0, CATEGORY, "Description", "urlForImage");
+    }
+
+    private List<String> titlesFor(String client) {
+        underTest.enter(client);
+        try {
+            return productService.getProductsByCategory(CATEGORY).stream().map(Product::getTitle).toList();
+        } finally {
+            underTest.exit();
+        }
+    }
+
+
+    @DisplayName("Queued products are written in one group, and only their own client sees them before that")
+    @Test
+    public void givenQueuedProducts_whenFlushing_thenTheyAreWrittenTogether() {
+
+        //given
+        underTest.enter("a");
+        List<PendingProductWrite> queued = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            queued.add(productService.addProductLater(product("Skrivkö " + i)));
+        }
+        underTest.exit();
+        List<String> seenByA = titlesFor("a");
+        List<String> seenByB = titlesFor("b");
+
+        //when
+        underTest.flush();
+
+        //then
+        List<PendingProductWrite> written = queued.stream()
+                .map(p -> productService.getPendingWrite(p.pendingId())).toList();
+        Assertions.assertAll(
+                ()-> assertTrue(queued.stream().allMatch(p -> p.state() == PendingProductWrite.State.PENDING)),
+                ()-> assertEquals(50, seenByA.size()),
+                ()-> assertEquals(0, seenByB.size()),
+                ()-> assertTrue(written.stream().allMatch(p -> p.state() == PendingProductWrite.State.WRITTEN)),
+                ()-> assertTrue(written.stream().allMatch(p -> p.product().getId() != null)),
+                ()-> assertEquals(50, titlesFor("b").size())
+        );
+    }
+
+
+    @DisplayName("A queued patch shows for its own client at once, a patch on an old version or to a taken title fails on its own")
+    @Test
+    public void givenQueuedPatches_whenFlushing_thenTheStaleOneFails() {
+
+        //given
+        Product product = productService.addProduct(product("Skrivkö patch"));
+        Product other = productService.addProduct(product("Skrivkö annan"));
+        productService.addProduct(product("Skrivkö upptagen"));
+        underTest.enter("a");
+        PendingProductWrite patched = productService.patchProductLater(product.getId(),
+                ProductPatch.replacing(new Product("Skrivkö patchad", 20.0, CATEGORY, "Ny", "urlForImage")),
+                product.getVersion());
+        PendingProductWrite stale = productService.patchProductLater(product.getId(),
+                ProductPatch.replacing(product("Skrivkö för sent")), product.getVersion());
+        PendingProductWrite takenTitle = productService.patchProductLater(other.getId(),
+                ProductPatch.replacing(product("Skrivkö upptagen")), null);
+        Product seenByA = productService.getProductById(product.getId());
+        underTest.exit();
+
+        //when
+        underTest.flush();
+
+        //then
+        PendingProductWrite first = productService.getPendingWrite(patched.pendingId());
+        PendingProductWrite second = productService.getPendingWrite(stale.pendingId());
+        Assertions.assertAll(
+                ()-> assertEquals("Skrivkö för sent", seenByA.getTitle()),
+                ()-> assertEquals(PendingProductWrite.State.WRITTEN, first.state()),
+                ()-> assertEquals(product.getVersion() + 1, first.product().getVersion()),
+                ()-> assertEquals(PendingProductWrite.State.FAILED, second.state()),
+                ()-> assertNotNull(second.error()),
+                ()-> assertEquals(PendingProductWrite.State.FAILED, productService.getPendingWrite(takenTitle.pendingId()).state()),
+                ()-> assertEquals("Skrivkö annan", productService.getProductById(other.getId()).getTitle()),
+                ()-> assertEquals("Skrivkö patchad", productService.getProductById(product.getId()).getTitle())
+        );
+    }
+
+
+    @DisplayName("A title that is queued or stored already is turned down when it is queued")
+    @Test
+    public void givenTakenTitle_whenQueuing_thenBadRequest() {
+
+        //given
+        productService.addProduct(product("Skrivkö finns"));
+        productService.addProductLater(product("Skrivkö köad"));
+
+        //then
+        Assertions.assertAll(
+                ()-> assertThrows(BadRequestException.class, () -> productService.addProductLater(product("Skrivkö finns"))),
+                ()-> assertThrows(BadRequestException.class, () -> productService.addProductLater(product("Skrivkö köad"))),
+                ()-> assertNull(productService.getPendingWrite(-1))
+        );
+    }
+
+
+    @DisplayName("A queue stopped while writes are coming in writes every write it took and turns the rest away")
+    @Test
+    public void givenConcurrentWrites_whenStopping_thenEveryAcceptedWriteIsWritten() throws Exception {
+
+        //given, a queue of its own with room for ten writes, whose groups only finish their writes
+        WriteBehindQueue queue = new WriteBehindQueue(mock(PlatformTransactionManager.class), "queued", 5,
+                Duration.ofMillis(1), 10);
+        queue.setGroupWriter(group -> () -> group.forEach(w -> w.done().complete(w.product())));
+        queue.start();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<PendingWrite>> calls = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            Product product = product("Skrivkö stopp " + i);
+            calls.add(executor.submit(() -> queue.add(product)));
+        }
+
+        //when
+        Thread.sleep(5);
+        queue.stop();
+
+        //then
+        List<PendingWrite> accepted = new ArrayList<>();
+        int turnedAway = 0;
+        for (Future<PendingWrite> call : calls) {
+            try {
+                accepted.add(call.get(10, TimeUnit.SECONDS));
+            } catch (ExecutionException e) {
+                assertInstanceOf(IllegalStateException.class, e.getCause());
+                turnedAway++;
+            }
+        }
+        executor.shutdown();
+        int rejected = turnedAway;
+        Assertions.assertAll(
+                ()-> assertEquals(400, accepted.size() + rejected),
+                ()-> assertTrue(accepted.stream().allMatch(w -> w.done().isDone() && !w.done().isCompletedExceptionally())),
+                ()-> assertFalse(queue.isRunning())
+        );
+    }
+}